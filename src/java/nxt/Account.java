@@ -3,6 +3,7 @@ package nxt;
 import nxt.crypto.Crypto;
 import nxt.crypto.EncryptedData;
 import nxt.db.DbClause;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.DbUtils;
@@ -255,7 +256,8 @@ public final class Account {
 
     };
 
-    private static final VersionedEntityDbTable<Account> accountTable = new VersionedEntityDbTable<Account>("account", accountDbKeyFactory) {
+    private static final VersionedEntityDbTable<Account> accountTable = new VersionedEntityDbTable<Account>("account", accountDbKeyFactory,
+            true, Nxt.getIntProperty("nxt.accountCacheSize")) {
 
         @Override
         protected Account load(Connection con, ResultSet rs) throws SQLException {
@@ -278,7 +280,8 @@ public final class Account {
 
     };
 
-    private static final VersionedEntityDbTable<AccountAsset> accountAssetTable = new VersionedEntityDbTable<AccountAsset>("account_asset", accountAssetDbKeyFactory) {
+    private static final VersionedEntityDbTable<AccountAsset> accountAssetTable = new VersionedEntityDbTable<AccountAsset>("account_asset", accountAssetDbKeyFactory,
+            true, 0) {
 
         @Override
         protected AccountAsset load(Connection con, ResultSet rs) throws SQLException {
@@ -328,7 +331,7 @@ public final class Account {
     private static final DerivedDbTable accountGuaranteedBalanceTable = new DerivedDbTable("account_guaranteed_balance") {
 
         @Override
-        public void trim(int height) {
+        public void trim(int fromHeight, int height) {
             try (Connection con = Db.db.getConnection();
                  PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM account_guaranteed_balance "
                          + "WHERE height < ?")) {
@@ -504,6 +507,13 @@ public final class Account {
         return accountAssetTable.getManyBy(new DbClause.LongClause("asset_id", assetId), height, from, to, " ORDER BY quantity DESC, account_id ");
     }
 
+    public static DbIterator<AccountAsset> getAssetAccounts(long assetId, int height, DbCursor cursor, int limit) {
+        if (height < 0) {
+            return accountAssetTable.getManyBy(new DbClause.LongClause("asset_id", assetId), cursor, limit, DbCursor.orderBy("asset_id"));
+        }
+        return accountAssetTable.getManyBy(new DbClause.LongClause("asset_id", assetId), height, cursor, limit, DbCursor.orderBy("asset_id"));
+    }
+
     public static DbIterator<AccountCurrency> getCurrencyAccounts(long currencyId, int from, int to) {
         return accountCurrencyTable.getManyBy(new DbClause.LongClause("currency_id", currencyId), from, to);
     }
@@ -781,6 +791,10 @@ public final class Account {
         return Trade.getAccountTrades(this.id, from, to);
     }
 
+    public DbIterator<Trade> getTrades(DbCursor cursor, int limit) {
+        return Trade.getAccountTrades(this.id, cursor, limit);
+    }
+
     public DbIterator<AssetTransfer> getAssetTransfers(int from, int to) {
         return AssetTransfer.getAccountAssetTransfers(this.id, from, to);
     }
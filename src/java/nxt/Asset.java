@@ -1,6 +1,7 @@
 package nxt;
 
 import nxt.db.DbClause;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.EntityDbTable;
@@ -21,7 +22,8 @@ public final class Asset {
 
     };
 
-    private static final EntityDbTable<Asset> assetTable = new EntityDbTable<Asset>("asset", assetDbKeyFactory) {
+    private static final EntityDbTable<Asset> assetTable = new EntityDbTable<Asset>("asset", assetDbKeyFactory,
+            Nxt.getIntProperty("nxt.assetCacheSize")) {
 
         @Override
         protected Asset load(Connection con, ResultSet rs) throws SQLException {
@@ -39,6 +41,10 @@ public final class Asset {
         return assetTable.getAll(from, to);
     }
 
+    public static DbIterator<Asset> getAllAssets(DbCursor cursor, int limit) {
+        return assetTable.getAll(cursor, limit);
+    }
+
     public static int getCount() {
         return assetTable.getCount();
     }
@@ -140,10 +146,18 @@ public final class Asset {
         return Account.getAssetAccounts(this.assetId, height, from, to);
     }
 
+    public DbIterator<Account.AccountAsset> getAccounts(int height, DbCursor cursor, int limit) {
+        return Account.getAssetAccounts(this.assetId, height, cursor, limit);
+    }
+
     public DbIterator<Trade> getTrades(int from, int to) {
         return Trade.getAssetTrades(this.assetId, from, to);
     }
 
+    public DbIterator<Trade> getTrades(DbCursor cursor, int limit) {
+        return Trade.getAssetTrades(this.assetId, cursor, limit);
+    }
+
     public DbIterator<AssetTransfer> getAssetTransfers(int from, int to) {
         return AssetTransfer.getAssetTransfers(this.assetId, from, to);
     }
@@ -1,6 +1,7 @@
 package nxt;
 
 import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
 
 import java.math.BigInteger;
 import java.util.List;
@@ -41,6 +42,10 @@ public interface Block {
 
     JSONObject getJSONObject(); //for Peers
 
+    JSONStreamAware getPreparedJSON(); //for Peers, cached getJSONObject()
+
+    byte[] getCompactBytes(); //for Peers, binary protocol, null if the block has no compact form
+
     //JSONObject getJSONObject(boolean includeTransactions); //for http
 
     boolean betterThan(Block chainHead);
@@ -0,0 +1,218 @@
+package nxt;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Headers of the most recent blocks of the main chain, a contiguous window of heights ending at the last block.
+ * Block ids are indexed by height in a ring array and by id in an open addressing table of primitive longs.
+ * Only the immutable header fields are kept, each lookup returns a new block, as loading it from the database would,
+ * but sharing the serialized forms of that block with the other instances.
+ * Blocks are added once they are committed and removed as soon as they are deleted, so a rolled back
+ * deletion only costs cache misses, never returns a block that is not in the database.
+ */
+final class BlockCache {
+
+    private static final class Header {
+
+        private final int timestamp;
+        private final long previousBlockId;
+        private final long totalAmountNQT;
+        private final long totalFeeNQT;
+        private final int payloadLength;
+        private final byte[] payloadHash;
+        private final byte[] previousBlockHash;
+        private final long nonce;
+        private final BigInteger cumulativeDifficulty;
+        private final long baseTarget;
+        private final BlockImpl.SerializedForms serializedForms;
+
+        private Header(BlockPOW block) {
+            this.timestamp = block.getTimestamp();
+            this.previousBlockId = block.getPreviousBlockId();
+            this.totalAmountNQT = block.getTotalAmountNQT();
+            this.totalFeeNQT = block.getTotalFeeNQT();
+            this.payloadLength = block.getPayloadLength();
+            this.payloadHash = block.getPayloadHash().clone();
+            this.previousBlockHash = block.getPreviousBlockHash() == null ? null : block.getPreviousBlockHash().clone();
+            this.nonce = block.getNonce();
+            this.cumulativeDifficulty = block.getCumulativeDifficulty();
+            this.baseTarget = block.getBaseTarget();
+            this.serializedForms = block.getSerializedForms();
+        }
+
+        private BlockImpl toBlock(long id, int height, long nextBlockId) {
+            try {
+                BlockPOW block = new BlockPOW(timestamp, previousBlockId, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash.clone(),
+                        previousBlockHash == null ? null : previousBlockHash.clone(), nextBlockId, height, id, nonce,
+                        cumulativeDifficulty, baseTarget);
+                block.setSerializedForms(serializedForms);
+                return block;
+            } catch (NxtException.ValidationException e) {
+                throw new RuntimeException("Cached block " + id + " does not pass validation!", e);
+            }
+        }
+
+    }
+
+    private final int capacity;
+    private final long[] blockIds; // indexed by height % capacity
+    private final Header[] headers; // indexed by height % capacity
+    private final long[] ids; // id table, 0 marks a free slot
+    private final int[] heights;
+    private final int mask;
+    private int bottomHeight;
+    private int topHeight = -1;
+
+    BlockCache(int capacity) {
+        this.capacity = capacity;
+        this.blockIds = new long[capacity];
+        this.headers = new Header[capacity];
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 1) * 2) << 1;
+        this.ids = new long[tableSize];
+        this.heights = new int[tableSize];
+        this.mask = tableSize - 1;
+    }
+
+    synchronized BlockImpl get(long blockId) {
+        int slot = find(blockId);
+        return slot < 0 ? null : getBlock(heights[slot]);
+    }
+
+    synchronized boolean contains(long blockId) {
+        return find(blockId) >= 0;
+    }
+
+    synchronized BlockImpl getAtHeight(int height) {
+        return height >= bottomHeight && height <= topHeight ? getBlock(height) : null;
+    }
+
+    /*
+     * The id of the block at this height, or 0 if not cached.
+     */
+    synchronized long getIdAtHeight(int height) {
+        return height >= bottomHeight && height <= topHeight ? blockIds[height % capacity] : 0;
+    }
+
+    /*
+     * Up to limit blocks following the block with this id, or null if that block is not cached.
+     */
+    synchronized List<BlockImpl> getBlocksAfter(long blockId, int limit) {
+        int slot = find(blockId);
+        if (slot < 0) {
+            return null;
+        }
+        List<BlockImpl> blocks = new ArrayList<>();
+        for (int height = heights[slot] + 1; height <= topHeight && blocks.size() < limit; height++) {
+            blocks.add(getBlock(height));
+        }
+        return blocks;
+    }
+
+    private BlockImpl getBlock(int height) {
+        long nextBlockId = height < topHeight ? blockIds[(height + 1) % capacity] : 0;
+        return headers[height % capacity].toBlock(blockIds[height % capacity], height, nextBlockId);
+    }
+
+    /*
+     * Adds the new last block, or restarts the window from it if it does not continue the cached blocks.
+     */
+    synchronized void push(BlockImpl block) {
+        if (capacity == 0) {
+            return;
+        }
+        if (!(block instanceof BlockPOW)) {
+            clear();
+            return;
+        }
+        int height = block.getHeight();
+        if (topHeight >= 0 && height == topHeight + 1 && blockIds[topHeight % capacity] == block.getPreviousBlockId()) {
+            if (topHeight - bottomHeight + 1 == capacity) {
+                remove(bottomHeight);
+                bottomHeight += 1;
+            }
+        } else {
+            clear();
+            bottomHeight = height;
+        }
+        topHeight = height;
+        blockIds[height % capacity] = block.getId();
+        headers[height % capacity] = new Header((BlockPOW) block);
+        insert(block.getId(), height);
+    }
+
+    /*
+     * Removes the block with this id and all blocks above it. If the block is older than the window,
+     * everything cached is above it.
+     */
+    synchronized void removeFrom(long blockId) {
+        int slot = find(blockId);
+        if (slot < 0) {
+            clear();
+            return;
+        }
+        int height = heights[slot];
+        while (topHeight >= height) {
+            remove(topHeight);
+            topHeight -= 1;
+        }
+        if (topHeight < bottomHeight) {
+            topHeight = -1;
+        }
+    }
+
+    synchronized void clear() {
+        for (int height = bottomHeight; height <= topHeight; height++) {
+            remove(height);
+        }
+        topHeight = -1;
+    }
+
+    private void remove(int height) {
+        long blockId = blockIds[height % capacity];
+        blockIds[height % capacity] = 0;
+        headers[height % capacity] = null;
+        int slot = find(blockId);
+        // backward shift deletion, keeps the probe sequences of the following ids unbroken
+        int next = (slot + 1) & mask;
+        while (ids[next] != 0) {
+            int home = hash(ids[next]);
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                ids[slot] = ids[next];
+                heights[slot] = heights[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        ids[slot] = 0;
+    }
+
+    private void insert(long blockId, int height) {
+        int slot = hash(blockId);
+        while (ids[slot] != 0 && ids[slot] != blockId) {
+            slot = (slot + 1) & mask;
+        }
+        ids[slot] = blockId;
+        heights[slot] = height;
+    }
+
+    private int find(long blockId) {
+        if (blockId == 0) {
+            return -1;
+        }
+        int slot = hash(blockId);
+        while (ids[slot] != 0) {
+            if (ids[slot] == blockId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int hash(long blockId) {
+        return (int)(blockId ^ (blockId >>> 32)) & mask; // block ids are hash based, the low bits are uniform
+    }
+
+}
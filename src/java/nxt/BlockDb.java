@@ -9,10 +9,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 
 final class BlockDb {
 
+    private static final int blockCacheSize = Math.max(0, Nxt.getIntProperty("nxt.blockCacheSize"));
+    private static final BlockCache blockCache = new BlockCache(blockCacheSize);
+
     static BlockImpl findBlock(long blockId) {
+        BlockImpl cachedBlock = blockCache.get(blockId);
+        if (cachedBlock != null) {
+            return cachedBlock;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE id = ?")) {
             pstmt.setLong(1, blockId);
@@ -31,6 +39,9 @@ final class BlockDb {
     }
 
     static boolean hasBlock(long blockId) {
+        if (blockCache.contains(blockId)) {
+            return true;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT 1 FROM block WHERE id = ?")) {
             pstmt.setLong(1, blockId);
@@ -43,6 +54,9 @@ final class BlockDb {
     }
 
     static boolean hasBlockAtHeight(int height) {
+        if (blockCache.getIdAtHeight(height) != 0) {
+            return true;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT 1 FROM block WHERE height = ?")) {
             pstmt.setLong(1, height);
@@ -55,6 +69,10 @@ final class BlockDb {
     }
 
     static long findBlockIdAtHeight(int height) {
+        long cachedBlockId = blockCache.getIdAtHeight(height);
+        if (cachedBlockId != 0) {
+            return cachedBlockId;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT id FROM block WHERE height = ?")) {
             pstmt.setInt(1, height);
@@ -70,6 +88,10 @@ final class BlockDb {
     }
 
     static BlockImpl findBlockAtHeight(int height) {
+        BlockImpl cachedBlock = blockCache.getAtHeight(height);
+        if (cachedBlock != null) {
+            return cachedBlock;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height = ?")) {
             pstmt.setInt(1, height);
@@ -124,6 +146,35 @@ final class BlockDb {
         }
     }
 
+    // null if the block is not cached
+    static List<BlockImpl> findBlocksAfter(long blockId, int limit) {
+        return blockCache.getBlocksAfter(blockId, limit);
+    }
+
+    // to be called with the committed new last block
+    static void cacheBlock(BlockImpl block) {
+        blockCache.push(block);
+    }
+
+    // fills the cache with the blocks below the last block, at startup
+    static void loadBlockCache(BlockImpl lastBlock) {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height >= ? AND height < ? ORDER BY height ASC")) {
+            pstmt.setInt(1, lastBlock.getHeight() - blockCacheSize + 1);
+            pstmt.setInt(2, lastBlock.getHeight());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    blockCache.push(loadBlock(con, rs));
+                }
+            }
+            blockCache.push(lastBlock);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        } catch (NxtException.ValidationException e) {
+            throw new RuntimeException("Block already in database does not pass validation!", e);
+        }
+    }
+
     static BlockImpl loadBlock(Connection con, ResultSet rs) throws NxtException.ValidationException {
         try {
             return loadBlockPOW(con, rs); //TODO
@@ -277,6 +328,7 @@ final class BlockDb {
             }
             return;
         }
+        blockCache.removeFrom(blockId);
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmtSelect = con.prepareStatement("SELECT db_id FROM block WHERE timestamp >= "
                      + "(SELECT timestamp FROM block WHERE id = ?) ORDER BY timestamp DESC");
@@ -315,6 +367,7 @@ final class BlockDb {
             return;
         }
         Logger.logMessage("Deleting blockchain...");
+        blockCache.clear();
         try (Connection con = Db.db.getConnection();
              Statement stmt = con.createStatement()) {
             try {
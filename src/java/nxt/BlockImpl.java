@@ -2,9 +2,11 @@ package nxt;
 
 import nxt.crypto.Crypto;
 import nxt.util.Convert;
+import nxt.util.JSON;
 import nxt.util.Logger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
@@ -33,6 +35,16 @@ abstract class BlockImpl implements Block {
     volatile String stringId = null;
 
     private volatile BlockImpl previousBlock;
+    private volatile SerializedForms serializedForms = new SerializedForms();
+
+    /*
+     * The forms sent to peers, built when first requested. The block cache shares them between all the instances
+     * it makes of a stored block, so they are built once per block, not once per request.
+     */
+    static final class SerializedForms {
+        volatile JSONStreamAware preparedJSON;
+        volatile byte[] compactBytes;
+    }
 
 
     //Class childClass = BlockNXTImpl.class;
@@ -64,11 +76,11 @@ abstract class BlockImpl implements Block {
             int payloadLength = 0;
             MessageDigest digest = Crypto.sha256();
 
-            for(Transaction tx : transactions) {
+            for(TransactionImpl tx : transactions) {
                 totalAmountNQT += tx.getAmountNQT();
                 totalFeeNQT += tx.getFeeNQT();
                 payloadLength += tx.getSize();
-                digest.update(tx.getBytes());
+                digest.update(tx.bytes());
             }
             byte[] payloadHash = digest.digest();
 
@@ -90,6 +102,28 @@ abstract class BlockImpl implements Block {
         }
     }
 
+    /*
+     * A new block whose payload totals and hash were kept up to date as its transactions were selected.
+     */
+    BlockImpl(int timestamp, Block previousBlock, List<TransactionImpl> transactions, long totalAmountNQT, long totalFeeNQT,
+              int payloadLength, byte[] payloadHash) throws NxtException.ValidationException {
+        if (transactions.size() > Constants.MAX_NUMBER_OF_TRANSACTIONS) {
+            throw new NxtException.NotValidException("attempted to create a block with " + transactions.size() + " transactions");
+        }
+        if (payloadLength > Constants.MAX_PAYLOAD_LENGTH || payloadLength < 0) {
+            throw new NxtException.NotValidException("attempted to create a block with payloadLength " + payloadLength);
+        }
+        this.timestamp = timestamp;
+        this.previousBlockId = previousBlock.getId();
+        this.previousBlockHash = previousBlock.getHash();
+        this.height = previousBlock.getHeight() + 1;
+        this.blockTransactions = Collections.unmodifiableList(transactions);
+        this.totalAmountNQT = totalAmountNQT;
+        this.totalFeeNQT = totalFeeNQT;
+        this.payloadLength = payloadLength;
+        this.payloadHash = payloadHash;
+    }
+
     BlockImpl(int timestamp, long previousBlockId, long totalAmountNQT, long totalFeeNQT, int payloadLength, byte[] payloadHash, 
               byte[] previousBlockHash, List<TransactionImpl> transactions)
             throws NxtException.ValidationException {
@@ -155,7 +189,14 @@ abstract class BlockImpl implements Block {
     }
 
     private void loadTransactions(){
-            this.blockTransactions = Collections.unmodifiableList(TransactionDb.findBlockTransactions(getId()));
+            setTransactions(TransactionDb.findBlockTransactions(getId()));
+    }
+
+    /*
+     * The transactions of a block loaded from the database, when they were read along with the block.
+     */
+    void setTransactions(List<TransactionImpl> transactions) {
+            this.blockTransactions = Collections.unmodifiableList(transactions);
             for (TransactionImpl transaction : this.blockTransactions) {
                 transaction.setBlock(this);
             }
@@ -223,6 +264,17 @@ abstract class BlockImpl implements Block {
 
     @Override
     public JSONObject getJSONObject() { //for Peers
+        JSONObject json = getHeaderJSONObject();
+        JSONArray transactionsData = new JSONArray();
+        for (Transaction transaction : getTransactions()) {
+            transactionsData.add(transaction.getJSONObject());
+        }
+        json.put("transactions", transactionsData);
+        return json;
+    }
+
+    // all but the transactions, which getJSONObject() and getPreparedJSON() add in their own form
+    JSONObject getHeaderJSONObject() {
         JSONObject json = new JSONObject();
         json.put("timestamp", timestamp);
         json.put("previousBlock", Convert.toUnsignedLong(previousBlockId));
@@ -231,19 +283,50 @@ abstract class BlockImpl implements Block {
         json.put("payloadLength", payloadLength);
         json.put("payloadHash", Convert.toHexString(payloadHash));
         json.put("previousBlockHash", Convert.toHexString(previousBlockHash));
-        JSONArray transactionsData = new JSONArray();
-        for (Transaction transaction : getTransactions()) {
-            transactionsData.add(transaction.getJSONObject());
+        return json;
+    }
+
+    @Override
+    public JSONStreamAware getPreparedJSON() {
+        SerializedForms forms = serializedForms;
+        JSONStreamAware json = forms.preparedJSON;
+        if (json == null) {
+            JSONObject blockJSON = getHeaderJSONObject();
+            JSONArray transactionsData = new JSONArray();
+            for (TransactionImpl transaction : getTransactions()) {
+                transactionsData.add(transaction.getPreparedJSON());
+            }
+            blockJSON.put("transactions", transactionsData);
+            json = JSON.prepare(blockJSON);
+            forms.preparedJSON = json;
         }
-        json.put("transactions", transactionsData);
         return json;
     }
 
+    SerializedForms getSerializedForms() {
+        return serializedForms;
+    }
+
+    void setSerializedForms(SerializedForms serializedForms) {
+        this.serializedForms = serializedForms;
+    }
+
+    /*
+     * A block still being mined must drop its serialized forms when it changes, without touching shared ones.
+     */
+    void clearSerializedForms() {
+        serializedForms = new SerializedForms();
+    }
+
 //    @Override
 //    abstract public JSONObject getJSONObject(boolean includeTransactions); //for http
 
    static BlockImpl parseBlock(JSONObject blockData) throws NxtException.ValidationException {
-       return BlockPOW.parseBlock(blockData);
+       return BlockPOW.parseBlock(blockData, null);
+   }
+
+   static BlockImpl parseBlock(byte[] blockBytes) throws NxtException.ValidationException {
+       return BlockPOW.parseBlock(blockBytes, null);
    }
 
     abstract public byte[] getBytes();
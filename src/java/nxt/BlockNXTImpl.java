@@ -110,8 +110,8 @@ public class BlockNXTImpl extends BlockImpl {
     }
 
     @Override
-    public JSONObject getJSONObject() { //for Peers
-        JSONObject json = super.getJSONObject();
+    JSONObject getHeaderJSONObject() {
+        JSONObject json = super.getHeaderJSONObject();
         json.put("version", version);
         json.put("generatorPublicKey", Convert.toHexString(generatorPublicKey));
         json.put("generationSignature", Convert.toHexString(generationSignature));
@@ -119,6 +119,11 @@ public class BlockNXTImpl extends BlockImpl {
         return json;
     }
 
+    @Override
+    public byte[] getCompactBytes() { //TODO binary peer protocol not implemented for NXT blocks, sent as JSON
+        return null;
+    }
+
     /*
     public JSONObject getJSONObject() {
         this.getJSONObject(false);
@@ -3,6 +3,7 @@ package nxt;
 import org.json.simple.JSONObject;
 
 import nxt.crypto.Crypto;
+import nxt.peer.BinaryProtocol;
 import nxt.util.Convert;
 import nxt.util.Logger;
 import org.json.simple.JSONArray;
@@ -11,6 +12,7 @@ import org.json.simple.JSONObject;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,11 +27,15 @@ import nxt.NxtException.NotValidException;
 
 public class BlockPOW extends BlockImpl {
 
+    static final int HEADER_LENGTH = 4 + 8 + 32 + 32 + 8;
+    private static final int NONCE_OFFSET = HEADER_LENGTH - 8;
+
     //private BigInteger nonce = BigInteger.ZERO;
     private long nonce = 0; //TODO max nonce=?
     //private int timestamp = Nxt.getEpochTime();
     private BigInteger cumulativeDifficulty = BigInteger.ZERO;
     private long baseTarget;
+    private int periodStartTimestamp = -1; //timestamp of the first block of the retarget period, -1 if not known yet
 
 
     BlockPOW(int timestamp, Block previousBlock_, List<TransactionImpl> transactions) throws NxtException.ValidationException {
@@ -44,6 +50,15 @@ public class BlockPOW extends BlockImpl {
         }
     }
 
+    BlockPOW(int timestamp, Block previousBlock, List<TransactionImpl> transactions, long totalAmountNQT, long totalFeeNQT,
+             int payloadLength, byte[] payloadHash) throws NxtException.ValidationException {
+        super(timestamp, previousBlock, transactions, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash);
+        this.calculateBaseTarget((BlockPOW) previousBlock);
+        if (timestamp <= previousBlock.getTimestamp()) {
+            throw new RuntimeException("wrong timestamp");
+        }
+    }
+
     BlockPOW(int timestamp, long previousBlockId, long totalAmountNQT, long totalFeeNQT, int payloadLength, byte[] payloadHash, 
               byte[] previousBlockHash, long nextBlockId, int height, long id, long nonce, BigInteger cumulativeDifficulty, long baseTarget)
               throws NxtException.ValidationException {
@@ -54,6 +69,24 @@ public class BlockPOW extends BlockImpl {
        this.baseTarget = baseTarget;
    }
 
+    private BlockPOW(BlockPOW template) throws NxtException.ValidationException { //private copy for a mining thread
+        super(template.timestamp, template.previousBlockId, template.totalAmountNQT, template.totalFeeNQT,
+                template.payloadLength, template.payloadHash, template.previousBlockHash, template.getTransactions());
+        this.height = template.height;
+        this.nonce = template.nonce;
+        this.cumulativeDifficulty = template.cumulativeDifficulty;
+        this.baseTarget = template.baseTarget;
+        this.periodStartTimestamp = template.periodStartTimestamp;
+    }
+
+    BlockPOW copy() {
+        try {
+            return new BlockPOW(this);
+        } catch (NxtException.ValidationException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
     @Override
     public byte[] getHash() {
         return Crypto.sha256().digest(this.getBytes());
@@ -73,6 +106,7 @@ public class BlockPOW extends BlockImpl {
 
     public void setTimestamp(int timestamp) {
         this.timestamp = timestamp;
+        clearSerializedForms();
     }
 
     public long getNonce() {
@@ -82,12 +116,18 @@ public class BlockPOW extends BlockImpl {
     public void incNonce() {
         //nonce = nonce.add(BigInteger.ONE);
         nonce++;
+        clearSerializedForms();
+    }
+
+    void setNonce(long nonce) {
+        this.nonce = nonce;
+        clearSerializedForms();
     }
 
 
     @Override
-    public JSONObject getJSONObject() { //for Peers
-        JSONObject json = super.getJSONObject();
+    JSONObject getHeaderJSONObject() {
+        JSONObject json = super.getHeaderJSONObject();
         json.put("nonce", nonce);
 
         //FOR DEBUG ONLY
@@ -103,7 +143,7 @@ public class BlockPOW extends BlockImpl {
 
     public byte[] getBytes() {
         //ByteBuffer buffer = ByteBuffer.allocate( 4 + 8 + 4 + (8 + 8) + 4 + 32 + 32 + 64);
-        ByteBuffer buffer = ByteBuffer.allocate( 4 + 8 + 32 + 32 + 8);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH);
         buffer.order(ByteOrder.LITTLE_ENDIAN);
         //Logger.logDebugMessage("getBytes() timestamp="+timestamp);
         buffer.putInt(timestamp);
@@ -135,23 +175,40 @@ public class BlockPOW extends BlockImpl {
         return cumulativeDifficulty.compareTo( block.cumulativeDifficulty ) == 1;
     }
 
+    /*
+     * The base target is constant within a retarget period, so the average over the last period is the base target
+     * of the previous block, and only the time the period took is needed, from its first and last timestamps.
+     */
     private void calculateBaseTarget(BlockPOW previousBlock) {
-        //if (this.getId() != Genesis.GENESIS_BLOCK_ID || previousBlockId != 0) {
-            if( getHeight() % 2012 != 0){
+            if( getHeight() % Constants.POW_RETARGET_INTERVAL != 0){
                 baseTarget = previousBlock.baseTarget;
+                periodStartTimestamp = previousBlock.getHeight() % Constants.POW_RETARGET_INTERVAL == 0
+                        ? previousBlock.timestamp : previousBlock.periodStartTimestamp;
             }else{
-                baseTarget = previousBlock.baseTarget;
-                //baseTarget = average of last 2012 blocks; //TODO
-                Blockchain chain = BlockchainImpl.getInstance();
-                synchronized (chain) {
-                    if(chain.getLastBlock().equals(this)) { 
-                    }else{
-                    }
-                }
+                long expectedTime = (long)(Constants.POW_RETARGET_INTERVAL - 1) * Constants.POW_BLOCK_TIME;
+                long actualTime = previousBlock.timestamp - previousBlock.getPeriodStartTimestamp();
+                actualTime = Math.min(Math.max(actualTime, expectedTime / 4), expectedTime * 4);
+                BigInteger newBaseTarget = BigInteger.valueOf(previousBlock.baseTarget)
+                        .multiply(BigInteger.valueOf(actualTime)).divide(BigInteger.valueOf(expectedTime));
+                baseTarget = newBaseTarget.min(BigInteger.valueOf(Constants.POW_MAX_BASE_TARGET)).max(BigInteger.ONE).longValue();
                 Logger.logDebugMessage("adjustBaseTarget() "+baseTarget);
             }
             cumulativeDifficulty = previousBlock.cumulativeDifficulty.add(Convert.two64.divide(BigInteger.valueOf(baseTarget)));
-        //}
+    }
+
+    /*
+     * Blocks loaded from the database are on the main chain, and so is the start of their period.
+     * Blocks of a fork inherit it from their previous block, a block starting a period uses its own timestamp,
+     * which may still change while it is being mined.
+     */
+    private int getPeriodStartTimestamp() {
+        if (getHeight() % Constants.POW_RETARGET_INTERVAL == 0) {
+            return timestamp;
+        }
+        if (periodStartTimestamp == -1) {
+            periodStartTimestamp = RetargetWindow.getInstance().getTimestamp(getHeight() - getHeight() % Constants.POW_RETARGET_INTERVAL);
+        }
+        return periodStartTimestamp;
     }
 
     boolean verify() {
@@ -159,15 +216,18 @@ public class BlockPOW extends BlockImpl {
     }
  
     boolean verifyWork() {
-        byte[] h = this.getHash();
-        byte[] lowHash = {h[0], h[1], h[2], h[3], h[4], h[5], h[6], h[7]};
-        BigInteger baseTarget = BigInteger.valueOf(this.baseTarget);
-        BigInteger hit = new BigInteger(1, lowHash);
-        //System.out.println("hit   ="+hit);
-        //System.out.println("target="+baseTarget);
-        //Logger.logDebugMessage("hit       ="+hit);
-        //Logger.logDebugMessage("baseTarget="+baseTarget);
-        return  hit.compareTo(baseTarget) == -1;
+        return meetsTarget(this.getHash(), this.baseTarget);
+    }
+
+    /*
+     * The hit is the first 8 bytes of the hash read as an unsigned big-endian number.
+     */
+    private static boolean meetsTarget(byte[] h, long baseTarget) {
+        long hit = 0;
+        for (int i = 0; i < 8; i++) {
+            hit = (hit << 8) | (h[i] & 0xff);
+        }
+        return hit + Long.MIN_VALUE < baseTarget + Long.MIN_VALUE; //unsigned comparison
     }
 
     boolean verify(Block previousBlock) {
@@ -179,7 +239,7 @@ public class BlockPOW extends BlockImpl {
 
     private BlockPOW(List<TransactionImpl> txs) throws Exception { //GENESIS BLOCK
         super(0, null, txs);
-        baseTarget = Long.MAX_VALUE /10;
+        baseTarget = Constants.POW_MAX_BASE_TARGET;
     }
 
     public static Block getGenesisBlock() {
@@ -206,22 +266,108 @@ public class BlockPOW extends BlockImpl {
         }
     }
 
-   static BlockPOW parseBlock(JSONObject blockData, BlockImpl previousVerifiedBlock) throws NxtException.ValidationException {
+    static BlockPOW parseBlock(JSONObject blockData, BlockImpl previousVerifiedBlock) throws NxtException.ValidationException {
+        try {
+            return BlockData.parse(blockData).toBlock(previousVerifiedBlock);
+        } catch (NxtException.ValidationException|RuntimeException e) {
+            Logger.logDebugMessage("Failed to parse block: " + blockData.toJSONString());
+            throw e;
+        }
+    }
+
+    static BlockPOW parseBlock(byte[] blockBytes, BlockImpl previousVerifiedBlock) throws NxtException.ValidationException {
         try {
+            return BlockData.parse(BinaryProtocol.wrap(blockBytes)).toBlock(previousVerifiedBlock);
+        } catch (NxtException.ValidationException|RuntimeException e) {
+            Logger.logDebugMessage("Failed to parse block: " + Convert.toHexString(blockBytes));
+            throw e;
+        }
+    }
+
+    /*
+     * Only what cannot be computed from the transactions and the previous block:
+     * the payload hash, length, totals and the previous block hash are left out.
+     */
+    @Override
+    public byte[] getCompactBytes() {
+        SerializedForms forms = getSerializedForms();
+        byte[] bytes = forms.compactBytes;
+        if (bytes == null) {
+            bytes = serializeCompactBytes();
+            forms.compactBytes = bytes;
+        }
+        return bytes;
+    }
+
+    private byte[] serializeCompactBytes() {
+        List<byte[]> transactionsBytes = new ArrayList<>();
+        for (TransactionImpl transaction : getTransactions()) {
+            transactionsBytes.add(transaction.bytes());
+        }
+        byte[] transactionsData = BinaryProtocol.toBytes(transactionsBytes);
+        ByteBuffer buffer = BinaryProtocol.allocate(4 + 8 + 8 + transactionsData.length);
+        buffer.putInt(timestamp);
+        buffer.putLong(previousBlockId);
+        buffer.putLong(nonce);
+        buffer.put(transactionsData);
+        return buffer.array();
+    }
+
+    /*
+     * A block received from a peer, with its transactions parsed but not yet checked against the previous block.
+     * This part of parsing does not depend on the previous block, so it can be done ahead and in parallel.
+     */
+    static final class BlockData {
+
+        private final int timestamp;
+        private final long previousBlockId;
+        private final long nonce;
+        private final List<TransactionImpl> transactions;
+
+        private BlockData(int timestamp, long previousBlockId, long nonce, List<TransactionImpl> transactions) {
+            this.timestamp = timestamp;
+            this.previousBlockId = previousBlockId;
+            this.nonce = nonce;
+            this.transactions = transactions;
+        }
+
+        static BlockData parse(JSONObject blockData) throws NxtException.ValidationException {
             int timestamp = ((Number) blockData.get("timestamp")).intValue();
             long previousBlockId = Convert.parseUnsignedLong((String) blockData.get("previousBlock"));
-            byte[] previousBlockHash = Convert.parseHexString((String) blockData.get("previousBlockHash"));
-            List<TransactionImpl> blockTransactions = new ArrayList<>();
+            long nonce = (Long) blockData.get("nonce");
+            List<TransactionImpl> transactions = new ArrayList<>();
             for (Object transactionData : (JSONArray) blockData.get("transactions")) {
-                blockTransactions.add(TransactionImpl.parseTransaction((JSONObject) transactionData));
+                transactions.add(TransactionImpl.parseTransaction((JSONObject) transactionData));
             }
+            return new BlockData(timestamp, previousBlockId, nonce, transactions);
+        }
 
-            long nonce = (Long) blockData.get("nonce");
+        static BlockData parse(ByteBuffer buffer) throws NxtException.ValidationException {
+            int timestamp = buffer.getInt();
+            long previousBlockId = buffer.getLong();
+            long nonce = buffer.getLong();
+            List<TransactionImpl> transactions = new ArrayList<>();
+            for (byte[] transactionBytes : BinaryProtocol.parseByteArrays(buffer)) {
+                transactions.add(TransactionImpl.parseTransaction(transactionBytes));
+            }
+            if (buffer.hasRemaining()) {
+                throw new NotValidException("Unexpected data after the block transactions");
+            }
+            return new BlockData(timestamp, previousBlockId, nonce, transactions);
+        }
 
-            if(previousVerifiedBlock == null){
+        List<TransactionImpl> getTransactions() {
+            return transactions;
+        }
+
+        BlockPOW toBlock(BlockImpl previousVerifiedBlock) throws NxtException.ValidationException {
+            if (previousVerifiedBlock == null) {
                 previousVerifiedBlock = BlockDb.findBlock(previousBlockId);
             }
-            BlockPOW block = new BlockPOW(timestamp, previousVerifiedBlock, blockTransactions);
+            if (previousVerifiedBlock == null || previousVerifiedBlock.getId() != previousBlockId) {
+                throw new NotValidException("Previous block id doesn't match");
+            }
+            BlockPOW block = new BlockPOW(timestamp, previousVerifiedBlock, transactions);
             block.nonce = nonce;
 
             if( !block.verify(previousVerifiedBlock) ) {
@@ -231,10 +377,73 @@ public class BlockPOW extends BlockImpl {
                 throw new NotValidException("verification failed 2");
             }
             return block;
-        } catch (NxtException.ValidationException|RuntimeException e) {
-            Logger.logDebugMessage("Failed to parse block: " + blockData.toJSONString());
-            throw e;
         }
+
+    }
+
+    /**
+     * Reusable header of a block being mined, owned by a single thread.
+     * Only the timestamp and nonce bytes are patched in place, and the hash is written into a reused
+     * buffer by a reused digest, so a nonce attempt allocates nothing.
+     */
+    static final class HeaderTemplate {
+
+        private final byte[] header = new byte[HEADER_LENGTH];
+        private final byte[] hash = new byte[32];
+        private final MessageDigest digest = Crypto.sha256();
+        private long baseTarget;
+
+        void setBlock(BlockPOW block) {
+            System.arraycopy(block.getBytes(), 0, header, 0, HEADER_LENGTH);
+            baseTarget = block.baseTarget;
+        }
+
+        void setTimestamp(int timestamp) {
+            header[0] = (byte)timestamp;
+            header[1] = (byte)(timestamp >> 8);
+            header[2] = (byte)(timestamp >> 16);
+            header[3] = (byte)(timestamp >> 24);
+        }
+
+        boolean verifyWork(long nonce) {
+            for (int i = 0; i < 8; i++) {
+                header[NONCE_OFFSET + i] = (byte)(nonce >> (8 * i));
+            }
+            digest.update(header, 0, HEADER_LENGTH);
+            try {
+                digest.digest(hash, 0, hash.length);
+            } catch (DigestException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+            return meetsTarget(hash, baseTarget);
+        }
+
+        /*
+         * Whether the hash of the last attempt is the one of the block with that nonce and timestamp set.
+         */
+        boolean matches(BlockPOW block) {
+            return Arrays.equals(hash, block.getHash());
+        }
+
+        /*
+         * Patches a copy of the block and the template alike and compares their hashes, to catch at startup
+         * a header layout the template no longer follows.
+         */
+        static void check(BlockPOW block) {
+            BlockPOW work = block.copy();
+            HeaderTemplate header = new HeaderTemplate();
+            header.setBlock(work);
+            int timestamp = work.getTimestamp() + 1;
+            long nonce = work.getNonce() ^ 0x0123456789abcdefL;
+            header.setTimestamp(timestamp);
+            header.verifyWork(nonce);
+            work.setTimestamp(timestamp);
+            work.setNonce(nonce);
+            if (!header.matches(work)) {
+                throw new IllegalStateException("Mining header template does not hash as the block");
+            }
+        }
+
     }
 
     //TODO remove
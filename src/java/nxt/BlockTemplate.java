@@ -0,0 +1,141 @@
+package nxt;
+
+import nxt.crypto.Crypto;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+ * The transactions of the block being mined: the candidates, ordered by fee per byte, and those of them selected
+ * greedily in that order to fit in a block, with the running totals and payload digest of the selection.
+ * A new candidate that fits is appended to the selection, hashing only its own bytes. When it should rather displace
+ * a selected one, or for a new last block, the selection is rebuilt from all the candidates, but only once the next
+ * block is made from it.
+ * Not thread safe, the generator uses it under its own lock.
+ */
+final class BlockTemplate {
+
+    static final Comparator<TransactionImpl> feeComparator = new Comparator<TransactionImpl>() {
+        @Override
+        public int compare(TransactionImpl o1, TransactionImpl o2) {
+            int result = Long.compare(o2.getFeeNQT() / o2.getSize(), o1.getFeeNQT() / o1.getSize());
+            if (result != 0) {
+                return result;
+            }
+            result = Integer.compare(o1.getTimestamp(), o2.getTimestamp());
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(o1.getId(), o2.getId());
+        }
+    };
+
+    private final TreeSet<TransactionImpl> candidates = new TreeSet<>(feeComparator);
+    private final List<TransactionImpl> selected = new ArrayList<>();
+    private TransactionImpl lowestSelected;
+    private boolean stale;
+    private final MessageDigest digest = Crypto.sha256();
+    private long totalAmountNQT;
+    private long totalFeeNQT;
+    private int payloadLength;
+
+    /*
+     * Returns true if the next block made from the template changes.
+     */
+    boolean add(TransactionImpl transaction) {
+        if (!candidates.add(transaction)) {
+            return false;
+        }
+        if (stale) {
+            return true;
+        }
+        if (fits(transaction)) {
+            select(transaction);
+            return true;
+        }
+        if (lowestSelected != null && feeComparator.compare(transaction, lowestSelected) < 0) {
+            stale = true;
+            return true;
+        }
+        return false;
+    }
+
+    void setTransactions(List<TransactionImpl> transactions) {
+        candidates.clear();
+        candidates.addAll(transactions);
+        stale = true;
+    }
+
+    /*
+     * Drops the candidates included in the new last block, or expired by now, the others are selected again.
+     */
+    void setLastBlock(Block lastBlock) {
+        Set<Long> blockTransactionIds = new HashSet<>();
+        for (Transaction transaction : lastBlock.getTransactions()) {
+            blockTransactionIds.add(transaction.getId());
+        }
+        int curTime = Nxt.getEpochTime();
+        Iterator<TransactionImpl> iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            TransactionImpl transaction = iterator.next();
+            if (blockTransactionIds.contains(transaction.getId()) || transaction.getExpiration() < curTime) {
+                iterator.remove();
+            }
+        }
+        stale = true;
+    }
+
+    BlockPOW toBlock(int timestamp, Block previousBlock) throws NxtException.ValidationException {
+        if (stale) {
+            select();
+        }
+        byte[] payloadHash;
+        try {
+            payloadHash = ((MessageDigest) digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return new BlockPOW(timestamp, previousBlock, new ArrayList<>(selected), totalAmountNQT, totalFeeNQT, payloadLength, payloadHash);
+    }
+
+    private void select() {
+        stale = false;
+        selected.clear();
+        lowestSelected = null;
+        digest.reset();
+        totalAmountNQT = 0;
+        totalFeeNQT = 0;
+        payloadLength = 0;
+        for (TransactionImpl transaction : candidates) {
+            if (selected.size() == Constants.MAX_NUMBER_OF_TRANSACTIONS) {
+                break;
+            }
+            if (fits(transaction)) {
+                select(transaction);
+            }
+        }
+    }
+
+    private boolean fits(TransactionImpl transaction) {
+        return selected.size() < Constants.MAX_NUMBER_OF_TRANSACTIONS
+                && payloadLength + transaction.getSize() <= Constants.MAX_PAYLOAD_LENGTH;
+    }
+
+    private void select(TransactionImpl transaction) {
+        selected.add(transaction);
+        digest.update(transaction.bytes());
+        totalAmountNQT += transaction.getAmountNQT();
+        totalFeeNQT += transaction.getFeeNQT();
+        payloadLength += transaction.getSize();
+        if (lowestSelected == null || feeComparator.compare(transaction, lowestSelected) > 0) {
+            lowestSelected = transaction;
+        }
+    }
+
+}
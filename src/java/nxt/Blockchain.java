@@ -1,5 +1,6 @@
 package nxt;
 
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 
 import java.sql.Connection;
@@ -24,10 +25,14 @@ public interface Blockchain {
 
     DbIterator<? extends Block> getBlocks(int from, int to);
 
+    DbIterator<? extends Block> getBlocks(DbCursor cursor, int limit);
+
     DbIterator<? extends Block> getBlocks(Account account, int timestamp);
 
     DbIterator<? extends Block> getBlocks(Account account, int timestamp, int from, int to);
 
+    DbIterator<? extends Block> getBlocks(Account account, int timestamp, DbCursor cursor, int limit);
+
     int getBlockCount(Account account);
 
     DbIterator<? extends Block> getBlocks(Connection con, PreparedStatement pstmt);
@@ -55,6 +60,9 @@ public interface Blockchain {
     DbIterator<? extends Transaction> getTransactions(Account account, int numberOfConfirmations, byte type, byte subtype,
                                                       int blockTimestamp, boolean withMessage, int from, int to);
 
+    DbIterator<? extends Transaction> getTransactions(Account account, int numberOfConfirmations, byte type, byte subtype,
+                                                      int blockTimestamp, boolean withMessage, DbCursor cursor, int limit);
+
     DbIterator<? extends Transaction> getTransactions(Connection con, PreparedStatement pstmt);
 
 }
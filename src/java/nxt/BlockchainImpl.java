@@ -1,5 +1,6 @@
 package nxt;
 
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbUtils;
 
@@ -28,11 +29,20 @@ final class BlockchainImpl implements Blockchain {
         return lastBlock.get();
     }
 
+    /*
+     * The entity versions buffered until the commit are saved at the height they were made at, before it changes.
+     */
     void setLastBlock(BlockImpl block) {
+        if (Db.db.isInTransaction()) {
+            Db.db.flushPendingWrites();
+        }
         lastBlock.set(block);
     }
 
     void setLastBlock(BlockImpl previousBlock, BlockImpl block) {
+        if (Db.db.isInTransaction()) {
+            Db.db.flushPendingWrites();
+        }
         if (! lastBlock.compareAndSet(previousBlock, block)) {
             throw new IllegalStateException("Last block is no longer previous block");
         }
@@ -96,6 +106,23 @@ final class BlockchainImpl implements Blockchain {
         }
     }
 
+    @Override
+    public DbIterator<BlockImpl> getBlocks(DbCursor cursor, int limit) {
+        Connection con = null;
+        try {
+            con = Db.db.getConnection();
+            // heights are contiguous, so the page is also a height range, read from the ascending height index
+            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE" + cursor.getClause()
+                    + "AND height >= ? ORDER BY height DESC");
+            int i = cursor.set(pstmt, 1);
+            pstmt.setInt(i, Math.min(cursor.getHeight(), getHeight() + 1) - Math.max(limit, 1));
+            return getBlocks(con, pstmt);
+        } catch (SQLException e) {
+            DbUtils.close(con);
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
     @Override
     public DbIterator<BlockImpl> getBlocks(Account account, int timestamp) {
         return getBlocks(account, timestamp, 0, -1);
@@ -103,17 +130,30 @@ final class BlockchainImpl implements Blockchain {
 
     @Override
     public DbIterator<BlockImpl> getBlocks(Account account, int timestamp, int from, int to) {
+        return getBlocks(account, timestamp, null, from, to);
+    }
+
+    @Override
+    public DbIterator<BlockImpl> getBlocks(Account account, int timestamp, DbCursor cursor, int limit) {
+        return getBlocks(account, timestamp, cursor, 0, limit - 1);
+    }
+
+    private DbIterator<BlockImpl> getBlocks(Account account, int timestamp, DbCursor cursor, int from, int to) {
         Connection con = null;
         try {
             con = Db.db.getConnection();
             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE generator_id = ? "
-                    + (timestamp > 0 ? " AND timestamp >= ? " : " ") + "ORDER BY height DESC"
+                    + (timestamp > 0 ? " AND timestamp >= ? " : " ") + (cursor != null ? " AND" + cursor.getClause() : "")
+                    + (cursor != null ? DbCursor.orderBy("generator_id") : "ORDER BY height DESC")
                     + DbUtils.limitsClause(from, to));
             int i = 0;
             pstmt.setLong(++i, account.getId());
             if (timestamp > 0) {
                 pstmt.setInt(++i, timestamp);
             }
+            if (cursor != null) {
+                i = cursor.set(pstmt, ++i) - 1;
+            }
             DbUtils.setLimits(++i, pstmt, from, to);
             return getBlocks(con, pstmt);
         } catch (SQLException e) {
@@ -172,6 +212,10 @@ final class BlockchainImpl implements Blockchain {
         if (limit > 1440) {
             throw new IllegalArgumentException("Can't get more than 1440 blocks at a time");
         }
+        List<BlockImpl> cachedBlocks = BlockDb.findBlocksAfter(blockId, limit);
+        if (cachedBlocks != null) {
+            return cachedBlocks;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE db_id > (SELECT db_id FROM block WHERE id = ?) ORDER BY db_id ASC LIMIT ?")) {
             List<BlockImpl> result = new ArrayList<>();
@@ -264,6 +308,17 @@ final class BlockchainImpl implements Blockchain {
     @Override
     public DbIterator<TransactionImpl> getTransactions(Account account, int numberOfConfirmations, byte type, byte subtype,
                                                        int blockTimestamp, boolean withMessage, int from, int to) {
+        return getTransactions(account, numberOfConfirmations, type, subtype, blockTimestamp, withMessage, null, from, to);
+    }
+
+    @Override
+    public DbIterator<TransactionImpl> getTransactions(Account account, int numberOfConfirmations, byte type, byte subtype,
+                                                       int blockTimestamp, boolean withMessage, DbCursor cursor, int limit) {
+        return getTransactions(account, numberOfConfirmations, type, subtype, blockTimestamp, withMessage, cursor, 0, limit - 1);
+    }
+
+    private DbIterator<TransactionImpl> getTransactions(Account account, int numberOfConfirmations, byte type, byte subtype,
+                                                        int blockTimestamp, boolean withMessage, DbCursor cursor, int from, int to) {
         int height = numberOfConfirmations > 0 ? getHeight() - numberOfConfirmations : Integer.MAX_VALUE;
         if (height < 0) {
             throw new IllegalArgumentException("Number of confirmations required " + numberOfConfirmations
@@ -271,7 +326,12 @@ final class BlockchainImpl implements Blockchain {
         }
         Connection con = null;
         try {
+            // with a cursor each side of the union reads its own index up to the limit, the union is then sorted again
+            String limitsClause = DbUtils.limitsClause(from, to);
             StringBuilder buf = new StringBuilder();
+            if (cursor != null) {
+                buf.append("(");
+            }
             buf.append("SELECT * FROM transaction WHERE recipient_id = ? AND sender_id <> ? ");
             if (blockTimestamp > 0) {
                 buf.append("AND block_timestamp >= ? ");
@@ -288,7 +348,13 @@ final class BlockchainImpl implements Blockchain {
             if (withMessage) {
                 buf.append("AND (has_message = TRUE OR has_encrypted_message = TRUE) ");
             }
-            buf.append("UNION ALL SELECT * FROM transaction WHERE sender_id = ? ");
+            if (cursor != null) {
+                buf.append("AND").append(cursor.getClause()).append(DbCursor.orderBy("recipient_id")).append(limitsClause);
+                buf.append(") UNION ALL (");
+            } else {
+                buf.append("UNION ALL ");
+            }
+            buf.append("SELECT * FROM transaction WHERE sender_id = ? ");
             if (blockTimestamp > 0) {
                 buf.append("AND block_timestamp >= ? ");
             }
@@ -304,8 +370,13 @@ final class BlockchainImpl implements Blockchain {
             if (withMessage) {
                 buf.append("AND (has_message = TRUE OR has_encrypted_message = TRUE OR has_encrypttoself_message = TRUE) ");
             }
-            buf.append("ORDER BY block_timestamp DESC, transaction_index DESC");
-            buf.append(DbUtils.limitsClause(from, to));
+            if (cursor != null) {
+                buf.append("AND").append(cursor.getClause()).append(DbCursor.orderBy("sender_id")).append(limitsClause);
+                buf.append(")").append(DbCursor.ORDER_BY);
+            } else {
+                buf.append("ORDER BY block_timestamp DESC, transaction_index DESC");
+            }
+            buf.append(limitsClause);
             con = Db.db.getConnection();
             PreparedStatement pstmt;
             int i = 0;
@@ -324,6 +395,10 @@ final class BlockchainImpl implements Blockchain {
             if (height < Integer.MAX_VALUE) {
                 pstmt.setInt(++i, height);
             }
+            if (cursor != null) {
+                i = cursor.set(pstmt, ++i);
+                i = DbUtils.setLimits(i, pstmt, from, to) - 1;
+            }
             pstmt.setLong(++i, account.getId());
             if (blockTimestamp > 0) {
                 pstmt.setInt(++i, blockTimestamp);
@@ -337,6 +412,10 @@ final class BlockchainImpl implements Blockchain {
             if (height < Integer.MAX_VALUE) {
                 pstmt.setInt(++i, height);
             }
+            if (cursor != null) {
+                i = cursor.set(pstmt, ++i);
+                i = DbUtils.setLimits(i, pstmt, from, to) - 1;
+            }
             DbUtils.setLimits(++i, pstmt, from, to);
             return getTransactions(con, pstmt);
         } catch (SQLException e) {
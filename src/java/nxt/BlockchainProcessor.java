@@ -24,8 +24,12 @@ public interface BlockchainProcessor extends Observable<Block,BlockchainProcesso
 
     int getMinRollbackHeight();
 
+    int getTrimmedHeight();
+
     void processPeerBlock(JSONObject request) throws NxtException;
 
+    void processPeerBlock(byte[] blockBytes) throws NxtException;
+
     void fullReset();
 
     void scan(int height, boolean validate);
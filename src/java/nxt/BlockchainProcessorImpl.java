@@ -18,6 +18,7 @@ import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
 
+import java.io.File;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.sql.Connection;
@@ -59,7 +60,6 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     private final List<DerivedDbTable> derivedTables = new CopyOnWriteArrayList<>();
     private final boolean trimDerivedTables = Nxt.getBooleanProperty("nxt.trimDerivedTables");
 
-    private volatile int lastTrimHeight;
 
     private final Listeners<Block, Event> blockListeners = new Listeners<>();
     private volatile Peer lastBlockchainFeeder = null;
@@ -68,6 +68,8 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     //private volatile boolean isScanning;
     private final Scanner scanner = new Scanner(blockListeners, derivedTables);
+    private final DerivedTableTrimmer trimmer = new DerivedTableTrimmer(derivedTables);
+    private final Snapshots snapshots = new Snapshots(derivedTables);
     private volatile boolean alreadyInitialized = false;
 
     private final GetBlocksFromPeers getMoreBlocksThread = new GetBlocksFromPeers();
@@ -79,36 +81,48 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             @Override
             public void notify(Block block) {
                 if (block.getHeight() % 5000 == 0) {
-                    Logger.logMessage("processed block " + block.getHeight());
+                    Logger.logMessage("received block " + block.getHeight());
                 }
+                generator.setLastBlock(block);
             }
-        }, Event.BLOCK_SCANNED);
+        }, Event.BLOCK_PUSHED);
 
         blockListeners.addListener(new Listener<Block>() {
             @Override
             public void notify(Block block) {
-                if (block.getHeight() % 5000 == 0) {
-                    Logger.logMessage("received block " + block.getHeight());
-                    Db.db.analyzeTables();
-                }
-                generator.setLastBlock(block);
+                RetargetWindow.getInstance().push(block);
             }
         }, Event.BLOCK_PUSHED);
 
+        blockListeners.addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                RetargetWindow.getInstance().pop(block);
+            }
+        }, Event.BLOCK_POPPED);
+
         if (trimDerivedTables) {
             blockListeners.addListener(new Listener<Block>() {
                 @Override
                 public void notify(Block block) {
                     if (block.getHeight() % 1440 == 0) {
-                        lastTrimHeight = Math.max(block.getHeight() - Constants.MAX_ROLLBACK, 0);
-                        if (lastTrimHeight > 0) {
-                            for (DerivedDbTable table : derivedTables) {
-                                table.trim(lastTrimHeight);
-                            }
-                        }
+                        trimmer.setTrimHeight(Math.max(block.getHeight() - Constants.MAX_ROLLBACK, 0));
                     }
                 }
             }, Event.AFTER_BLOCK_APPLY);
+
+            blockListeners.addListener(new Listener<Block>() {
+                @Override
+                public void notify(Block block) {
+                    trimmer.reset();
+                }
+            }, Event.RESCAN_BEGIN);
+
+            Db.db.scheduleMaintenance("TrimDerivedTables", trimmer, 1);
+        }
+
+        if (snapshots.isEnabled()) {
+            ThreadPool.scheduleThread("Snapshots", snapshots, 10);
         }
 
         blockListeners.addListener(new Listener<Block>() {
@@ -122,6 +136,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             @Override
             public void run() {
                 alreadyInitialized = true;
+                scanner.loadSnapshotHeight();
+                String snapshotFile = Nxt.getStringProperty("nxt.snapshotFile");
+                if (snapshotFile != null) {
+                    snapshots.bootstrap(new File(snapshotFile));
+                }
                 addGenesisBlock();
                 if (Nxt.getBooleanProperty("nxt.forceScan")) {
                     scan(0, Nxt.getBooleanProperty("nxt.forceValidate"));
@@ -215,7 +234,14 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     @Override
     public int getMinRollbackHeight() {
-        return trimDerivedTables ? (lastTrimHeight > 0 ? lastTrimHeight : Math.max(blockchain.getHeight() - Constants.MAX_ROLLBACK, 0)) : 0;
+        int trimHeight = trimmer.getTrimHeight();
+        int minRollbackHeight = trimDerivedTables ? (trimHeight > 0 ? trimHeight : Math.max(blockchain.getHeight() - Constants.MAX_ROLLBACK, 0)) : 0;
+        return Math.max(minRollbackHeight, scanner.getSnapshotHeight());
+    }
+
+    @Override
+    public int getTrimmedHeight() {
+        return trimmer.getTrimmedHeight();
     }
 
     @Override
@@ -224,6 +250,12 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         pushBlock(block);
     }
 
+    @Override
+    public void processPeerBlock(byte[] blockBytes) throws NxtException {
+        BlockImpl block = BlockImpl.parseBlock(blockBytes);
+        pushBlock(block);
+    }
+
     @Override
     public List<BlockImpl> popOffTo(int height) {
         if (height <= 0) {
@@ -273,6 +305,8 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             BlockImpl lastBlock = BlockDb.findLastBlock();
             Logger.logMessage("Last block: " + lastBlock.getJSONObject());
             blockchain.setLastBlock(lastBlock);
+            BlockDb.loadBlockCache(lastBlock);
+            RetargetWindow.getInstance().rebuild(lastBlock);
             Logger.logMessage("Last block height: " + lastBlock.getHeight());
         }else{
             Logger.logMessage("Genesis block not in database, starting from scratch");
@@ -280,6 +314,8 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             BlockImpl genesisBlock = (BlockImpl)BlockPOW.getGenesisBlock(); //TODO
             genesisBlock.setPrevious(null);
             addBlock(genesisBlock);
+            BlockDb.cacheBlock(genesisBlock);
+            RetargetWindow.getInstance().push(genesisBlock);
 	/*
         } catch (NxtException.ValidationException e) {
             Logger.logMessage(e.getMessage());
@@ -293,6 +329,13 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         int curTime = Nxt.getEpochTime();
 
+        // before the lock is taken, a failure rejects the block like the checks below
+        try {
+            SignatureVerifier.checkSignatures(block.getTransactions());
+        } catch (RuntimeException e) {
+            throw new BlockNotAcceptedException(e);
+        }
+
         synchronized (blockchain) {
             TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
             BlockImpl previousLastBlock = null;
@@ -351,7 +394,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     //TODO redundant
                     calculatedTotalAmount += transaction.getAmountNQT();
                     calculatedTotalFee += transaction.getFeeNQT();
-                    digest.update(transaction.getBytes());
+                    digest.update(transaction.bytes());
                 }
 
                 //TODO redundant
@@ -371,6 +414,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 Logger.logDebugMessage("applyBlock");
 
                 Db.db.commitTransaction();
+                BlockDb.cacheBlock(block);
             } catch (BlockNotAcceptedException e) {
                 Db.db.rollbackTransaction();
                 blockchain.setLastBlock(previousLastBlock);
@@ -415,6 +459,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 Logger.logDebugMessage("Block " + commonBlock.getStringId() + " not found in blockchain, nothing to pop off");
                 return Collections.emptyList();
             }
+            if (commonBlock.getHeight() < scanner.getSnapshotHeight() && commonBlock.getId() != blockchain.getLastBlock().getId()) {
+                // the derived tables have no rows below the snapshot they were loaded from to roll back to
+                popOffWithRescan(commonBlock.getHeight() + 1);
+                return Collections.emptyList();
+            }
             List<BlockImpl> poppedOffBlocks = new ArrayList<>();
             try {
                 Db.db.beginTransaction();
@@ -461,7 +510,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 BlockDb.deleteBlocksFrom(block.getId());
                 Logger.logDebugMessage("Deleted blocks starting from height %s", height);
             } finally {
-                scan(0, false);
+                scan(snapshots.restoreLatest() + 1, false);
             }
         }
     }
@@ -470,20 +519,37 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         scanner.scheduleScan(height, validate);
     }
 
+    void setSnapshotHeight(int height) {
+        scanner.setSnapshotHeight(height);
+    }
+
+    void loadSnapshotHeight() {
+        scanner.loadSnapshotHeight();
+    }
+
     @Override
     public void scan(int height, boolean validate) {
         scanner.scan(height, validate);
     }
 
     private void handleBetterChain(List<? extends BlockImpl> chain) {
-        synchronized (blockchain) { //TODO
+        for (BlockImpl block : chain) {
+            SignatureVerifier.checkSignatures(block.getTransactions());
+        }
+        synchronized (blockchain) {
 
+            // the chain was downloaded and compared with ours without holding the lock, check again
+            // before popping anything off
             long commonBlockId = chain.get(0).getPreviousBlockId();
+            if (!blockchain.hasBlock(commonBlockId)) {
+                Logger.logDebugMessage("Blockchain changed during download, common block " + Convert.toUnsignedLong(commonBlockId) + " is gone");
+                return;
+            }
             Block commonBlock = blockchain.getBlock(commonBlockId);
-            if (!blockchain.hasBlock(commonBlockId)) { //my chain has changed in the meantime
-                return; //TODO
+            if (!chain.get(chain.size() - 1).betterThan(blockchain.getLastBlock())) {
+                Logger.logDebugMessage("Blockchain changed during download, peer's chain is no longer better");
+                return;
             }
-            //TODO is still better chain?
 
             List<BlockImpl> myChain;
             if (blockchain.getLastBlock().getId() != commonBlockId) {
@@ -13,6 +13,10 @@ public final class Constants {
     public static final long MAX_BALANCE_NQT = MAX_BALANCE_NXT * ONE_NXT;
     public static final long INITIAL_BASE_TARGET = 153722867;
     public static final long MAX_BASE_TARGET = MAX_BALANCE_NXT * INITIAL_BASE_TARGET;
+    // the proof of work target of the genesis block and the easiest one allowed, unrelated to the forging MAX_BASE_TARGET
+    public static final long POW_MAX_BASE_TARGET = Long.MAX_VALUE / 10;
+    public static final int POW_RETARGET_INTERVAL = 2012;
+    public static final int POW_BLOCK_TIME = 60;
     public static final int MAX_ROLLBACK = Nxt.getIntProperty("nxt.maxRollback");
     static {
         if (MAX_ROLLBACK < 1440) {
@@ -31,7 +31,8 @@ public final class Currency {
 
     };
 
-    private static final VersionedEntityDbTable<Currency> currencyTable = new VersionedEntityDbTable<Currency>("currency", currencyDbKeyFactory) {
+    private static final VersionedEntityDbTable<Currency> currencyTable = new VersionedEntityDbTable<Currency>("currency", currencyDbKeyFactory,
+            Nxt.getIntProperty("nxt.currencyCacheSize")) {
 
         @Override
         protected Currency load(Connection con, ResultSet rs) throws SQLException {
@@ -35,6 +35,10 @@ public final class CurrencyMinting {
     }
 
     public static byte[] getHash(HashFunction hashFunction, long nonce, long currencyId, long units, long counter, long accountId) {
+        return hashFunction.hash(getHashInput(nonce, currencyId, units, counter, accountId));
+    }
+
+    public static byte[] getHashInput(long nonce, long currencyId, long units, long counter, long accountId) {
         ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 8 + 8 + 8);
         buffer.order(ByteOrder.LITTLE_ENDIAN);
         buffer.putLong(nonce);
@@ -42,7 +46,16 @@ public final class CurrencyMinting {
         buffer.putLong(units);
         buffer.putLong(counter);
         buffer.putLong(accountId);
-        return hashFunction.hash(buffer.array());
+        return buffer.array();
+    }
+
+    /**
+     * Patches the nonce of an input created by {@link #getHashInput} in place.
+     */
+    public static void setNonce(byte[] hashInput, long nonce) {
+        for (int i = 0; i < 8; i++) {
+            hashInput[i] = (byte) (nonce >> (8 * i));
+        }
     }
 
     public static byte[] getTarget(int min, int max, long units, long currentMintableSupply, long totalMintableSupply) {
@@ -11,6 +11,11 @@ public final class Db {
             .maxConnections(Nxt.getIntProperty("nxt.maxDbConnections"))
             .loginTimeout(Nxt.getIntProperty("nxt.dbLoginTimeout"))
             .defaultLockTimeout(Nxt.getIntProperty("nxt.dbDefaultLockTimeout") * 1000)
+            .statementCacheSize(Nxt.getIntProperty("nxt.dbStatementCacheSize"))
+            .maintenanceInterval(Nxt.getIntProperty("nxt.dbMaintenanceInterval"))
+            .analyzeMinRows(Nxt.getIntProperty("nxt.dbAnalyzeMinRows"))
+            .analyzeRatio(Nxt.getIntProperty("nxt.dbAnalyzeRatio"))
+            .checkpointRows(Nxt.getIntProperty("nxt.dbCheckpointRows"))
     );
 
     /*
@@ -0,0 +1,96 @@
+package nxt;
+
+import nxt.db.DerivedDbTable;
+import nxt.util.Logger;
+
+import java.util.List;
+
+/*
+ * Trims the derived tables in the background, a slice of at most nxt.trimSliceHeight blocks at a time, each slice in
+ * its own short transaction with the blockchain lock released in between, so that blocks only ever wait for one slice
+ * instead of a whole trim of every table.
+ * The trim height still moves every 1440 blocks, the trimmed height follows it.
+ */
+final class DerivedTableTrimmer implements Runnable {
+
+    private final BlockchainImpl blockchain = BlockchainImpl.getInstance();
+    private final List<DerivedDbTable> derivedTables;
+    private final int sliceHeight = Math.max(Nxt.getIntProperty("nxt.trimSliceHeight"), 1);
+
+    private volatile int trimHeight;
+    private volatile int trimmedHeight;
+
+    DerivedTableTrimmer(List<DerivedDbTable> derivedTables) {
+        this.derivedTables = derivedTables;
+    }
+
+    /*
+     * The height below which the tables no longer need to support rollbacks.
+     */
+    int getTrimHeight() {
+        return trimHeight;
+    }
+
+    void setTrimHeight(int trimHeight) {
+        this.trimHeight = trimHeight;
+    }
+
+    /*
+     * The height up to which the tables have been trimmed so far.
+     */
+    int getTrimmedHeight() {
+        return trimmedHeight;
+    }
+
+    /*
+     * Starts over from the first block, after a scan has re-created what was trimmed, the trim height being set again
+     * by the next multiple of 1440 blocks, the blockchain may now be below the previous one.
+     */
+    void reset() {
+        synchronized (blockchain) {
+            trimHeight = 0;
+            trimmedHeight = 0;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            try {
+                while (trimmedHeight < trimHeight) {
+                    int height;
+                    synchronized (blockchain) {
+                        if (Nxt.getBlockchainProcessor().isScanning()) {
+                            return;
+                        }
+                        int fromHeight = trimmedHeight;
+                        height = Math.min(trimHeight, fromHeight + sliceHeight);
+                        try {
+                            Db.db.beginTransaction();
+                            for (DerivedDbTable table : derivedTables) {
+                                table.trim(fromHeight, height);
+                            }
+                            Db.db.commitTransaction();
+                        } catch (RuntimeException e) {
+                            Db.db.rollbackTransaction();
+                            throw e;
+                        } finally {
+                            Db.db.endTransaction();
+                        }
+                        trimmedHeight = height;
+                    } // synchronized, released between slices
+                    if (height == trimHeight) {
+                        Logger.logDebugMessage("Trimmed derived tables up to height " + height);
+                    }
+                }
+            } catch (Exception e) {
+                Logger.logDebugMessage("Error in derived tables trimming thread", e);
+            }
+        } catch (Throwable t) {
+            Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
+            t.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
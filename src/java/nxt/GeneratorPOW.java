@@ -16,7 +16,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 import java.util.SortedSet;
@@ -26,26 +28,60 @@ import nxt.BlockchainProcessor.TransactionNotAcceptedException;
 
 public final class GeneratorPOW extends Generator {
 
+    private static final int TIMESTAMP_CHECK_INTERVAL = 4096; //hash attempts between timestamp refreshes
+    private static final int HASH_RATE_LOG_INTERVAL = 60000; //milliseconds
+
     private volatile Listener<Block> newBlockListener;
     private volatile Block lastBlock;
-    private volatile List<TransactionImpl> transactions = new ArrayList<>();
+    private final BlockTemplate template = new BlockTemplate();
+    private final int templateRefreshInterval;
+    private boolean templateChanged; //the transactions changed since the current template was made
     private volatile boolean stop = true;
 
     //private BigInteger nonce = 0; //should need persistance
-    private volatile BlockPOW block;
+    private volatile BlockPOW block; //the current template, replaced on every change
+    private volatile long templateNonce; //random start of the nonce space for the current template
+
+    private final Object submitLock = new Object();
+    private final int numberOfThreads;
+    private final AtomicLong hashCount = new AtomicLong();
+    private volatile long hashRate; //hashes per second, measured over the last log interval
 
     public GeneratorPOW() {
+        int threads = Nxt.getIntProperty("nxt.generatorThreads");
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        numberOfThreads = threads;
+        templateRefreshInterval = Math.max(1, Nxt.getIntProperty("nxt.blockTemplateRefreshInterval"));
     }
 
     public void init() {
-        ThreadPool.scheduleThread("GenerateBlocks", generateBlocksTask, 500, TimeUnit.MILLISECONDS);
+        if (Nxt.getBooleanProperty("nxt.disableGenerateBlocksThread")) {
+            Logger.logMessage("Will not run GenerateBlocks thread");
+            return;
+        }
+        Logger.logDebugMessage("Will run GenerateBlocks thread with " + numberOfThreads + " mining threads");
+        long rangeSize = Long.MAX_VALUE / numberOfThreads * 2; //disjoint slices of the whole 64 bit nonce space
+        for (int i = 0; i < numberOfThreads; i++) {
+            Thread thread = new Thread(new MiningWorker(i * rangeSize), "GenerateBlocks-" + i);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+        ThreadPool.scheduleThread("GenerateBlocksHashRate", hashRateTask, HASH_RATE_LOG_INTERVAL, TimeUnit.MILLISECONDS);
+        ThreadPool.scheduleThread("GenerateBlocksTemplate", templateRefreshTask, templateRefreshInterval, TimeUnit.MILLISECONDS);
     }
 
     public void startForging(Block lastBlock) {
         if(lastBlock==null){ throw new Error(); }
         setLastBlock(lastBlock);
+        BlockPOW.HeaderTemplate.check(block);
 
-        stop = false;
+        synchronized (this) {
+            stop = false;
+            notifyAll();
+        }
     }
 
     public void pauseForging() {
@@ -58,6 +94,14 @@ public final class GeneratorPOW extends Generator {
         this.newBlockListener = listener;
     }
 
+    public long getHashRate() {
+        return hashRate;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
     private int getValidTimestamp(){
             int timestamp = Nxt.getEpochTime();
             if(timestamp <= ((BlockPOW)lastBlock).getTimestamp()){
@@ -68,70 +112,162 @@ public final class GeneratorPOW extends Generator {
 
     private void renewBlock(){
         try{
-            block = new BlockPOW(getValidTimestamp(), lastBlock, transactions);
+            block = template.toBlock(getValidTimestamp(), lastBlock);
+            templateChanged = false;
+            templateNonce = ThreadLocalRandom.current().nextLong();
         }catch(NxtException.ValidationException e){
             e.printStackTrace();
             throw new Error();
         }
+        notifyAll(); //wake up the mining threads, the ones still working will see the template changed
     }
 
 
     synchronized public void setLastBlock(Block lastBlock) {
         this.lastBlock = lastBlock;
+        template.setLastBlock(lastBlock);
         renewBlock();
         Logger.logDebugMessage("setLastBlock() "+lastBlock.getJSONObject());
     }
 
+    /*
+     * Transaction changes are picked up by the next template refresh, rather than each making a new template
+     * and restarting the mining threads.
+     */
     synchronized public void addTransaction(TransactionImpl tx) {
-        transactions.add(tx);
-        renewBlock();
+        templateChanged |= template.add(tx);
     }
     synchronized public void setTransactions(List<TransactionImpl> txs) {
-        transactions = txs;
-        renewBlock();
+        template.setTransactions(txs);
+        templateChanged = true;
+    }
+
+    /*
+     * Called by a mining thread holding a solved copy of the given template.
+     */
+    private void blockFound(BlockPOW template, BlockPOW block) throws NxtException.ValidationException {
+        synchronized(submitLock) { //deliver found blocks one at a time and in chain order
+            synchronized(this) {
+                if(template != this.block){
+                    return; //another thread won, or the template changed in the meantime
+                }
+                BlockPOW.parseBlock(block.getJSONObject(), (BlockPOW)lastBlock); //TODO remove assertion
+                Logger.logDebugMessage("NEW BLOCK "+block.getJSONObject());
+                //Logger.logDebugMessage("NEW BLOCK hash="+Convert.toHexString(block.getHash()));
+                setLastBlock(block);
+            }
+            newBlockListener.notify(block); //external listener may change state
+        }
     }
 
-    private final Runnable generateBlocksTask = new Runnable() {
+    /*
+     * Sweeps its own slice of the nonce space of the current template in a tight loop,
+     * dropping the work as soon as the template is replaced.
+     */
+    private final class MiningWorker implements Runnable {
 
-        private volatile int lastTimestamp;
-        private volatile long lastBlockId;
-        private final GeneratorPOW generator = GeneratorPOW.this;
+        private final long rangeOffset;
+        private final BlockPOW.HeaderTemplate header = new BlockPOW.HeaderTemplate();
+
+        private MiningWorker(long rangeOffset) {
+            this.rangeOffset = rangeOffset;
+        }
 
         @Override
         public void run() {
-            //if(true)return;
-            //if(true)throw new Error("test");
-            if(stop){ return; }
-            //System.out.println("generateBlocksTask");
             try {
-                try {
-                    //Logger.logDebugMessage("LAST "+lastBlock.getJSONObject());
-                    BlockPOW block = generator.block; //instead of synchronized{}
-                    if(block.verifyWork()) {
-                        BlockPOW.parseBlock(block.getJSONObject(), (BlockPOW)lastBlock); //TODO remove assertion
-                        Logger.logDebugMessage("NEW BLOCK "+block.getJSONObject());
-                        //Logger.logDebugMessage("NEW BLOCK hash="+Convert.toHexString(block.getHash()));
-                        synchronized(generator) {
-                            if(block == generator.block){
-                                transactions = new ArrayList<>();
-                                setLastBlock(block);
-                            }
+                while (!Thread.currentThread().isInterrupted()) {
+                    BlockPOW template;
+                    BlockPOW work;
+                    synchronized (GeneratorPOW.this) {
+                        while (stop || GeneratorPOW.this.block == null) {
+                            GeneratorPOW.this.wait();
                         }
-                        newBlockListener.notify(block); //external listener may change state
-                    }else{
-                        //Logger.logDebugMessage("CUR "+block.getJSONObject());
-                        block.incNonce();
-                        block.setTimestamp(getValidTimestamp());
+                        template = GeneratorPOW.this.block;
+                        work = template.copy();
+                        work.setNonce(templateNonce + rangeOffset);
+                    }
+                    try {
+                        mine(template, work);
+                    } catch (Exception e) {
+                        Logger.logDebugMessage("Error in block generation thread", e);
                     }
-                } catch (Exception e) {
-                    Logger.logDebugMessage("Error in block generation thread", e);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (Throwable t) {
                 Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
                 t.printStackTrace();
                 System.exit(1);
             }
+        }
 
+        private void mine(BlockPOW template, BlockPOW work) throws NxtException.ValidationException {
+            header.setBlock(work);
+            int timestamp = work.getTimestamp();
+            long nonce = work.getNonce();
+            int attempts = 0;
+            while (template == GeneratorPOW.this.block && !stop) {
+                if (header.verifyWork(nonce)) {
+                    hashCount.addAndGet(attempts + 1);
+                    work.setNonce(nonce);
+                    work.setTimestamp(timestamp);
+                    if (!header.matches(work)) {
+                        throw new IllegalStateException("Mining header template does not hash as the block");
+                    }
+                    blockFound(template, work);
+                    return;
+                }
+                nonce++;
+                if (++attempts == TIMESTAMP_CHECK_INTERVAL) {
+                    hashCount.addAndGet(attempts);
+                    attempts = 0;
+                    int validTimestamp = getValidTimestamp();
+                    if (validTimestamp != timestamp) {
+                        timestamp = validTimestamp;
+                        header.setTimestamp(timestamp);
+                    }
+                }
+            }
+            hashCount.addAndGet(attempts);
+        }
+
+    }
+
+    private final Runnable templateRefreshTask = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                synchronized (GeneratorPOW.this) {
+                    if (templateChanged && lastBlock != null) {
+                        renewBlock();
+                    }
+                }
+            } catch (Throwable t) {
+                Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
+                t.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+    };
+
+    private final Runnable hashRateTask = new Runnable() {
+
+        private long lastTime = System.currentTimeMillis();
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            long hashes = hashCount.getAndSet(0);
+            if (now > lastTime) {
+                hashRate = hashes * 1000 / (now - lastTime);
+            }
+            lastTime = now;
+            if (!stop) {
+                Logger.logDebugMessage("GenerateBlocks hash rate " + hashRate + " H/s on " + numberOfThreads + " threads");
+            }
         }
 
     };
@@ -4,6 +4,7 @@ import nxt.crypto.Crypto;
 import nxt.db.DbIterator;
 import nxt.db.DerivedDbTable;
 import nxt.db.FilteringIterator;
+import nxt.peer.BinaryProtocol;
 import nxt.peer.Peer;
 import nxt.peer.Peers;
 import nxt.util.Convert;
@@ -19,6 +20,7 @@ import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -34,7 +36,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -57,9 +67,21 @@ public class GetBlocksFromPeers implements Runnable {
             request.put("requestType", "getCumulativeDifficulty");
             getCumulativeDifficultyRequest = JSON.prepareRequest(request);
         }
+        private static final int pipelinedDownloadThreads = Math.max(Nxt.getIntProperty("nxt.pipelinedDownloadThreads"), 1);
+        private static final ExecutorService downloadService;
+
+        static {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(pipelinedDownloadThreads, pipelinedDownloadThreads,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            downloadService = executor;
+        }
+
         private BlockchainProcessorImpl chainProcessor = BlockchainProcessorImpl.getInstance();
         private final BlockchainImpl blockchain = BlockchainImpl.getInstance();
         private final int defaultNumberOfForkConfirmations = Nxt.getIntProperty(Constants.isTestnet ? "nxt.testnetNumberOfForkConfirmations" : "nxt.numberOfForkConfirmations");
+        private final boolean enablePipelinedDownload = Nxt.getBooleanProperty("nxt.enablePipelinedDownload");
+        private final int pipelinedDownloadBatchSize = Math.max(Nxt.getIntProperty("nxt.pipelinedDownloadBatchSize"), 1);
         private boolean peerHasMore;
 
         private volatile boolean getMoreBlocks = true;
@@ -124,10 +146,14 @@ public class GetBlocksFromPeers implements Runnable {
                     }*/
                     Logger.logDebugMessage("getBlocksFromPeers b "+commonMilestoneBlockId);
 
-                    synchronized (blockchain) {
-                        long lastBlockId = blockchain.getLastBlock().getId();
-                        downloadBlockchain(peer, commonBlock);
-                    } // synchronized
+                    if (enablePipelinedDownload) {
+                        downloadBlockchainPipelined(peer, commonBlock);
+                    } else {
+                        synchronized (blockchain) {
+                            long lastBlockId = blockchain.getLastBlock().getId();
+                            downloadBlockchain(peer, commonBlock);
+                        } // synchronized
+                    }
 
                 } catch (NxtException.StopException e) {
                     Logger.logMessage("Blockchain download stopped: " + e.getMessage());
@@ -250,18 +276,61 @@ public class GetBlocksFromPeers implements Runnable {
 
         }
 
-        private JSONArray getNextBlocks(Peer peer, long curBlockId) {
+        private List<Long> getNextBlockIds(Peer peer, long curBlockId) {
+
+            JSONObject request = new JSONObject();
+            request.put("requestType", "getNextBlockIds");
+            request.put("blockId", Convert.toUnsignedLong(curBlockId));
+            JSONObject response = peer.send(JSON.prepareRequest(request));
+            if (response == null) {
+                return null;
+            }
+            JSONArray nextBlockIds = (JSONArray) response.get("nextBlockIds");
+            if (nextBlockIds == null) {
+                return null;
+            }
+            List<Long> blockIds = new ArrayList<>(nextBlockIds.size());
+            for (Object nextBlockId : nextBlockIds) {
+                blockIds.add(Convert.parseUnsignedLong((String) nextBlockId));
+            }
+            return blockIds;
+
+        }
+
+        private List<BlockPOW.BlockData> getNextBlocks(Peer peer, long curBlockId) throws NxtException.ValidationException {
+            return getNextBlocks(peer, curBlockId, 0);
+        }
+
+        private List<BlockPOW.BlockData> getNextBlocks(Peer peer, long curBlockId, int limit) throws NxtException.ValidationException {
+
+            if (peer.isBinaryProtocolSupported()) {
+                ByteBuffer request = BinaryProtocol.allocate(8 + 4);
+                request.putLong(curBlockId);
+                request.putInt(limit > 0 ? limit : 720);
+                ByteBuffer response = peer.sendBinary("getNextBlocks", request.array());
+                if (response == null) {
+                    return null;
+                }
+                List<BlockPOW.BlockData> nextBlocks = new ArrayList<>();
+                for (byte[] blockBytes : BinaryProtocol.parseByteArrays(response)) {
+                    nextBlocks.add(BlockPOW.BlockData.parse(BinaryProtocol.wrap(blockBytes)));
+                }
+                return nextBlocks;
+            }
 
             JSONObject request = new JSONObject();
             request.put("requestType", "getNextBlocks");
             request.put("blockId", Convert.toUnsignedLong(curBlockId));
+            if (limit > 0) {
+                request.put("limit", limit);
+            }
             JSONObject response = peer.send(JSON.prepareRequest(request));
             if (response == null) {
                 return null;
             }
 
-            JSONArray nextBlocks = (JSONArray) response.get("nextBlocks");
-            if (nextBlocks == null) {
+            JSONArray nextBlocksData = (JSONArray) response.get("nextBlocks");
+            if (nextBlocksData == null) {
                 return null;
             }
             /*
@@ -272,12 +341,23 @@ public class GetBlocksFromPeers implements Runnable {
                 return null;
             }*/
 
+            List<BlockPOW.BlockData> nextBlocks = new ArrayList<>(nextBlocksData.size());
+            for (Object blockData : nextBlocksData) {
+                nextBlocks.add(BlockPOW.BlockData.parse((JSONObject) blockData));
+            }
             return nextBlocks;
 
         }
 
         private void downloadBlockchain(final Peer peer, final Block commonBlock) {
-            JSONArray nextBlocks = getNextBlocks(peer, commonBlock.getId());
+            List<BlockPOW.BlockData> nextBlocks;
+            try {
+                nextBlocks = getNextBlocks(peer, commonBlock.getId());
+            } catch (RuntimeException | NxtException.ValidationException e) {
+                Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
+                peer.blacklist(e);
+                return;
+            }
             if (nextBlocks == null || nextBlocks.size() == 0) {
                 return;
             }
@@ -285,12 +365,11 @@ public class GetBlocksFromPeers implements Runnable {
             List<BlockImpl> forkBlocks = new ArrayList<>();
             BlockImpl lastVerifiedBlock = (BlockImpl)commonBlock;
 
-            for (Object o : nextBlocks) {
-                JSONObject blockData = (JSONObject) o;
+            for (BlockPOW.BlockData blockData : nextBlocks) {
                 BlockImpl block;
                 try {
                     Logger.logDebugMessage("lastVerifiedBlock= "+lastVerifiedBlock.getId()+" "+lastVerifiedBlock.getHeight());
-                    block = BlockPOW.parseBlock(blockData, lastVerifiedBlock);
+                    block = blockData.toBlock(lastVerifiedBlock);
                     lastVerifiedBlock = block; //parseBlock() encapsulates verify()
                     /*
                     if (block.verify(lastVerifiedBlock)){
@@ -345,5 +424,180 @@ public class GetBlocksFromPeers implements Runnable {
 
         }
 
+
+        /*
+         * Downloads the blocks following commonBlock in batches of consecutive heights, from several connected
+         * peers at the same time. Transactions are parsed and their signatures checked by the download threads,
+         * while this thread takes the batches in height order, builds and verifies the blocks against their
+         * previous block, and hands them over for pushing. Nothing here holds the blockchain lock.
+         */
+        private void downloadBlockchainPipelined(final Peer peer, final Block commonBlock) {
+            List<Long> blockIds = getNextBlockIds(peer, commonBlock.getId());
+            if (blockIds == null || blockIds.size() == 0) {
+                return;
+            }
+
+            List<Peer> peers = new ArrayList<>(Peers.getPeers(Peer.State.CONNECTED));
+            peers.remove(peer);
+            Collections.shuffle(peers);
+            peers.add(0, peer);
+
+            List<BatchDownload> downloads = new ArrayList<>();
+            for (int start = 0; start < blockIds.size(); start += pipelinedDownloadBatchSize) {
+                long afterBlockId = start == 0 ? commonBlock.getId() : blockIds.get(start - 1);
+                List<Long> expectedIds = blockIds.subList(start, Math.min(start + pipelinedDownloadBatchSize, blockIds.size()));
+                downloads.add(new BatchDownload(afterBlockId, expectedIds));
+            }
+            // at most maxPeerRequestsInFlight batches are assigned to a peer at a time, one of them is kept
+            // free on the first peer while there are others, for the batches they fail to deliver
+            int maxInFlight = Peers.getMaxRequestsInFlight();
+            int fallbackPermits = peers.size() > 1 ? 1 : 0;
+            Map<Peer, Integer> inFlight = new HashMap<>();
+            List<Future<DownloadedBatch>> batches = new ArrayList<>();
+            List<Peer> batchPeers = new ArrayList<>();
+            int nextPeer = 0;
+
+            boolean extendsChain = blockchain.getLastBlock().getId() == commonBlock.getId();
+            List<BlockImpl> forkBlocks = new ArrayList<>();
+            BlockImpl lastVerifiedBlock = (BlockImpl)commonBlock;
+            int pushedBlocks = 0;
+            try {
+                for (int next = 0; next < downloads.size(); next++) {
+                    while (batches.size() < downloads.size() && batches.size() - next < pipelinedDownloadThreads) {
+                        Peer batchPeer = null;
+                        for (int i = 0; i < peers.size() && batchPeer == null; i++) {
+                            Peer candidate = peers.get((nextPeer + i) % peers.size());
+                            Integer count = inFlight.get(candidate);
+                            if ((count == null ? 0 : count) < (candidate == peer ? maxInFlight - fallbackPermits : maxInFlight)) {
+                                batchPeer = candidate;
+                                nextPeer = (nextPeer + i + 1) % peers.size();
+                            }
+                        }
+                        if (batchPeer == null) {
+                            break;
+                        }
+                        Integer count = inFlight.get(batchPeer);
+                        inFlight.put(batchPeer, count == null ? 1 : count + 1);
+                        batches.add(downloadService.submit(downloads.get(batches.size()).forPeer(batchPeer)));
+                        batchPeers.add(batchPeer);
+                    }
+                    DownloadedBatch batch = batches.get(next).get(); // batches are consumed in height order
+                    Peer batchPeer = batchPeers.get(next);
+                    inFlight.put(batchPeer, inFlight.get(batchPeer) - 1);
+                    if (batch == null && batchPeer != peer) {
+                        batch = downloads.get(next).download(peer);
+                    }
+                    if (batch == null) {
+                        break;
+                    }
+                    List<BlockImpl> verifiedBlocks = new ArrayList<>(batch.blocksData.size());
+                    try {
+                        for (int i = 0; i < batch.blocksData.size(); i++) {
+                            BlockImpl block = batch.blocksData.get(i).toBlock(lastVerifiedBlock);
+                            if (block.getId() != batch.expectedIds.get(i)) {
+                                throw new NxtException.NotValidException("Block " + block.getStringId() + " does not match the announced block ids");
+                            }
+                            lastVerifiedBlock = block;
+                            verifiedBlocks.add(block);
+                        }
+                    } catch (NxtException.NotCurrentlyValidException e) {
+                        Logger.logDebugMessage("Cannot validate block: " + e.toString() + ", will try again later", e);
+                        break;
+                    } catch (RuntimeException | NxtException.ValidationException e) {
+                        Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
+                        batch.peer.blacklist(e);
+                        break;
+                    }
+                    if (extendsChain) {
+                        if (blockchain.getLastBlock().getId() != verifiedBlocks.get(0).getPreviousBlockId()) {
+                            Logger.logDebugMessage("Blockchain changed during download, will continue later");
+                            break;
+                        }
+                        betterChainListener.notify(verifiedBlocks);
+                        pushedBlocks += verifiedBlocks.size();
+                    } else {
+                        forkBlocks.addAll(verifiedBlocks);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Logger.logDebugMessage("Error downloading blocks", e);
+            } finally {
+                for (Future<DownloadedBatch> future : batches) {
+                    future.cancel(true);
+                }
+            }
+
+            if (extendsChain) {
+                Logger.logDebugMessage("Downloaded " + pushedBlocks + " blocks from " + inFlight.size() + " peers");
+            } else if (forkBlocks.size() > 0) {
+                Logger.logDebugMessage("Downloaded a chain of " + forkBlocks.size() + " blocks");
+                if (lastVerifiedBlock.betterThan( blockchain.getLastBlock() )) {
+                    Logger.logDebugMessage("Switching to peer's fork");
+                    betterChainListener.notify(forkBlocks);
+                }else{
+                    Logger.logDebugMessage("Worse chain by peer " + peer.getPeerAddress() + ", blacklisting");
+                    peer.blacklist();
+                }
+            }
+        }
+
+        private static final class DownloadedBatch {
+
+            private final Peer peer;
+            private final List<Long> expectedIds;
+            private final List<BlockPOW.BlockData> blocksData;
+
+            private DownloadedBatch(Peer peer, List<Long> expectedIds, List<BlockPOW.BlockData> blocksData) {
+                this.peer = peer;
+                this.expectedIds = expectedIds;
+                this.blocksData = blocksData;
+            }
+
+        }
+
+        private final class BatchDownload {
+
+            private final long afterBlockId;
+            private final List<Long> expectedIds;
+
+            private BatchDownload(long afterBlockId, List<Long> expectedIds) {
+                this.afterBlockId = afterBlockId;
+                this.expectedIds = expectedIds;
+            }
+
+            private Callable<DownloadedBatch> forPeer(final Peer peer) {
+                return new Callable<DownloadedBatch>() {
+                    @Override
+                    public DownloadedBatch call() {
+                        return download(peer);
+                    }
+                };
+            }
+
+            private DownloadedBatch download(Peer peer) {
+                List<BlockPOW.BlockData> blocksData;
+                try {
+                    blocksData = getNextBlocks(peer, afterBlockId, expectedIds.size());
+                } catch (RuntimeException | NxtException.ValidationException e) {
+                    Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
+                    peer.blacklist(e);
+                    return null;
+                }
+                if (blocksData == null || blocksData.size() < expectedIds.size()) {
+                    return null;
+                }
+                blocksData = blocksData.subList(0, expectedIds.size());
+                List<TransactionImpl> allTransactions = new ArrayList<>();
+                for (BlockPOW.BlockData blockData : blocksData) {
+                    allTransactions.addAll(blockData.getTransactions());
+                }
+                SignatureVerifier.checkSignatures(allTransactions);
+                return new DownloadedBatch(peer, expectedIds, blocksData);
+            }
+
+        }
+
 }
 
@@ -538,7 +538,81 @@ class NxtDbVersion extends DbVersion {
 
                 apply("ALTER TABLE block ADD COLUMN IF NOT EXISTS nonce BIGINT NOT NULL");
             case 200:
-
+                apply("ALTER TABLE account ADD COLUMN IF NOT EXISTS valid_to INT NOT NULL DEFAULT " + Integer.MAX_VALUE);
+            case 201:
+                apply("UPDATE account a SET valid_to = COALESCE((SELECT MIN(b.height) FROM account b "
+                        + "WHERE b.id = a.id AND b.height > a.height), a.height) WHERE latest = FALSE");
+            case 202:
+                apply("CREATE INDEX IF NOT EXISTS account_valid_to_idx ON account (valid_to)");
+            case 203:
+                apply("ALTER TABLE account_asset ADD COLUMN IF NOT EXISTS valid_to INT NOT NULL DEFAULT " + Integer.MAX_VALUE);
+            case 204:
+                apply("UPDATE account_asset a SET valid_to = COALESCE((SELECT MIN(b.height) FROM account_asset b "
+                        + "WHERE b.account_id = a.account_id AND b.asset_id = a.asset_id AND b.height > a.height), a.height) "
+                        + "WHERE latest = FALSE");
+            case 205:
+                apply("CREATE INDEX IF NOT EXISTS account_asset_valid_to_idx ON account_asset (valid_to)");
+            case 206:
+                apply("CREATE INDEX IF NOT EXISTS alias_height_idx ON alias (height)");
+            case 207:
+                apply("CREATE INDEX IF NOT EXISTS alias_offer_height_idx ON alias_offer (height)");
+            case 208:
+                apply("CREATE INDEX IF NOT EXISTS currency_founder_height_idx ON currency_founder (height)");
+            case 209:
+                apply("CREATE INDEX IF NOT EXISTS buy_offer_height_idx ON buy_offer (height)");
+            case 210:
+                apply("CREATE INDEX IF NOT EXISTS account_height_idx ON account (height)");
+            case 211:
+                apply("CREATE INDEX IF NOT EXISTS account_asset_height_idx ON account_asset (height)");
+            case 212:
+                apply("CREATE INDEX IF NOT EXISTS account_currency_height_idx ON account_currency (height)");
+            case 213:
+                apply("CREATE INDEX IF NOT EXISTS currency_height_idx ON currency (height)");
+            case 214:
+                apply("CREATE INDEX IF NOT EXISTS currency_supply_height_idx ON currency_supply (height)");
+            case 215:
+                apply("CREATE INDEX IF NOT EXISTS ask_order_height_idx ON ask_order (height)");
+            case 216:
+                apply("CREATE INDEX IF NOT EXISTS bid_order_height_idx ON bid_order (height)");
+            case 217:
+                apply("CREATE INDEX IF NOT EXISTS sell_offer_height_idx ON sell_offer (height)");
+            case 218:
+                apply("CREATE INDEX IF NOT EXISTS currency_mint_height_idx ON currency_mint (height)");
+            case 219:
+                apply("CREATE INDEX IF NOT EXISTS tag_height_idx ON tag (height)");
+            case 220:
+                apply("CREATE INDEX IF NOT EXISTS goods_height_idx ON goods (height)");
+            case 221:
+                apply("CREATE INDEX IF NOT EXISTS purchase_height_idx ON purchase (height)");
+            case 222:
+                apply("CREATE INDEX IF NOT EXISTS purchase_feedback_height_idx ON purchase_feedback (height)");
+            case 223:
+                apply("CREATE INDEX IF NOT EXISTS purchase_public_feedback_height_idx ON purchase_public_feedback (height)");
+            case 224:
+                apply("CREATE INDEX IF NOT EXISTS account_guaranteed_balance_height_idx ON account_guaranteed_balance (height)");
+            case 225:
+                apply("CREATE INDEX IF NOT EXISTS transaction_height_index_idx ON transaction (height, transaction_index)");
+            case 226:
+                apply("CREATE INDEX IF NOT EXISTS trade_height_db_id_idx ON trade (height DESC, db_id DESC)");
+            case 227:
+                apply("CREATE INDEX IF NOT EXISTS trade_asset_id_height_db_id_idx ON trade (asset_id, height DESC, db_id DESC)");
+            case 228:
+                apply("CREATE INDEX IF NOT EXISTS trade_seller_id_height_db_id_idx ON trade (seller_id, height DESC, db_id DESC)");
+            case 229:
+                apply("CREATE INDEX IF NOT EXISTS trade_buyer_id_height_db_id_idx ON trade (buyer_id, height DESC, db_id DESC)");
+            case 230:
+                apply("CREATE INDEX IF NOT EXISTS transaction_sender_id_height_db_id_idx ON transaction (sender_id, height DESC, db_id DESC)");
+            case 231:
+                apply("CREATE INDEX IF NOT EXISTS transaction_recipient_id_height_db_id_idx ON transaction (recipient_id, height DESC, db_id DESC)");
+            case 232:
+                apply("CREATE INDEX IF NOT EXISTS block_generator_id_height_db_id_idx ON block (generator_id, height DESC, db_id DESC)");
+            case 233:
+                apply("CREATE INDEX IF NOT EXISTS account_asset_asset_id_height_db_id_idx ON account_asset (asset_id, height DESC, db_id DESC)");
+            case 234:
+                apply("CREATE INDEX IF NOT EXISTS asset_height_db_id_idx ON asset (height DESC, db_id DESC)");
+            case 235:
+                apply("ALTER TABLE scan ADD COLUMN IF NOT EXISTS snapshot_height INT NOT NULL DEFAULT 0");
+            case 236:
                 return;
             default:
                 throw new RuntimeException("Blockchain database inconsistent with code, probably trying to run older code on newer database");
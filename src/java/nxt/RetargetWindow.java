@@ -0,0 +1,113 @@
+package nxt;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/*
+ * Ids and timestamps of the most recent main chain blocks, a contiguous window of heights ending at the last block,
+ * long enough to reach the start of the current retarget period after the deepest allowed rollback.
+ * Updated on push and pop and rebuilt from the block table columns after a scan, so that retargeting
+ * never has to load the blocks of a whole period.
+ */
+final class RetargetWindow {
+
+    private static final RetargetWindow instance = new RetargetWindow(Constants.POW_RETARGET_INTERVAL + Constants.MAX_ROLLBACK);
+
+    static RetargetWindow getInstance() {
+        return instance;
+    }
+
+    private final int capacity;
+    private final long[] ids; // indexed by height % capacity
+    private final int[] timestamps;
+    private int bottomHeight;
+    private int topHeight = -1;
+
+    private RetargetWindow(int capacity) {
+        this.capacity = capacity;
+        this.ids = new long[capacity];
+        this.timestamps = new int[capacity];
+    }
+
+    /*
+     * Timestamp of the main chain block at this height, read from the database if it is older than the window.
+     */
+    int getTimestamp(int height) {
+        synchronized (this) {
+            if (height >= bottomHeight && height <= topHeight) {
+                return timestamps[height % capacity];
+            }
+        }
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT timestamp FROM block WHERE height = ?")) {
+            pstmt.setInt(1, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalStateException("No block at height " + height);
+                }
+                return rs.getInt("timestamp");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /*
+     * Adds the new last block, or restarts the window from it if it does not continue the window.
+     */
+    synchronized void push(Block block) {
+        int height = block.getHeight();
+        if (topHeight >= 0 && height == topHeight + 1 && ids[topHeight % capacity] == block.getPreviousBlockId()) {
+            if (topHeight - bottomHeight + 1 == capacity) {
+                bottomHeight += 1;
+            }
+        } else {
+            bottomHeight = height;
+        }
+        topHeight = height;
+        ids[height % capacity] = block.getId();
+        timestamps[height % capacity] = block.getTimestamp();
+    }
+
+    synchronized void pop(Block block) {
+        if (topHeight >= bottomHeight && ids[topHeight % capacity] == block.getId()) {
+            topHeight -= 1;
+        } else {
+            topHeight = -1;
+        }
+    }
+
+    /*
+     * Reloads the window from the id and timestamp columns of the blocks up to this last block.
+     */
+    synchronized void rebuild(Block lastBlock) {
+        topHeight = -1;
+        int height = lastBlock.getHeight();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id, height, timestamp FROM block "
+                     + "WHERE height > ? AND height <= ? ORDER BY height")) {
+            pstmt.setInt(1, height - capacity);
+            pstmt.setInt(2, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int blockHeight = rs.getInt("height");
+                    if (topHeight < 0 || blockHeight != topHeight + 1) {
+                        bottomHeight = blockHeight;
+                    }
+                    topHeight = blockHeight;
+                    ids[blockHeight % capacity] = rs.getLong("id");
+                    timestamps[blockHeight % capacity] = rs.getInt("timestamp");
+                }
+            }
+        } catch (SQLException e) {
+            topHeight = -1;
+            throw new RuntimeException(e.toString(), e);
+        }
+        if (topHeight != height || ids[height % capacity] != lastBlock.getId()) {
+            topHeight = -1;
+        }
+    }
+
+}
@@ -25,16 +25,24 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import nxt.BlockchainProcessor.Event;
 import nxt.BlockchainProcessor.TransactionNotAcceptedException;
@@ -43,9 +51,12 @@ class Scanner {
 
     private final BlockchainImpl blockchain = BlockchainImpl.getInstance();
     private volatile boolean isScanning;
+    private volatile int snapshotHeight;
 
     private final Listeners<Block, Event> blockListeners;
     private final List<DerivedDbTable> derivedTables;
+    private final int scanPrefetchBlocks = Math.max(Nxt.getIntProperty("nxt.scanPrefetchBlocks"), 1);
+    private final int verifyThreads = Runtime.getRuntime().availableProcessors();
 
     Scanner(Listeners<Block, Event> blockListeners, List<DerivedDbTable> derivedTables) {
         this.blockListeners = blockListeners;
@@ -57,10 +68,43 @@ class Scanner {
     }
 
     private int getMinRollbackHeight() {
-        return 0; //TODO
+        return snapshotHeight; //TODO
         //return trimDerivedTables ? (lastTrimHeight > 0 ? lastTrimHeight : Math.max(blockchain.getHeight() - Constants.MAX_ROLLBACK, 0)) : 0;
     }
 
+    /*
+     * The height of the snapshot the derived tables were last loaded from. They have none of the rows of the heights
+     * below it, and cannot be rolled back there. Back to 0 once a scan from the genesis block has re-created them.
+     */
+    int getSnapshotHeight() {
+        return snapshotHeight;
+    }
+
+    void loadSnapshotHeight() {
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT snapshot_height FROM scan")) {
+            rs.next();
+            snapshotHeight = rs.getInt("snapshot_height");
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /*
+     * To be called in the transaction that replaces the derived tables, loadSnapshotHeight() again if it is rolled back.
+     */
+    void setSnapshotHeight(int height) {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("UPDATE scan SET snapshot_height = ?")) {
+            pstmt.setInt(1, height);
+            pstmt.executeUpdate();
+            snapshotHeight = height;
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
     private void apply(BlockImpl block) throws TransactionNotAcceptedException {
         for (TransactionImpl transaction : block.getTransactions()) {
             if (! transaction.applyUnconfirmed()) {
@@ -97,7 +141,7 @@ class Scanner {
                 throw new IllegalArgumentException("Rollback height " + (height - 1) + " exceeds current blockchain height of " + blockchainHeight);
             }
             if (height > 0 && height < getMinRollbackHeight()) {
-                Logger.logMessage("Rollback of more than " + Constants.MAX_ROLLBACK + " blocks not supported, will do a full scan");
+                Logger.logMessage("Derived tables loaded from the snapshot at height " + snapshotHeight + ", will do a full scan");
                 height = 0;
             }
             if (height < 0) {
@@ -107,8 +151,11 @@ class Scanner {
             if (validate) {
                 Logger.logDebugMessage("Also verifying signatures and validating transactions...");
             }
+            ExecutorService verifier = validate ? Executors.newFixedThreadPool(verifyThreads) : null;
             try (Connection con = Db.db.beginTransaction();
-                 PreparedStatement pstmtSelect = con.prepareStatement("SELECT * FROM block WHERE height >= ? ORDER BY db_id ASC");
+                 PreparedStatement pstmtSelect = con.prepareStatement("SELECT * FROM block WHERE height >= ? ORDER BY height ASC");
+                 PreparedStatement pstmtSelectTransactions = con.prepareStatement("SELECT * FROM transaction WHERE height >= ? "
+                         + "ORDER BY height ASC, transaction_index ASC");
                  PreparedStatement pstmtDone = con.prepareStatement("UPDATE scan SET rescan = FALSE, height = 0, validate = FALSE")) {
                 isScanning = true;
                 transactionProcessor.requeueAllUnconfirmedTransactions();
@@ -119,9 +166,13 @@ class Scanner {
                         table.rollback(height - 1);
                     }
                 }
+                if (height == 0) {
+                    setSnapshotHeight(0);
+                }
                 Db.db.commitTransaction();
                 Logger.logDebugMessage("Rolled back derived tables");
                 pstmtSelect.setInt(1, height);
+                pstmtSelectTransactions.setInt(1, height);
                 BlockImpl currentBlock = BlockDb.findBlockAtHeight(height);
                 blockListeners.notify(currentBlock, Event.RESCAN_BEGIN);
                 long currentBlockId = currentBlock.getId();
@@ -131,35 +182,19 @@ class Scanner {
                 } else {
                     blockchain.setLastBlock(BlockDb.findBlockAtHeight(height - 1));
                 }
-                try (ResultSet rs = pstmtSelect.executeQuery()) {
-                    while (rs.next()) {
+                ScanProgress progress = new ScanProgress(height, blockchainHeight);
+                try (ResultSet rs = pstmtSelect.executeQuery();
+                     ResultSet rsTransactions = pstmtSelectTransactions.executeQuery()) {
+                    BlockStream blocks = new BlockStream(con, rs, rsTransactions, verifier);
+                    while (blocks.hasNext()) {
                         try {
-                            currentBlock = BlockDb.loadBlock(con, rs);
+                            currentBlock = null;
+                            currentBlock = blocks.next();
                             if (currentBlock.getId() != currentBlockId) {
                                 throw new NxtException.NotValidException("Database blocks in the wrong order!");
                             }
                             if (validate && currentBlock.getHeight() > 0) {
-				/*
-                                if (!currentBlock.verifyBlockSignature()) {
-                                    throw new NxtException.NotValidException("Invalid block signature");
-                                }
-                                if (!currentBlock.verifyGenerationSignature() && !Generator.allowsFakeForging(currentBlock.getGeneratorPublicKey())) {
-                                    throw new NxtException.NotValidException("Invalid block generation signature");
-                                }
-                                if (currentBlock.getVersion() != getBlockVersion(blockchain.getHeight())) {
-                                    throw new NxtException.NotValidException("Invalid block version");
-                                }*/
-
-                                if (!currentBlock.verify()) {
-                                    throw new NxtException.NotValidException("Invalid block");
-                                }
-
-
-                                byte[] blockBytes = currentBlock.getBytes();
-                                JSONObject blockJSON = (JSONObject) JSONValue.parse(currentBlock.getJSONObject().toJSONString());
-                                if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).getBytes())) {
-                                    throw new NxtException.NotValidException("Block JSON cannot be parsed back to the same block");
-                                }
+                                // the state independent checks were done by the verifier threads
                                 Map<TransactionType, Map<String, Boolean>> duplicates = new HashMap<>();
                                 for (TransactionImpl transaction : currentBlock.getTransactions()) {
                                     if (!transaction.verifySignature()) {
@@ -168,27 +203,10 @@ class Scanner {
                                     if (transaction.getVersion() != transactionProcessor.getTransactionVersion(blockchain.getHeight())) {
                                         throw new NxtException.NotValidException("Invalid transaction version");
                                     }
-                                    /*
-                                    if (!EconomicClustering.verifyFork(transaction)) {
-                                        Logger.logDebugMessage("Found transaction that was generated on a fork: " + transaction.getStringId()
-                                                + " in block " + currentBlock.getStringId() + " at height " + currentBlock.getHeight()
-                                                + " ecBlockHeight " + transaction.getECBlockHeight() + " ecBlockId " + Convert.toUnsignedLong(transaction.getECBlockId()));
-                                        //throw new NxtException.NotValidException("Invalid transaction fork");
-                                    }
-                                    */
                                     transaction.validate();
                                     if (transaction.isDuplicate(duplicates)) {
                                         throw new NxtException.NotValidException("Transaction is a duplicate: " + transaction.getStringId());
                                     }
-                                    byte[] transactionBytes = transaction.getBytes();
-                                    if (currentBlock.getHeight() > Constants.NQT_BLOCK
-                                            && !Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionBytes).getBytes())) {
-                                        throw new NxtException.NotValidException("Transaction bytes cannot be parsed back to the same transaction");
-                                    }
-                                    JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
-                                    if (!Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionJSON).getBytes())) {
-                                        throw new NxtException.NotValidException("Transaction JSON cannot be parsed back to the same transaction");
-                                    }
                                 }
                             }
                             blockListeners.notify(currentBlock, Event.BEFORE_BLOCK_ACCEPT);
@@ -196,21 +214,16 @@ class Scanner {
                             apply(currentBlock);
                             currentBlockId = currentBlock.getNextBlockId();
                             Db.db.commitTransaction();
+                            progress.scanned(currentBlock);
                         } catch (NxtException | RuntimeException e) {
                             Db.db.rollbackTransaction();
                             Logger.logDebugMessage(e.toString(), e);
                             Logger.logDebugMessage("Applying block " + Convert.toUnsignedLong(currentBlockId) + " at height "
-                                    + (currentBlock == null ? 0 : currentBlock.getHeight()) + " failed, deleting from database");
+                                    + (currentBlock == null ? blockchain.getHeight() + 1 : currentBlock.getHeight()) + " failed, deleting from database");
                             if (currentBlock != null) {
                                 transactionProcessor.processLater(currentBlock.getTransactions());
                             }
-                            while (rs.next()) {
-                                try {
-                                    currentBlock = BlockDb.loadBlock(con, rs);
-                                    transactionProcessor.processLater(currentBlock.getTransactions());
-                                } catch (NxtException.ValidationException ignore) {
-                                }
-                            }
+                            transactionProcessor.processLater(blocks.skipRemaining());
                             BlockDb.deleteBlocksFrom(currentBlockId);
                             blockchain.setLastBlock(BlockDb.findLastBlock());
                         }
@@ -219,14 +232,241 @@ class Scanner {
                 }
                 pstmtDone.executeUpdate();
                 Db.db.commitTransaction();
+                RetargetWindow.getInstance().rebuild(blockchain.getLastBlock());
                 blockListeners.notify(currentBlock, Event.RESCAN_END);
-                Logger.logMessage("...done at height " + Nxt.getBlockchain().getHeight());
+                Logger.logMessage("...done at height " + Nxt.getBlockchain().getHeight() + ", " + progress);
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             } finally {
                 Db.db.endTransaction();
                 isScanning = false;
+                if (verifier != null) {
+                    ThreadPool.shutdownExecutor(verifier);
+                }
             }
         } // synchronized
     }
+
+    /*
+     * The checks of a block that do not depend on the state derived from the previous blocks, and so can be done
+     * ahead of applying it, in parallel with other blocks: proof of work, serialization and transaction signatures.
+     */
+    private static void verify(BlockImpl block, BlockImpl previousBlock) throws NxtException.ValidationException {
+        if (!block.verify()) {
+            throw new NxtException.NotValidException("Invalid block");
+        }
+        byte[] blockBytes = block.getBytes();
+        JSONObject blockJSON = (JSONObject) JSONValue.parse(block.getJSONObject().toJSONString());
+        if (!Arrays.equals(blockBytes, BlockPOW.parseBlock(blockJSON, previousBlock).getBytes())) {
+            throw new NxtException.NotValidException("Block JSON cannot be parsed back to the same block");
+        }
+        for (TransactionImpl transaction : block.getTransactions()) {
+            if (!transaction.checkSignature()) {
+                throw new NxtException.NotValidException("Invalid transaction signature");
+            }
+            byte[] transactionBytes = transaction.getBytes();
+            if (block.getHeight() > Constants.NQT_BLOCK
+                    && !Arrays.equals(transactionBytes, TransactionImpl.parseTransaction(transactionBytes).getBytes())) {
+                throw new NxtException.NotValidException("Transaction bytes cannot be parsed back to the same transaction");
+            }
+            JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
+            if (!Arrays.equals(transactionBytes, TransactionImpl.parseTransaction(transactionJSON).getBytes())) {
+                throw new NxtException.NotValidException("Transaction JSON cannot be parsed back to the same transaction");
+            }
+        }
+    }
+
+    /*
+     * The blocks from the scan height with their transactions, merged from two cursors ordered by height instead of
+     * a query for the transactions of each block. With a verifier, up to nxt.scanPrefetchBlocks blocks are read ahead
+     * and verified in parallel, next() returns them in order once verified. A block that cannot be read fails
+     * only when its turn comes, after the blocks before it.
+     */
+    private final class BlockStream {
+
+        private final Connection con;
+        private final ResultSet rs;
+        private final ResultSet rsTransactions;
+        private final ExecutorService verifier;
+        private final Deque<PrefetchedBlock> prefetched = new ArrayDeque<>();
+        private boolean hasTransaction;
+        private boolean rowChecked;
+        private boolean hasRow;
+        private BlockImpl lastRead;
+
+        private BlockStream(Connection con, ResultSet rs, ResultSet rsTransactions, ExecutorService verifier) throws SQLException {
+            this.con = con;
+            this.rs = rs;
+            this.rsTransactions = rsTransactions;
+            this.verifier = verifier;
+            this.hasTransaction = rsTransactions.next();
+        }
+
+        private boolean hasNext() throws SQLException {
+            return !prefetched.isEmpty() || hasRow();
+        }
+
+        private BlockImpl next() throws NxtException, SQLException {
+            int prefetchBlocks = verifier != null ? scanPrefetchBlocks : 1;
+            while (prefetched.size() < prefetchBlocks && hasRow()) {
+                rowChecked = false;
+                prefetch();
+            }
+            try {
+                return prefetched.removeFirst().verification.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e.toString(), e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof NxtException) {
+                    throw (NxtException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause().toString(), e.getCause());
+            }
+        }
+
+        /*
+         * The transactions of the blocks left, prefetched or not, the verification of the prefetched ones is cancelled.
+         */
+        private List<TransactionImpl> skipRemaining() {
+            List<TransactionImpl> transactions = new ArrayList<>();
+            for (PrefetchedBlock prefetchedBlock : prefetched) {
+                prefetchedBlock.verification.cancel(false);
+                if (prefetchedBlock.block != null) {
+                    transactions.addAll(prefetchedBlock.block.getTransactions());
+                }
+            }
+            prefetched.clear();
+            try {
+                while (hasRow()) {
+                    rowChecked = false;
+                    try {
+                        transactions.addAll(read().getTransactions());
+                    } catch (RuntimeException ignore) {
+                    }
+                }
+            } catch (SQLException ignore) {
+            }
+            return transactions;
+        }
+
+        private boolean hasRow() throws SQLException {
+            if (!rowChecked) {
+                hasRow = rs.next();
+                rowChecked = true;
+            }
+            return hasRow;
+        }
+
+        private void prefetch() throws SQLException {
+            final BlockImpl block;
+            try {
+                block = read();
+            } catch (final RuntimeException e) {
+                prefetched.addLast(new PrefetchedBlock(null, done(new Callable<BlockImpl>() {
+                    @Override
+                    public BlockImpl call() {
+                        throw e;
+                    }
+                })));
+                return;
+            }
+            final BlockImpl previousBlock = lastRead;
+            lastRead = block;
+            if (verifier == null || block.getHeight() == 0) {
+                prefetched.addLast(new PrefetchedBlock(block, done(new Callable<BlockImpl>() {
+                    @Override
+                    public BlockImpl call() {
+                        return block;
+                    }
+                })));
+            } else {
+                prefetched.addLast(new PrefetchedBlock(block, verifier.submit(new Callable<BlockImpl>() {
+                    @Override
+                    public BlockImpl call() throws NxtException.ValidationException {
+                        verify(block, previousBlock);
+                        return block;
+                    }
+                })));
+            }
+        }
+
+        private BlockImpl read() throws SQLException {
+            try {
+                BlockImpl block = BlockDb.loadBlock(con, rs);
+                while (hasTransaction && rsTransactions.getInt("height") < block.getHeight()) {
+                    hasTransaction = rsTransactions.next(); // of a block that could not be read
+                }
+                List<TransactionImpl> transactions = new ArrayList<>();
+                while (hasTransaction && rsTransactions.getInt("height") == block.getHeight()) {
+                    if (rsTransactions.getLong("block_id") != block.getId()) {
+                        throw new RuntimeException("Transaction at height " + block.getHeight() + " not in block " + block.getStringId());
+                    }
+                    transactions.add(TransactionDb.loadTransaction(con, rsTransactions));
+                    hasTransaction = rsTransactions.next();
+                }
+                block.setTransactions(transactions);
+                return block;
+            } catch (NxtException.ValidationException e) {
+                throw new RuntimeException("Block already in database at height " + rs.getInt("height") + " does not pass validation!", e);
+            }
+        }
+
+    }
+
+    private static FutureTask<BlockImpl> done(Callable<BlockImpl> callable) {
+        FutureTask<BlockImpl> task = new FutureTask<>(callable);
+        task.run();
+        return task;
+    }
+
+    private static final class PrefetchedBlock {
+
+        private final BlockImpl block;
+        private final Future<BlockImpl> verification;
+
+        private PrefetchedBlock(BlockImpl block, Future<BlockImpl> verification) {
+            this.block = block;
+            this.verification = verification;
+        }
+
+    }
+
+    /*
+     * Logs the progress of a scan with its throughput every 5000 blocks.
+     */
+    private static final class ScanProgress {
+
+        private final int fromHeight;
+        private final int toHeight;
+        private final long start = System.currentTimeMillis();
+        private int blocks;
+        private int transactions;
+
+        private ScanProgress(int fromHeight, int toHeight) {
+            this.fromHeight = fromHeight;
+            this.toHeight = toHeight;
+        }
+
+        private void scanned(Block block) {
+            blocks += 1;
+            transactions += block.getTransactions().size();
+            if (block.getHeight() % 5000 == 0 && block.getHeight() > 0) {
+                Logger.logMessage("Scanned block " + block.getHeight() + " of " + toHeight
+                        + String.format(" (%.1f%%), ", 100.0 * (block.getHeight() - fromHeight + 1) / (toHeight - fromHeight + 1)) + this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+            return blocks + " blocks and " + transactions + " transactions in " + elapsed / 1000 + " s, "
+                    + blocks * 1000L / elapsed + " blocks/s, " + transactions * 1000L / elapsed + " transactions/s";
+        }
+
+    }
+
 }
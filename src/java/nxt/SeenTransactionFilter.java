@@ -0,0 +1,164 @@
+package nxt;
+
+import nxt.crypto.Crypto;
+import nxt.util.Convert;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * The signatures of the transactions recently relayed to us and already handled, that is admitted or found to be
+ * in the blockchain or the unconfirmed pool, so that further relays of them are dropped before they are parsed,
+ * their signatures verified or the database queried. Invalid transactions are never added, so a peer sending them
+ * again is still found out and blacklisted.
+ * The signature is at a fixed offset in the bytes of a transaction and a field of its JSON. Its signer chooses it
+ * though, so the bit indexes and the hash code come from its SHA-256 after a random secret of this process, for no
+ * one to know which bits and buckets it lands in. The most recent signatures are kept exactly, older ones in a Bloom filter
+ * of two generations, the older generation being dropped once the newer one is full or old enough, which bounds the
+ * memory used. A Bloom filter false positive drops a new transaction, about 1.3e-5 per full generation, so 2.7e-5
+ * with both full, until the generation holding the colliding bits is dropped, the transaction being relayed again by then.
+ */
+final class SeenTransactionFilter {
+
+    private static final int SIGNATURE_OFFSET = 1 + 1 + 4 + 2 + 32 + 8 + 8 + 8 + 32;
+    private static final int SIGNATURE_LENGTH = 64;
+
+    private static final int BLOOM_BITS = 1 << 22;
+    private static final int BLOOM_CAPACITY = 65536;
+    private static final int BLOOM_MAX_AGE = 600;
+    private static final int RECENT_SIZE = 8192;
+
+    private final Map<Key,Boolean> recent = new LinkedHashMap<Key,Boolean>(RECENT_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key,Boolean> eldest) {
+            return size() > RECENT_SIZE;
+        }
+    };
+    private long[] bloom = new long[BLOOM_BITS / 64];
+    private long[] previousBloom = new long[BLOOM_BITS / 64];
+    private int bloomCount;
+    private int bloomStart = Nxt.getEpochTime();
+    private final byte[] hashSecret = new byte[32];
+    private final MessageDigest digest = Crypto.sha256();
+
+    SeenTransactionFilter() {
+        new SecureRandom().nextBytes(hashSecret);
+    }
+
+    /*
+     * The signature of the transaction bytes, or null if too short to have one.
+     */
+    static byte[] getSignature(byte[] transactionBytes) {
+        if (transactionBytes.length < SIGNATURE_OFFSET + SIGNATURE_LENGTH) {
+            return null;
+        }
+        return Arrays.copyOfRange(transactionBytes, SIGNATURE_OFFSET, SIGNATURE_OFFSET + SIGNATURE_LENGTH);
+    }
+
+    /*
+     * The signature of the transaction JSON, or null if it has none that is well formed.
+     */
+    static byte[] getSignature(Object signatureHex) {
+        if (!(signatureHex instanceof String) || ((String) signatureHex).length() != SIGNATURE_LENGTH * 2) {
+            return null;
+        }
+        try {
+            return Convert.parseHexString((String) signatureHex);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    synchronized boolean contains(byte[] signature) {
+        if (signature == null || signature.length != SIGNATURE_LENGTH) {
+            return false;
+        }
+        byte[] hash = hash(signature);
+        if (recent.get(new Key(signature, getHash(hash, 4))) != null) {
+            return true;
+        }
+        return contains(bloom, hash) || contains(previousBloom, hash);
+    }
+
+    // each generation checked on its own, the union of both would have twice as many bits set
+    private static boolean contains(long[] bits, byte[] hash) {
+        for (int i = 0; i < 4; i++) {
+            int bit = getHash(hash, i);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized void add(byte[] signature) {
+        if (signature == null || signature.length != SIGNATURE_LENGTH) {
+            return;
+        }
+        byte[] hash = hash(signature);
+        if (recent.put(new Key(signature, getHash(hash, 4)), Boolean.TRUE) != null) {
+            return;
+        }
+        int now = Nxt.getEpochTime();
+        if (bloomCount >= BLOOM_CAPACITY || now - bloomStart >= BLOOM_MAX_AGE) {
+            long[] bits = previousBloom;
+            Arrays.fill(bits, 0);
+            previousBloom = bloom;
+            bloom = bits;
+            bloomCount = 0;
+            bloomStart = now;
+        }
+        for (int i = 0; i < 4; i++) {
+            int bit = getHash(hash, i);
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+        bloomCount += 1;
+    }
+
+    // called with the lock held, the digest is shared
+    private byte[] hash(byte[] signature) {
+        digest.update(hashSecret);
+        return digest.digest(signature);
+    }
+
+    // four bit indexes, then the hash code
+    private static int getHash(byte[] hash, int i) {
+        int offset = i * 4;
+        int h = (hash[offset] & 0xff) | (hash[offset + 1] & 0xff) << 8
+                | (hash[offset + 2] & 0xff) << 16 | (hash[offset + 3] & 0xff) << 24;
+        return i < 4 ? h & (BLOOM_BITS - 1) : h;
+    }
+
+    synchronized void clear() {
+        recent.clear();
+        Arrays.fill(bloom, 0);
+        Arrays.fill(previousBloom, 0);
+        bloomCount = 0;
+    }
+
+    private static final class Key {
+
+        private final byte[] signature;
+        private final int hashCode;
+
+        private Key(byte[] signature, int hashCode) {
+            this.signature = signature;
+            this.hashCode = hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(signature, ((Key) o).signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+}
@@ -0,0 +1,60 @@
+package nxt;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Checks transaction signatures in parallel before the blockchain lock is taken.
+ * Only the cryptographic part is done here, the results are remembered by each transaction,
+ * so that verifySignature() under the lock is left with the account public key check.
+ */
+final class SignatureVerifier {
+
+    private static final int THRESHOLD = 8; // transactions checked by a single task
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    static void checkSignatures(List<TransactionImpl> transactions) {
+        if (transactions.size() <= THRESHOLD) {
+            checkSignatures(transactions, 0, transactions.size());
+        } else {
+            pool.invoke(new CheckSignaturesTask(transactions, 0, transactions.size()));
+        }
+    }
+
+    private static void checkSignatures(List<TransactionImpl> transactions, int from, int to) {
+        for (int i = from; i < to; i++) {
+            transactions.get(i).checkSignature();
+        }
+    }
+
+    private static final class CheckSignaturesTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<TransactionImpl> transactions;
+        private final int from;
+        private final int to;
+
+        private CheckSignaturesTask(List<TransactionImpl> transactions, int from, int to) {
+            this.transactions = transactions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                checkSignatures(transactions, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CheckSignaturesTask(transactions, from, middle), new CheckSignaturesTask(transactions, middle, to));
+            }
+        }
+
+    }
+
+    private SignatureVerifier() {} // never
+
+}
@@ -0,0 +1,661 @@
+package nxt;
+
+import nxt.crypto.Crypto;
+import nxt.db.DbUtils;
+import nxt.db.DerivedDbTable;
+import nxt.util.Convert;
+import nxt.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Gzipped snapshots of the blockchain and of the derived tables as of a height, a SHA-256 of their content at the end,
+ * written every nxt.snapshotInterval blocks to nxt.snapshotDir, some blocks below the last one.
+ * A new node started with nxt.snapshotFile loads one instead of applying all the blocks up to its height, and a rescan
+ * after a rollback deeper than the derived tables allow starts from the latest one still on the blockchain.
+ * Each derived table is written with the blockchain lock held, the rows a rollback to the height would leave.
+ */
+final class Snapshots implements Runnable {
+
+    private static final int MAGIC = 0x4e58534e;
+    private static final int FORMAT_VERSION = 1;
+    private static final int CONFIRMATIONS = 10;
+    private static final int BUFFER_SIZE = 65536;
+    private static final int BATCH_SIZE = 1000;
+    private static final List<String> CHAIN_TABLES = Collections.unmodifiableList(Arrays.asList("block", "transaction"));
+    private static final Pattern FILE_NAME = Pattern.compile("nxt-snapshot-(\\d+)\\.gz");
+
+    private final BlockchainImpl blockchain = BlockchainImpl.getInstance();
+    private final List<DerivedDbTable> derivedTables;
+    private final int interval = Nxt.getIntProperty("nxt.snapshotInterval");
+    private final int snapshotsToKeep = Math.max(Nxt.getIntProperty("nxt.snapshotsToKeep"), 1);
+    private final File directory = new File(Nxt.getStringProperty("nxt.snapshotDir", "snapshots"));
+
+    private volatile int lastSnapshotHeight;
+
+    private static final class Header {
+
+        private int dbVersion;
+        private int height;
+        private long blockId;
+        private long genesisBlockId;
+        private Map<String, String> tables; // the columns of each table, only known once the whole snapshot is read
+
+    }
+
+    Snapshots(List<DerivedDbTable> derivedTables) {
+        this.derivedTables = derivedTables;
+        List<File> files = listSnapshots();
+        this.lastSnapshotHeight = files.isEmpty() ? 0 : getHeight(files.get(0));
+    }
+
+    boolean isEnabled() {
+        return interval > 0;
+    }
+
+    @Override
+    public void run() {
+        try {
+            try {
+                int height = (blockchain.getHeight() - CONFIRMATIONS) / interval * interval;
+                if (height <= lastSnapshotHeight || Nxt.getBlockchainProcessor().isScanning()) {
+                    return;
+                }
+                if (height < Nxt.getBlockchainProcessor().getMinRollbackHeight()) {
+                    Logger.logDebugMessage("Skipped snapshot at height " + height + ", derived tables already trimmed");
+                    lastSnapshotHeight = height;
+                    return;
+                }
+                export(height, BlockDb.findBlockIdAtHeight(height));
+                lastSnapshotHeight = height;
+                deleteOldSnapshots();
+            } catch (Exception e) {
+                Logger.logDebugMessage("Error in snapshot thread", e);
+            }
+        } catch (Throwable t) {
+            Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
+            t.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Replaces the blockchain and the derived tables with those of the snapshot, unless the blockchain already reaches
+     * its height. Called at startup, before the genesis block is added if the database is new.
+     * Like restoreLatest(), leaves the derived tables without the rows to roll back below that height, until a full scan.
+     */
+    void bootstrap(File file) {
+        synchronized (blockchain) {
+            Header header;
+            try {
+                header = read(file, null, null);
+            } catch (IOException | SQLException | RuntimeException e) {
+                Logger.logErrorMessage("Snapshot " + file + " not loaded", e);
+                return;
+            }
+            if (BlockDb.hasBlockAtHeight(header.height)) {
+                Logger.logMessage("Snapshot " + file + " not loaded, the blockchain already reaches its height " + header.height);
+                return;
+            }
+            String mismatch = getMismatch(header, true);
+            if (mismatch != null) {
+                Logger.logErrorMessage("Snapshot " + file + " not loaded, " + mismatch);
+                return;
+            }
+            Logger.logMessage("Loading blockchain and derived tables from snapshot " + file + " at height " + header.height + "...");
+            try {
+                load(file, header.height, true);
+                Logger.logMessage("...done");
+            } catch (IOException | SQLException | RuntimeException e) {
+                Logger.logErrorMessage("Loading snapshot " + file + " failed, starting from the genesis block", e);
+                reset();
+            }
+        }
+    }
+
+    /*
+     * Replaces the derived tables with those of the latest snapshot in nxt.snapshotDir of a block still on the
+     * blockchain below its last block, returns its height, or -1 if there is none. The blocks above it remain to be scanned.
+     */
+    int restoreLatest() {
+        synchronized (blockchain) {
+            for (File file : listSnapshots()) {
+                Header header;
+                String mismatch;
+                try {
+                    mismatch = getMismatch(readHeader(file), false);
+                    if (mismatch == null) {
+                        header = read(file, null, null);
+                        mismatch = getMismatch(header, false);
+                    } else {
+                        header = null;
+                    }
+                } catch (IOException | SQLException | RuntimeException e) {
+                    Logger.logErrorMessage("Snapshot " + file + " not used", e);
+                    continue;
+                }
+                if (mismatch != null) {
+                    Logger.logDebugMessage("Snapshot " + file + " not used, " + mismatch);
+                    continue;
+                }
+                Logger.logMessage("Restoring derived tables from snapshot " + file + " at height " + header.height);
+                try {
+                    load(file, header.height, false);
+                    return header.height;
+                } catch (IOException | SQLException | RuntimeException e) {
+                    Logger.logErrorMessage("Restoring derived tables from snapshot " + file + " failed", e);
+                    return -1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private void export(int height, long blockId) throws IOException, SQLException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create snapshot directory " + directory);
+        }
+        File file = new File(directory, "nxt-snapshot-" + height + ".gz");
+        File tmpFile = new File(directory, file.getName() + ".tmp");
+        Logger.logDebugMessage("Writing snapshot at height " + height + "...");
+        long start = System.currentTimeMillis();
+        long rows = 0;
+        MessageDigest digest = Crypto.sha256();
+        try (Connection con = Db.db.getConnection();
+             DigestOutputStream digestStream = new DigestOutputStream(new BufferedOutputStream(
+                     new GZIPOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE), BUFFER_SIZE), digest);
+             DataOutputStream out = new DataOutputStream(digestStream)) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(getDbVersion(con));
+            out.writeInt(height);
+            out.writeLong(blockId);
+            out.writeLong(BlockDb.findBlockIdAtHeight(0));
+            // the blocks and transactions up to the height do not change while the block at the height stays
+            for (String table : CHAIN_TABLES) {
+                checkBlock(height, blockId);
+                try (PreparedStatement pstmt = con.prepareStatement("SELECT " + getColumns(con, table, height) + " FROM "
+                        + table + " AS a WHERE a.height <= ? ORDER BY a.db_id")) {
+                    pstmt.setInt(1, height);
+                    rows += write(out, table, pstmt);
+                }
+            }
+            for (DerivedDbTable table : derivedTables) {
+                if (!table.isSnapshotted()) {
+                    continue;
+                }
+                synchronized (blockchain) {
+                    checkBlock(height, blockId);
+                    try (PreparedStatement pstmt = table.prepareSelectAtHeight(con,
+                            getColumns(con, table.getTableName(), height), height)) {
+                        rows += write(out, table.getTableName(), pstmt);
+                    }
+                }
+            }
+            out.writeBoolean(false);
+            digestStream.on(false);
+            out.write(digest.digest());
+        } catch (IOException | SQLException | RuntimeException e) {
+            if (!tmpFile.delete()) {
+                Logger.logDebugMessage("Cannot delete " + tmpFile);
+            }
+            throw e;
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Logger.logMessage("Snapshot at height " + height + " written to " + file + ", " + rows + " rows, "
+                + file.length() / 1024 + " KB in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void checkBlock(int height, long blockId) {
+        if (!BlockDb.hasBlockAtHeight(height) || BlockDb.findBlockIdAtHeight(height) != blockId) {
+            throw new IllegalStateException("Block at height " + height + " no longer on the blockchain");
+        }
+    }
+
+    /*
+     * The rows written are all the latest ones at the height, and the block at the height is the last one.
+     */
+    private static String getColumns(Connection con, String table, int height) throws SQLException {
+        StringBuilder columns = new StringBuilder();
+        try (ResultSet rs = con.getMetaData().getColumns(null, "PUBLIC", table.toUpperCase(), null)) {
+            while (rs.next()) {
+                String column = rs.getString("COLUMN_NAME").toLowerCase();
+                if (column.equals("db_id")) {
+                    continue;
+                }
+                if (columns.length() > 0) {
+                    columns.append(", ");
+                }
+                switch (column) {
+                    case "latest":
+                        columns.append("TRUE AS latest");
+                        break;
+                    case "valid_to":
+                        columns.append(Integer.MAX_VALUE).append(" AS valid_to");
+                        break;
+                    case "next_block_id":
+                        columns.append("CASE WHEN a.height < ").append(height).append(" THEN a.next_block_id END AS next_block_id");
+                        break;
+                    default:
+                        columns.append("a.").append(column);
+                }
+            }
+        }
+        return columns.toString();
+    }
+
+    private static long write(DataOutputStream out, String table, PreparedStatement pstmt) throws IOException, SQLException {
+        long rows = 0;
+        try (ResultSet rs = pstmt.executeQuery()) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            int[] types = new int[metaData.getColumnCount()];
+            out.writeBoolean(true);
+            out.writeUTF(table);
+            out.writeInt(types.length);
+            for (int i = 0; i < types.length; i++) {
+                types[i] = metaData.getColumnType(i + 1);
+                out.writeUTF(metaData.getColumnLabel(i + 1).toLowerCase());
+                out.writeInt(types[i]);
+            }
+            while (rs.next()) {
+                out.writeBoolean(true);
+                for (int i = 0; i < types.length; i++) {
+                    writeValue(out, types[i], rs.getObject(i + 1));
+                }
+                rows += 1;
+            }
+            out.writeBoolean(false);
+        }
+        return rows;
+    }
+
+    private static void writeValue(DataOutputStream out, int type, Object value) throws IOException, SQLException {
+        out.writeBoolean(value != null);
+        if (value == null) {
+            return;
+        }
+        switch (type) {
+            case Types.BIGINT:
+                out.writeLong(((Number) value).longValue());
+                break;
+            case Types.INTEGER:
+                out.writeInt(((Number) value).intValue());
+                break;
+            case Types.SMALLINT:
+                out.writeShort(((Number) value).shortValue());
+                break;
+            case Types.TINYINT:
+                out.writeByte(((Number) value).byteValue());
+                break;
+            case Types.BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case Types.VARCHAR:
+                writeBytes(out, Convert.toBytes((String) value));
+                break;
+            case Types.VARBINARY:
+            case Types.BINARY:
+                writeBytes(out, (byte[]) value);
+                break;
+            case Types.ARRAY:
+                Object[] array = value instanceof Array ? (Object[]) ((Array) value).getArray() : (Object[]) value;
+                out.writeInt(array.length);
+                for (Object element : array) {
+                    out.writeBoolean(element != null);
+                    if (element != null) {
+                        writeBytes(out, Convert.toBytes((String) element));
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported column type " + type);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Object readValue(DataInputStream in, int type) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        switch (type) {
+            case Types.BIGINT:
+                return in.readLong();
+            case Types.INTEGER:
+                return in.readInt();
+            case Types.SMALLINT:
+                return in.readShort();
+            case Types.TINYINT:
+                return in.readByte();
+            case Types.BOOLEAN:
+                return in.readBoolean();
+            case Types.VARCHAR:
+                return Convert.toString(readBytes(in));
+            case Types.VARBINARY:
+            case Types.BINARY:
+                return readBytes(in);
+            case Types.ARRAY:
+                String[] array = new String[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readBoolean() ? Convert.toString(readBytes(in)) : null;
+                }
+                return array;
+            default:
+                throw new IOException("Unsupported column type " + type);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static Header readHeader(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)))) {
+            return readHeader(in, file);
+        }
+    }
+
+    private static Header readHeader(DataInputStream in, File file) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Not a snapshot, or of another format version: " + file);
+        }
+        Header header = new Header();
+        header.dbVersion = in.readInt();
+        header.height = in.readInt();
+        header.blockId = in.readLong();
+        header.genesisBlockId = in.readLong();
+        return header;
+    }
+
+    /*
+     * Reads the whole snapshot and checks its checksum, inserting the rows of the tables in the set if con is not null.
+     */
+    private static Header read(File file, Connection con, Set<String> tables) throws IOException, SQLException {
+        MessageDigest digest = Crypto.sha256();
+        try (DigestInputStream digestStream = new DigestInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE), digest);
+             DataInputStream in = new DataInputStream(digestStream)) {
+            Header header = readHeader(in, file);
+            header.tables = new HashMap<>();
+            long rows = 0;
+            while (in.readBoolean()) {
+                String table = in.readUTF();
+                String[] columns = new String[in.readInt()];
+                int[] types = new int[columns.length];
+                StringBuilder insertSql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = in.readUTF();
+                    types[i] = in.readInt();
+                    insertSql.append(i > 0 ? ", " : "").append(columns[i]);
+                }
+                insertSql.append(") VALUES (");
+                for (int i = 0; i < columns.length; i++) {
+                    insertSql.append(i > 0 ? ", ?" : "?");
+                }
+                insertSql.append(")");
+                header.tables.put(table, getSignature(columns, types));
+                PreparedStatement pstmt = con != null && tables.contains(table) ? con.prepareStatement(insertSql.toString()) : null;
+                try {
+                    int batched = 0;
+                    while (in.readBoolean()) {
+                        for (int i = 0; i < columns.length; i++) {
+                            Object value = readValue(in, types[i]);
+                            if (pstmt == null) {
+                                continue;
+                            }
+                            if (value == null) {
+                                pstmt.setNull(i + 1, types[i]);
+                            } else {
+                                pstmt.setObject(i + 1, value);
+                            }
+                        }
+                        if (pstmt != null) {
+                            pstmt.addBatch();
+                            rows += 1;
+                            if (++batched == BATCH_SIZE) {
+                                pstmt.executeBatch();
+                                Db.db.commitTransaction(); // large transactions are much slower in H2
+                                batched = 0;
+                            }
+                        }
+                    }
+                    if (pstmt != null && batched > 0) {
+                        pstmt.executeBatch();
+                    }
+                } finally {
+                    DbUtils.close(pstmt);
+                }
+            }
+            digestStream.on(false);
+            byte[] checksum = new byte[32];
+            in.readFully(checksum);
+            if (!MessageDigest.isEqual(checksum, digest.digest())) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+            if (con != null) {
+                Logger.logDebugMessage("Loaded " + rows + " rows");
+            }
+            return header;
+        }
+    }
+
+    private void load(File file, int height, boolean withChain) throws IOException, SQLException {
+        Set<String> tables = getTables(withChain);
+        try {
+            Connection con = Db.db.beginTransaction();
+            if (withChain) {
+                BlockDb.deleteAll();
+            }
+            for (DerivedDbTable table : derivedTables) {
+                if (table.isSnapshotted()) {
+                    table.truncate();
+                }
+            }
+            try (Statement stmt = con.createStatement()) {
+                // the next block of each block is only inserted after it
+                stmt.executeUpdate("SET REFERENTIAL_INTEGRITY FALSE");
+                try {
+                    read(file, con, tables);
+                } finally {
+                    stmt.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
+                }
+                if (withChain) {
+                    stmt.executeUpdate("UPDATE scan SET rescan = FALSE, height = 0, validate = FALSE");
+                }
+            }
+            BlockchainProcessorImpl.getInstance().setSnapshotHeight(height);
+            Db.db.commitTransaction();
+        } catch (IOException | SQLException | RuntimeException e) {
+            Db.db.rollbackTransaction();
+            BlockchainProcessorImpl.getInstance().loadSnapshotHeight();
+            throw e;
+        } finally {
+            Db.db.endTransaction();
+        }
+    }
+
+    /*
+     * Back to an empty database after a failed load, the genesis block is then added and scanned.
+     */
+    private void reset() {
+        try {
+            Db.db.beginTransaction();
+            BlockDb.deleteAll();
+            for (DerivedDbTable table : derivedTables) {
+                if (table.isSnapshotted()) {
+                    table.truncate();
+                }
+            }
+            Db.db.commitTransaction();
+        } catch (RuntimeException e) {
+            Db.db.rollbackTransaction();
+            throw e;
+        } finally {
+            Db.db.endTransaction();
+        }
+        BlockchainProcessorImpl.getInstance().scheduleScan(0, false);
+    }
+
+    /*
+     * Snapshots of other nodes only need to have the same tables, those of this node must also be of the current
+     * database version, an update may have scheduled a rescan.
+     */
+    private String getMismatch(Header header, boolean withChain) {
+        if (!withChain && header.dbVersion != getDbVersion()) {
+            return "made with database version " + header.dbVersion;
+        }
+        if (header.genesisBlockId != BlockPOW.getGenesisBlock().getId()) {
+            return "of another blockchain";
+        }
+        if (!withChain && (!BlockDb.hasBlockAtHeight(header.height + 1)
+                || BlockDb.findBlockIdAtHeight(header.height) != header.blockId)) {
+            return "of a block not on the blockchain below its last block";
+        }
+        if (header.tables != null) {
+            try (Connection con = Db.db.getConnection()) {
+                for (String table : getTables(withChain)) {
+                    if (!header.tables.containsKey(table)) {
+                        return "without the " + table + " table";
+                    }
+                    if (!header.tables.get(table).equals(getSignature(con, table))) {
+                        return "with other columns in the " + table + " table";
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
+        return null;
+    }
+
+    private static String getSignature(String[] columns, int[] types) {
+        StringBuilder signature = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            signature.append(columns[i]).append(' ').append(types[i]).append(',');
+        }
+        return signature.toString();
+    }
+
+    private static String getSignature(Connection con, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        List<Integer> types = new ArrayList<>();
+        try (ResultSet rs = con.getMetaData().getColumns(null, "PUBLIC", table.toUpperCase(), null)) {
+            while (rs.next()) {
+                String column = rs.getString("COLUMN_NAME").toLowerCase();
+                if (!column.equals("db_id")) {
+                    columns.add(column);
+                    types.add(rs.getInt("DATA_TYPE"));
+                }
+            }
+        }
+        int[] typeArray = new int[types.size()];
+        for (int i = 0; i < typeArray.length; i++) {
+            typeArray[i] = types.get(i);
+        }
+        return getSignature(columns.toArray(new String[columns.size()]), typeArray);
+    }
+
+    private Set<String> getTables(boolean withChain) {
+        Set<String> tables = new HashSet<>();
+        if (withChain) {
+            tables.addAll(CHAIN_TABLES);
+        }
+        for (DerivedDbTable table : derivedTables) {
+            if (table.isSnapshotted()) {
+                tables.add(table.getTableName());
+            }
+        }
+        return tables;
+    }
+
+    private static int getDbVersion() {
+        try (Connection con = Db.db.getConnection()) {
+            return getDbVersion(con);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static int getDbVersion(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT next_update FROM version")) {
+            rs.next();
+            return rs.getInt("next_update");
+        }
+    }
+
+    /*
+     * The snapshots in nxt.snapshotDir, the latest first.
+     */
+    private List<File> listSnapshots() {
+        List<File> snapshots = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (FILE_NAME.matcher(file.getName()).matches()) {
+                    snapshots.add(file);
+                }
+            }
+        }
+        Collections.sort(snapshots, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Integer.compare(getHeight(file2), getHeight(file1));
+            }
+        });
+        return snapshots;
+    }
+
+    private static int getHeight(File file) {
+        Matcher matcher = FILE_NAME.matcher(file.getName());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    private void deleteOldSnapshots() {
+        List<File> snapshots = listSnapshots();
+        for (File file : snapshots.subList(Math.min(snapshotsToKeep, snapshots.size()), snapshots.size())) {
+            if (file.delete()) {
+                Logger.logDebugMessage("Deleted old snapshot " + file);
+            }
+        }
+    }
+
+}
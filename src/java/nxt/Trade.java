@@ -1,6 +1,7 @@
 package nxt;
 
 import nxt.db.DbClause;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.DbUtils;
@@ -49,6 +50,10 @@ public final class Trade {
         return tradeTable.getAll(from, to);
     }
 
+    public static DbIterator<Trade> getAllTrades(DbCursor cursor, int limit) {
+        return tradeTable.getAll(cursor, limit);
+    }
+
     public static int getCount() {
         return tradeTable.getCount();
     }
@@ -65,6 +70,10 @@ public final class Trade {
         return tradeTable.getManyBy(new DbClause.LongClause("asset_id", assetId), from, to);
     }
 
+    public static DbIterator<Trade> getAssetTrades(long assetId, DbCursor cursor, int limit) {
+        return tradeTable.getManyBy(new DbClause.LongClause("asset_id", assetId), cursor, limit, DbCursor.orderBy("asset_id"));
+    }
+
     public static DbIterator<Trade> getAccountTrades(long accountId, int from, int to) {
         Connection con = null;
         try {
@@ -84,6 +93,35 @@ public final class Trade {
         }
     }
 
+    /*
+     * Each side of the union reads its own index up to the limit, the union of the two is then sorted again.
+     */
+    public static DbIterator<Trade> getAccountTrades(long accountId, DbCursor cursor, int limit) {
+        Connection con = null;
+        try {
+            con = Db.db.getConnection();
+            String limitsClause = DbUtils.limitsClause(0, limit - 1);
+            PreparedStatement pstmt = con.prepareStatement("(SELECT * FROM trade WHERE seller_id = ? AND" + cursor.getClause()
+                    + DbCursor.orderBy("seller_id") + limitsClause + ")"
+                    + " UNION ALL (SELECT * FROM trade WHERE buyer_id = ? AND seller_id <> ? AND" + cursor.getClause()
+                    + DbCursor.orderBy("buyer_id") + limitsClause + ")"
+                    + DbCursor.ORDER_BY + limitsClause);
+            int i = 0;
+            pstmt.setLong(++i, accountId);
+            i = cursor.set(pstmt, ++i);
+            i = DbUtils.setLimits(i, pstmt, 0, limit - 1);
+            pstmt.setLong(i, accountId);
+            pstmt.setLong(++i, accountId);
+            i = cursor.set(pstmt, ++i);
+            i = DbUtils.setLimits(i, pstmt, 0, limit - 1);
+            DbUtils.setLimits(i, pstmt, 0, limit - 1);
+            return tradeTable.getManyBy(con, pstmt, false);
+        } catch (SQLException e) {
+            DbUtils.close(con);
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
     public static DbIterator<Trade> getAccountAssetTrades(long accountId, long assetId, int from, int to) {
         Connection con = null;
         try {
@@ -105,6 +143,34 @@ public final class Trade {
         }
     }
 
+    public static DbIterator<Trade> getAccountAssetTrades(long accountId, long assetId, DbCursor cursor, int limit) {
+        Connection con = null;
+        try {
+            con = Db.db.getConnection();
+            String limitsClause = DbUtils.limitsClause(0, limit - 1);
+            PreparedStatement pstmt = con.prepareStatement("(SELECT * FROM trade WHERE seller_id = ? AND asset_id = ? AND"
+                    + cursor.getClause() + DbCursor.orderBy("seller_id") + limitsClause + ")"
+                    + " UNION ALL (SELECT * FROM trade WHERE buyer_id = ? AND seller_id <> ? AND asset_id = ? AND"
+                    + cursor.getClause() + DbCursor.orderBy("buyer_id") + limitsClause + ")"
+                    + DbCursor.ORDER_BY + limitsClause);
+            int i = 0;
+            pstmt.setLong(++i, accountId);
+            pstmt.setLong(++i, assetId);
+            i = cursor.set(pstmt, ++i);
+            i = DbUtils.setLimits(i, pstmt, 0, limit - 1);
+            pstmt.setLong(i, accountId);
+            pstmt.setLong(++i, accountId);
+            pstmt.setLong(++i, assetId);
+            i = cursor.set(pstmt, ++i);
+            i = DbUtils.setLimits(i, pstmt, 0, limit - 1);
+            DbUtils.setLimits(i, pstmt, 0, limit - 1);
+            return tradeTable.getManyBy(con, pstmt, false);
+        } catch (SQLException e) {
+            DbUtils.close(con);
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
     public static int getTradeCount(long assetId) {
         return tradeTable.getCount(new DbClause.LongClause("asset_id", assetId));
     }
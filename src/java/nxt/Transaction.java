@@ -1,6 +1,7 @@
 package nxt;
 
 import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
 
 import java.util.List;
 
@@ -78,12 +79,16 @@ public interface Transaction {
 
     byte[] getBytes();
 
+    byte[] getPreparedBytes(); //cached getBytes(), shared, must not be modified
+
     int getSize();
 
     byte[] getUnsignedBytes();
 
     JSONObject getJSONObject();
 
+    JSONStreamAware getPreparedJSON(); //cached getJSONObject()
+
     byte getVersion();
 
     Appendix.Message getMessage();
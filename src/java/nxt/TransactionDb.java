@@ -11,7 +11,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 final class TransactionDb {
 
@@ -61,6 +64,29 @@ final class TransactionDb {
         }
     }
 
+    /*
+     * The ids, among the given ones, of the transactions in the blockchain, found with a single index lookup query.
+     */
+    static Set<Long> getTransactionIds(Collection<Long> transactionIds) {
+        Set<Long> result = new HashSet<>();
+        if (transactionIds.isEmpty()) {
+            return result;
+        }
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id FROM transaction WHERE id IN "
+                     + "(SELECT id FROM TABLE(id BIGINT = ?))")) {
+            pstmt.setObject(1, transactionIds.toArray(new Long[transactionIds.size()]));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(rs.getLong("id"));
+                }
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
     static boolean hasTransactionByFullHash(String fullHash) {
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT 1 FROM transaction WHERE full_hash = ?")) {
@@ -3,8 +3,10 @@ package nxt;
 import nxt.crypto.Crypto;
 import nxt.db.DbKey;
 import nxt.util.Convert;
+import nxt.util.JSON;
 import nxt.util.Logger;
 import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
@@ -218,6 +220,9 @@ final class TransactionImpl implements Transaction {
     private volatile long senderId;
     private volatile String fullHash;
     private volatile DbKey dbKey;
+    private volatile boolean hasValidSignature = false;
+    private volatile byte[] bytes;
+    private volatile JSONStreamAware preparedJSON;
 
     private TransactionImpl(BuilderImpl builder) throws NxtException.NotValidException {
 
@@ -439,7 +444,7 @@ final class TransactionImpl implements Transaction {
                 digest.update(data);
                 hash = digest.digest(signatureHash);
             } else {
-                hash = Crypto.sha256().digest(getBytes());
+                hash = Crypto.sha256().digest(bytes());
             }
             BigInteger bigInteger = new BigInteger(1, new byte[] {hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]});
             id = bigInteger.longValue();
@@ -504,6 +509,30 @@ final class TransactionImpl implements Transaction {
 
     @Override
     public byte[] getBytes() {
+        return bytes().clone();
+    }
+
+    @Override
+    public byte[] getPreparedBytes() {
+        return bytes();
+    }
+
+    /*
+     * The serialized forms are cached once the transaction is signed and can no longer change.
+     * The returned array is shared and must not be modified.
+     */
+    byte[] bytes() {
+        byte[] bytes = this.bytes;
+        if (bytes == null) {
+            bytes = serializeBytes();
+            if (signature != null) {
+                this.bytes = bytes;
+            }
+        }
+        return bytes;
+    }
+
+    private byte[] serializeBytes() {
         try {
             ByteBuffer buffer = ByteBuffer.allocate(getSize());
             buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -659,6 +688,18 @@ final class TransactionImpl implements Transaction {
         return json;
     }
 
+    @Override
+    public JSONStreamAware getPreparedJSON() {
+        JSONStreamAware json = preparedJSON;
+        if (json == null) {
+            json = JSON.prepare(getJSONObject());
+            if (signature != null) {
+                preparedJSON = json;
+            }
+        }
+        return json;
+    }
+
     static TransactionImpl parseTransaction(JSONObject transactionData) throws NxtException.NotValidException {
         try {
             byte type = ((Number) transactionData.get("type")).byteValue();
@@ -743,11 +784,19 @@ final class TransactionImpl implements Transaction {
         if (account == null) {
             return false;
         }
-        if (signature == null) {
-            return false;
+        return checkSignature() && account.setOrVerify(senderPublicKey, this.getHeight());
+    }
+
+    // the state independent part of verifySignature(), a positive result is remembered
+    boolean checkSignature() {
+        if (!hasValidSignature) {
+            if (signature == null) {
+                return false;
+            }
+            byte[] data = zeroSignature(getBytes());
+            hasValidSignature = Crypto.verify(signature, data, senderPublicKey, useNQT());
         }
-        byte[] data = zeroSignature(getBytes());
-        return Crypto.verify(signature, data, senderPublicKey, useNQT()) && account.setOrVerify(senderPublicKey, this.getHeight());
+        return hasValidSignature;
     }
 
     public int getSize() {
@@ -1,6 +1,6 @@
 package nxt;
 
-import nxt.db.DbIterator;
+import nxt.peer.Peer;
 import nxt.util.Observable;
 import org.json.simple.JSONObject;
 
@@ -14,7 +14,9 @@ public interface TransactionProcessor extends Observable<List<? extends Transact
         ADDED_CONFIRMED_TRANSACTIONS
     }
 
-    DbIterator<? extends Transaction> getAllUnconfirmedTransactions();
+    List<? extends Transaction> getAllUnconfirmedTransactions();
+
+    List<? extends Transaction> getUnconfirmedTransactions(long accountId);
 
     Transaction getUnconfirmedTransaction(long transactionId);
 
@@ -22,7 +24,11 @@ public interface TransactionProcessor extends Observable<List<? extends Transact
 
     void broadcast(Transaction transaction) throws NxtException.ValidationException;
 
-    void processPeerTransactions(JSONObject request) throws NxtException.ValidationException;
+    void processPeerTransactions(JSONObject request, Peer peer) throws NxtException.ValidationException;
+
+    void processPeerTransactions(List<byte[]> transactionsBytes, Peer peer) throws NxtException.ValidationException;
+
+    void processPeerTransactionInventory(List<Long> transactionIds, Peer peer) throws NxtException.ValidationException;
 
     Transaction parseTransaction(byte[] bytes) throws NxtException.ValidationException;
 
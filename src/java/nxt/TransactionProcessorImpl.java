@@ -1,9 +1,9 @@
 package nxt;
 
-import nxt.db.DbClause;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.EntityDbTable;
+import nxt.peer.BinaryProtocol;
 import nxt.peer.Peer;
 import nxt.peer.Peers;
 import nxt.util.Convert;
@@ -16,6 +16,7 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -25,7 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,13 +43,11 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-import nxt.util.Filter;
-import nxt.db.FilteringIterator;
-
 final class TransactionProcessorImpl implements TransactionProcessor {
 
     private static final boolean enableTransactionRebroadcasting = Nxt.getBooleanProperty("nxt.enableTransactionRebroadcasting");
     private static final boolean testUnconfirmedTransactions = Nxt.getBooleanProperty("nxt.testUnconfirmedTransactions");
+    private static final int maxUnconfirmedTransactionsSize = Nxt.getIntProperty("nxt.maxUnconfirmedTransactionsSize");
 
     private static final TransactionProcessorImpl instance = new TransactionProcessorImpl();
 
@@ -81,11 +80,14 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         @Override
         public void rollback(int height) {
             try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM unconfirmed_transaction WHERE height > ?")) {
+                 PreparedStatement pstmt = con.prepareStatement("SELECT id FROM unconfirmed_transaction WHERE height > ?")) {
                 pstmt.setInt(1, height);
                 try (ResultSet rs = pstmt.executeQuery()) {
                     while (rs.next()) {
-                        lostTransactions.add(load(con, rs));
+                        UnconfirmedTransaction unconfirmedTransaction = unconfirmedTransactionPool.remove(rs.getLong("id"));
+                        if (unconfirmedTransaction != null) {
+                            lostTransactions.add(unconfirmedTransaction);
+                        }
                     }
                 }
             } catch (SQLException e) {
@@ -100,8 +102,17 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             return " ORDER BY transaction_height ASC, fee_per_byte DESC, arrival_timestamp ASC, id ASC ";
         }
 
+        @Override
+        public boolean isSnapshotted() {
+            return false;
+        }
+
     };
 
+    private final UnconfirmedTransactionPool unconfirmedTransactionPool = new UnconfirmedTransactionPool(maxUnconfirmedTransactionsSize);
+    private final SeenTransactionFilter seenTransactions = new SeenTransactionFilter();
+    private final Set<Long> requestedTransactionIds = Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>());
+    private final Set<Peer> fetchingPeers = Collections.newSetFromMap(new ConcurrentHashMap<Peer,Boolean>());
     private final Set<TransactionImpl> broadcastedTransactions = Collections.newSetFromMap(new ConcurrentHashMap<TransactionImpl,Boolean>());
     private final Listeners<List<? extends Transaction>,Event> transactionListeners = new Listeners<>();
     private final Set<UnconfirmedTransaction> lostTransactions = new HashSet<>();
@@ -110,25 +121,12 @@ final class TransactionProcessorImpl implements TransactionProcessor {
 
     private final Runnable removeUnconfirmedTransactionsThread = new Runnable() {
 
-        private final DbClause expiredClause = new DbClause(" expiration < ? ") {
-            @Override
-            protected int set(PreparedStatement pstmt, int index) throws SQLException {
-                pstmt.setInt(index, Nxt.getEpochTime());
-                return index + 1;
-            }
-        };
-
         @Override
         public void run() {
 
             try {
                 try {
-                    List<UnconfirmedTransaction> expiredTransactions = new ArrayList<>();
-                    try (DbIterator<UnconfirmedTransaction> iterator = unconfirmedTransactionTable.getManyBy(expiredClause, 0, -1, "")) {
-                        while (iterator.hasNext()) {
-                            expiredTransactions.add(iterator.next());
-                        }
-                    }
+                    List<UnconfirmedTransaction> expiredTransactions = unconfirmedTransactionPool.getExpired(Nxt.getEpochTime());
                     if (expiredTransactions.size() > 0) {
                         synchronized (BlockchainImpl.getInstance()) {
                             try {
@@ -177,7 +175,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     }
 
                     if (transactionList.size() > 0) {
-                        Peers.sendToSomePeers(transactionList);
+                        Peers.sendToSomePeers(transactionList, true);
                     }
 
                 } catch (Exception e) {
@@ -202,6 +200,13 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             getUnconfirmedTransactionsRequest = JSON.prepareRequest(request);
         }
 
+        private final JSONStreamAware getUnconfirmedTransactionIdsRequest;
+        {
+            JSONObject request = new JSONObject();
+            request.put("requestType", "getUnconfirmedTransactionIds");
+            getUnconfirmedTransactionIdsRequest = JSON.prepareRequest(request);
+        }
+
         @Override
         public void run() {
             try {
@@ -211,6 +216,41 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     if (peer == null) {
                         return;
                     }
+                    if (peer.isTransactionInventorySupported()) {
+                        List<Long> transactionIds;
+                        try {
+                            if (peer.isBinaryProtocolSupported()) {
+                                ByteBuffer response = peer.sendBinary("getUnconfirmedTransactionIds", new byte[0]);
+                                if (response == null) {
+                                    return;
+                                }
+                                transactionIds = BinaryProtocol.parseIds(response);
+                            } else {
+                                JSONObject response = peer.send(getUnconfirmedTransactionIdsRequest);
+                                if (response == null || response.get("unconfirmedTransactionIds") == null) {
+                                    return;
+                                }
+                                transactionIds = JSON.parseIdArray((JSONArray) response.get("unconfirmedTransactionIds"));
+                            }
+                            peer.addKnownTransactions(transactionIds);
+                            processPeerTransactionInventory(transactionIds, peer);
+                        } catch (NxtException.ValidationException|RuntimeException e) {
+                            peer.blacklist(e);
+                        }
+                        return;
+                    }
+                    if (peer.isBinaryProtocolSupported()) {
+                        ByteBuffer response = peer.sendBinary("getUnconfirmedTransactions", new byte[0]);
+                        if (response == null) {
+                            return;
+                        }
+                        try {
+                            processPeerTransactions(BinaryProtocol.parseByteArrays(response), peer);
+                        } catch (NxtException.ValidationException|RuntimeException e) {
+                            peer.blacklist(e);
+                        }
+                        return;
+                    }
                     JSONObject response = peer.send(getUnconfirmedTransactionsRequest);
                     if (response == null) {
                         return;
@@ -220,7 +260,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                         return;
                     }
                     try {
-                        processPeerTransactions(transactionsData);
+                        processPeerTransactionsData(transactionsData, peer);
                     } catch (NxtException.ValidationException|RuntimeException e) {
                         peer.blacklist(e);
                     }
@@ -237,19 +277,22 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     };
 
     private TransactionProcessorImpl() {
+        try (DbIterator<UnconfirmedTransaction> unconfirmedTransactions = unconfirmedTransactionTable.getAll(0, -1)) {
+            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
+                unconfirmedTransactionPool.add(unconfirmedTransaction);
+            }
+        }
         ThreadPool.scheduleThread("ProcessTransactions", processTransactionsThread, 5);
         ThreadPool.scheduleThread("RemoveUnconfirmedTransactions", removeUnconfirmedTransactionsThread, 1);
         ThreadPool.runAfterStart(new Runnable() {
             @Override
             public void run() {
                 synchronized (BlockchainImpl.getInstance()) {
-                    try (DbIterator<UnconfirmedTransaction> oldNonBroadcastedTransactions = getAllUnconfirmedTransactions()) {
-                        for (UnconfirmedTransaction unconfirmedTransaction : oldNonBroadcastedTransactions) {
-                            if (unconfirmedTransaction.getTransaction().isUnconfirmedDuplicate(unconfirmedDuplicates)) {
-                                Logger.logDebugMessage("Skipping duplicate unconfirmed transaction " + unconfirmedTransaction.getTransaction().getJSONObject().toString());
-                            } else if (enableTransactionRebroadcasting) {
-                                broadcastedTransactions.add(unconfirmedTransaction.getTransaction());
-                            }
+                    for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.getAll()) {
+                        if (unconfirmedTransaction.getTransaction().isUnconfirmedDuplicate(unconfirmedDuplicates)) {
+                            Logger.logDebugMessage("Skipping duplicate unconfirmed transaction " + unconfirmedTransaction.getTransaction().getJSONObject().toString());
+                        } else if (enableTransactionRebroadcasting) {
+                            broadcastedTransactions.add(unconfirmedTransaction.getTransaction());
                         }
                     }
                 }
@@ -275,13 +318,18 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     }
 
     @Override
-    public DbIterator<UnconfirmedTransaction> getAllUnconfirmedTransactions() {
-        return unconfirmedTransactionTable.getAll(0, -1);
+    public List<UnconfirmedTransaction> getAllUnconfirmedTransactions() {
+        return unconfirmedTransactionPool.getAll();
+    }
+
+    @Override
+    public List<UnconfirmedTransaction> getUnconfirmedTransactions(long accountId) {
+        return unconfirmedTransactionPool.getAccountTransactions(accountId);
     }
 
     @Override
     public Transaction getUnconfirmedTransaction(long transactionId) {
-        return unconfirmedTransactionTable.get(unconfirmedTransactionDbKeyFactory.newKey(transactionId));
+        return unconfirmedTransactionPool.get(transactionId);
     }
 
     @Override
@@ -291,7 +339,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                 Logger.logMessage("Transaction " + transaction.getStringId() + " already in blockchain, will not broadcast again");
                 return;
             }
-            if (unconfirmedTransactionTable.get(((TransactionImpl) transaction).getDbKey()) != null) {
+            if (unconfirmedTransactionPool.get(transaction.getId()) != null) {
                 if (enableTransactionRebroadcasting) {
                     broadcastedTransactions.add((TransactionImpl) transaction);
                     Logger.logMessage("Transaction " + transaction.getStringId() + " already in unconfirmed pool, will re-broadcast");
@@ -314,9 +362,98 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     }
 
     @Override
-    public void processPeerTransactions(JSONObject request) throws NxtException.ValidationException {
+    public void processPeerTransactions(JSONObject request, Peer peer) throws NxtException.ValidationException {
         JSONArray transactionsData = (JSONArray)request.get("transactions");
-        processPeerTransactions(transactionsData);
+        processPeerTransactionsData(transactionsData, peer);
+    }
+
+    @Override
+    public void processPeerTransactions(List<byte[]> transactionsBytes, Peer peer) throws NxtException.ValidationException {
+        if (!isAcceptingPeerTransactions() || transactionsBytes.isEmpty()) {
+            return;
+        }
+        List<TransactionImpl> receivedTransactions = new ArrayList<>();
+        boolean invalidTransactionsFound = false;
+        int duplicates = 0;
+        for (byte[] transactionBytes : transactionsBytes) {
+            if (seenTransactions.contains(SeenTransactionFilter.getSignature(transactionBytes))) {
+                duplicates += 1;
+                continue;
+            }
+            try {
+                receivedTransactions.add(TransactionImpl.parseTransaction(transactionBytes));
+            } catch (NxtException.ValidationException|RuntimeException e) {
+                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", Convert.toHexString(transactionBytes)), e);
+                invalidTransactionsFound = true;
+            }
+        }
+        peer.updateTransactionCounts(transactionsBytes.size(), duplicates);
+        processReceivedTransactions(receivedTransactions, invalidTransactionsFound);
+    }
+
+    /*
+     * Requests from the peer the transactions of its inventory that are not in the unconfirmed pool or the blockchain,
+     * and not being requested from another peer already. An inventory received while still fetching from that peer
+     * is dropped, its transactions are found again by polling.
+     */
+    @Override
+    public void processPeerTransactionInventory(List<Long> transactionIds, Peer peer) throws NxtException.ValidationException {
+        if (transactionIds.size() > Peers.MAX_TRANSACTION_INVENTORY) {
+            throw new NxtException.NotValidException("Transaction inventory of " + transactionIds.size() + " ids exceeds "
+                    + Peers.MAX_TRANSACTION_INVENTORY);
+        }
+        if (!isAcceptingPeerTransactions() || transactionIds.isEmpty()) {
+            return;
+        }
+        if (!fetchingPeers.add(peer)) {
+            return;
+        }
+        try {
+            fetchPeerTransactions(transactionIds, peer);
+        } finally {
+            fetchingPeers.remove(peer);
+        }
+    }
+
+    private void fetchPeerTransactions(List<Long> transactionIds, Peer peer) throws NxtException.ValidationException {
+        List<Long> missingTransactionIds = new ArrayList<>();
+        for (Long transactionId : transactionIds) {
+            UnconfirmedTransaction unconfirmedTransaction = unconfirmedTransactionPool.get(transactionId);
+            if (unconfirmedTransaction != null) {
+                // the peer has it, no need to keep re-broadcasting it
+                broadcastedTransactions.remove(unconfirmedTransaction.getTransaction());
+            } else if (requestedTransactionIds.add(transactionId)) {
+                missingTransactionIds.add(transactionId);
+            }
+        }
+        if (missingTransactionIds.isEmpty()) {
+            return;
+        }
+        try {
+            List<Long> requestIds = new ArrayList<>(missingTransactionIds);
+            requestIds.removeAll(TransactionDb.getTransactionIds(missingTransactionIds));
+            for (int i = 0; i < requestIds.size(); i += Peers.MAX_REQUESTED_TRANSACTIONS) {
+                List<Long> ids = requestIds.subList(i, Math.min(i + Peers.MAX_REQUESTED_TRANSACTIONS, requestIds.size()));
+                if (peer.isBinaryProtocolSupported()) {
+                    ByteBuffer response = peer.sendBinary("getUnconfirmedTransactions", BinaryProtocol.toIdBytes(ids));
+                    if (response == null) {
+                        return;
+                    }
+                    processPeerTransactions(BinaryProtocol.parseByteArrays(response), peer);
+                } else {
+                    JSONObject request = new JSONObject();
+                    request.put("requestType", "getUnconfirmedTransactions");
+                    request.put("transactionIds", JSON.toIdArray(ids));
+                    JSONObject response = peer.send(JSON.prepareRequest(request));
+                    if (response == null) {
+                        return;
+                    }
+                    processPeerTransactionsData((JSONArray) response.get("unconfirmedTransactions"), peer);
+                }
+            }
+        } finally {
+            requestedTransactionIds.removeAll(missingTransactionIds);
+        }
     }
 
     @Override
@@ -335,11 +472,9 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             List<Transaction> removed = new ArrayList<>();
             try {
                 Db.db.beginTransaction();
-                try (DbIterator<UnconfirmedTransaction> unconfirmedTransactions = getAllUnconfirmedTransactions()) {
-                    for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
-                        unconfirmedTransaction.getTransaction().undoUnconfirmed();
-                        removed.add(unconfirmedTransaction.getTransaction());
-                    }
+                for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.clear()) {
+                    unconfirmedTransaction.getTransaction().undoUnconfirmed();
+                    removed.add(unconfirmedTransaction.getTransaction());
                 }
                 unconfirmedTransactionTable.truncate();
                 Db.db.commitTransaction();
@@ -351,18 +486,17 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                 Db.db.endTransaction();
             }
             unconfirmedDuplicates.clear();
+            seenTransactions.clear();
             transactionListeners.notify(removed, Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
         }
     }
 
     void requeueAllUnconfirmedTransactions() {
         List<Transaction> removed = new ArrayList<>();
-        try (DbIterator<UnconfirmedTransaction> unconfirmedTransactions = getAllUnconfirmedTransactions()) {
-            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
-                unconfirmedTransaction.getTransaction().undoUnconfirmed();
-                removed.add(unconfirmedTransaction.getTransaction());
-                lostTransactions.add(unconfirmedTransaction);
-            }
+        for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.clear()) {
+            unconfirmedTransaction.getTransaction().undoUnconfirmed();
+            removed.add(unconfirmedTransaction.getTransaction());
+            lostTransactions.add(unconfirmedTransaction);
         }
         unconfirmedTransactionTable.truncate();
         unconfirmedDuplicates.clear();
@@ -384,18 +518,19 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             }
             return;
         }
+        if (unconfirmedTransactionPool.remove(transaction.getId()) == null) {
+            return;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("DELETE FROM unconfirmed_transaction WHERE id = ?")) {
             pstmt.setLong(1, transaction.getId());
-            int deleted = pstmt.executeUpdate();
-            if (deleted > 0) {
-                transaction.undoUnconfirmed();
-                transactionListeners.notify(Collections.singletonList(transaction), Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
-            }
+            pstmt.executeUpdate();
         } catch (SQLException e) {
             Logger.logErrorMessage(e.toString(), e);
             throw new RuntimeException(e.toString(), e);
         }
+        transaction.undoUnconfirmed();
+        transactionListeners.notify(Collections.singletonList(transaction), Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
     }
 
     int getTransactionVersion(int previousBlockHeight) {
@@ -416,20 +551,32 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     private void processLostTransactions() {
         synchronized (BlockchainImpl.getInstance()) {
             if (lostTransactions.size() > 0) {
+                List<UnconfirmedTransaction> unconfirmedTransactions = new ArrayList<>(lostTransactions);
+                Map<UnconfirmedTransaction,NxtException.ValidationException> rejectedTransactions;
+                try {
+                    rejectedTransactions = processTransactions(unconfirmedTransactions);
+                } catch (RuntimeException e) {
+                    Logger.logDebugMessage("Error processing lost transactions, will process them one at a time", e);
+                    rejectedTransactions = new IdentityHashMap<>();
+                    for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
+                        try {
+                            processTransaction(unconfirmedTransaction);
+                        } catch (NxtException.ValidationException ve) {
+                            rejectedTransactions.put(unconfirmedTransaction, ve);
+                        } catch (RuntimeException re) {
+                            rejectedTransactions.put(unconfirmedTransaction, new NxtException.NotValidException(re.toString(), re));
+                        }
+                    }
+                }
                 List<Transaction> addedUnconfirmedTransactions = new ArrayList<>();
-                Iterator<UnconfirmedTransaction> iterator = lostTransactions.iterator();
-                while (iterator.hasNext()) {
-                    UnconfirmedTransaction unconfirmedTransaction = iterator.next();
-                    try {
-                        processTransaction(unconfirmedTransaction);
-                        iterator.remove();
+                int curTime = Nxt.getEpochTime();
+                for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
+                    NxtException.ValidationException e = rejectedTransactions.get(unconfirmedTransaction);
+                    if (e == null) {
+                        lostTransactions.remove(unconfirmedTransaction);
                         addedUnconfirmedTransactions.add(unconfirmedTransaction.getTransaction());
-                    } catch (NxtException.NotCurrentlyValidException ignore) {
-                        if (unconfirmedTransaction.getExpiration() < Nxt.getEpochTime()) {
-                            iterator.remove();
-                        }
-                    } catch (NxtException.ValidationException|RuntimeException e) {
-                        iterator.remove();
+                    } else if (!(e instanceof NxtException.NotCurrentlyValidException) || unconfirmedTransaction.getExpiration() < curTime) {
+                        lostTransactions.remove(unconfirmedTransaction);
                     }
                 }
                 if (addedUnconfirmedTransactions.size() > 0) {
@@ -439,31 +586,71 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         }
     }
 
-    private void processPeerTransactions(JSONArray transactionsData) throws NxtException.NotValidException {
+    private boolean isAcceptingPeerTransactions() {
         if (Nxt.getBlockchain().getLastBlock().getTimestamp() < Nxt.getEpochTime() - 60 * 1440 && ! testUnconfirmedTransactions) {
-            return;
+            return false;
         }
-        if (Nxt.getBlockchain().getHeight() <= Constants.NQT_BLOCK) {
+        return Nxt.getBlockchain().getHeight() > Constants.NQT_BLOCK;
+    }
+
+    private void processPeerTransactionsData(JSONArray transactionsData, Peer peer) throws NxtException.NotValidException {
+        if (!isAcceptingPeerTransactions()) {
             return;
         }
         if (transactionsData == null || transactionsData.isEmpty()) {
             return;
         }
-        long arrivalTimestamp = System.currentTimeMillis();
         List<TransactionImpl> receivedTransactions = new ArrayList<>();
-        List<TransactionImpl> sendToPeersTransactions = new ArrayList<>();
-        List<TransactionImpl> addedUnconfirmedTransactions = new ArrayList<>();
         boolean invalidTransactionsFound = false;
+        int duplicates = 0;
         for (Object transactionData : transactionsData) {
+            if (transactionData instanceof JSONObject
+                    && seenTransactions.contains(SeenTransactionFilter.getSignature(((JSONObject) transactionData).get("signature")))) {
+                duplicates += 1;
+                continue;
+            }
             try {
-                TransactionImpl transaction = parseTransaction((JSONObject) transactionData);
-                receivedTransactions.add(transaction);
-                if (TransactionDb.hasTransaction(transaction.getId()) || unconfirmedTransactionTable.get(transaction.getDbKey()) != null) {
+                receivedTransactions.add(parseTransaction((JSONObject) transactionData));
+            } catch (NxtException.ValidationException|RuntimeException e) {
+                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", ((JSONObject) transactionData).toJSONString()), e);
+                invalidTransactionsFound = true;
+            }
+        }
+        peer.updateTransactionCounts(transactionsData.size(), duplicates);
+        processReceivedTransactions(receivedTransactions, invalidTransactionsFound);
+    }
+
+    private void processReceivedTransactions(List<TransactionImpl> receivedTransactions, boolean invalidTransactionsFound)
+            throws NxtException.NotValidException {
+        long arrivalTimestamp = System.currentTimeMillis();
+        List<TransactionImpl> sendToPeersTransactions = new ArrayList<>();
+        List<TransactionImpl> addedUnconfirmedTransactions = new ArrayList<>();
+        SignatureVerifier.checkSignatures(receivedTransactions);
+        List<Long> transactionIds = new ArrayList<>(receivedTransactions.size());
+        for (TransactionImpl transaction : receivedTransactions) {
+            transactionIds.add(transaction.getId());
+        }
+        Set<Long> confirmedTransactionIds = TransactionDb.getTransactionIds(transactionIds);
+        List<UnconfirmedTransaction> unconfirmedTransactions = new ArrayList<>();
+        for (TransactionImpl transaction : receivedTransactions) {
+            try {
+                if (confirmedTransactionIds.contains(transaction.getId()) || unconfirmedTransactionPool.get(transaction.getId()) != null) {
+                    seenTransactions.add(transaction.getSignature());
                     continue;
                 }
                 transaction.validate();
-                UnconfirmedTransaction unconfirmedTransaction = new UnconfirmedTransaction(transaction, arrivalTimestamp);
-                processTransaction(unconfirmedTransaction);
+                unconfirmedTransactions.add(new UnconfirmedTransaction(transaction, arrivalTimestamp));
+            } catch (NxtException.NotCurrentlyValidException ignore) {
+            } catch (NxtException.ValidationException|RuntimeException e) {
+                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", transaction.getJSONObject().toJSONString()), e);
+                invalidTransactionsFound = true;
+            }
+        }
+        Map<UnconfirmedTransaction,NxtException.ValidationException> rejectedTransactions = processTransactions(unconfirmedTransactions);
+        for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
+            TransactionImpl transaction = unconfirmedTransaction.getTransaction();
+            NxtException.ValidationException e = rejectedTransactions.get(unconfirmedTransaction);
+            if (e == null) {
                 if (broadcastedTransactions.contains(transaction)) {
                     Logger.logDebugMessage("Received back transaction " + transaction.getStringId()
                             + " that we broadcasted, will not forward again to peers");
@@ -471,10 +658,9 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     sendToPeersTransactions.add(transaction);
                 }
                 addedUnconfirmedTransactions.add(transaction);
-
-            } catch (NxtException.NotCurrentlyValidException ignore) {
-            } catch (NxtException.ValidationException|RuntimeException e) {
-                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", ((JSONObject) transactionData).toJSONString()), e);
+                seenTransactions.add(transaction.getSignature());
+            } else if (!(e instanceof NxtException.NotCurrentlyValidException)) {
+                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", transaction.getJSONObject().toJSONString()), e);
                 invalidTransactionsFound = true;
             }
         }
@@ -493,13 +679,34 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     }
 
     private void processTransaction(UnconfirmedTransaction unconfirmedTransaction) throws NxtException.ValidationException {
-        TransactionImpl transaction = unconfirmedTransaction.getTransaction();
+        NxtException.ValidationException e = processTransactions(Collections.singletonList(unconfirmedTransaction)).get(unconfirmedTransaction);
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /*
+     * Admits a batch of transactions in a single database transaction and returns the rejected ones, with the reason.
+     * The checks that need no state are done before taking the blockchain lock, and which transactions are already
+     * in the blockchain is found with one query for the whole batch. A RuntimeException rolls back the whole batch,
+     * the unconfirmed pool and duplicates included.
+     */
+    private Map<UnconfirmedTransaction,NxtException.ValidationException> processTransactions(List<UnconfirmedTransaction> unconfirmedTransactions) {
+        Map<UnconfirmedTransaction,NxtException.ValidationException> rejectedTransactions = new IdentityHashMap<>();
+        List<UnconfirmedTransaction> checkedTransactions = new ArrayList<>(unconfirmedTransactions.size());
+        List<Long> transactionIds = new ArrayList<>(unconfirmedTransactions.size());
         int curTime = Nxt.getEpochTime();
-        if (transaction.getTimestamp() > curTime + 15 || transaction.getDeadline() > 1440 || transaction.getExpiration() < curTime) {
-            throw new NxtException.NotCurrentlyValidException("Invalid transaction timestamp");
+        for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
+            try {
+                checkTransaction(unconfirmedTransaction.getTransaction(), curTime);
+                checkedTransactions.add(unconfirmedTransaction);
+                transactionIds.add(unconfirmedTransaction.getId());
+            } catch (NxtException.ValidationException e) {
+                rejectedTransactions.put(unconfirmedTransaction, e);
+            }
         }
-        if (transaction.getVersion() < 1) {
-            throw new NxtException.NotValidException("Invalid transaction version");
+        if (checkedTransactions.isEmpty()) {
+            return rejectedTransactions;
         }
 
         synchronized (BlockchainImpl.getInstance()) {
@@ -510,36 +717,89 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     throw new NxtException.NotCurrentlyValidException("Blockchain not ready to accept transactions");
                 }*/
 
-                if (TransactionDb.hasTransaction(transaction.getId()) || unconfirmedTransactionTable.get(transaction.getDbKey()) != null) {
-                    throw new NxtException.NotCurrentlyValidException("Transaction already processed");
-                }
-
-                if (! transaction.verifySignature()) {
-                    if (Account.getAccount(transaction.getSenderId()) != null) {
-                        throw new NxtException.NotValidException("Transaction signature verification failed");
-                    } else {
-                        throw new NxtException.NotCurrentlyValidException("Unknown transaction sender");
+                Set<Long> confirmedTransactionIds = TransactionDb.getTransactionIds(transactionIds);
+                for (UnconfirmedTransaction unconfirmedTransaction : checkedTransactions) {
+                    try {
+                        if (confirmedTransactionIds.contains(unconfirmedTransaction.getId())
+                                || unconfirmedTransactionPool.get(unconfirmedTransaction.getId()) != null) {
+                            throw new NxtException.NotCurrentlyValidException("Transaction already processed");
+                        }
+                        addUnconfirmedTransaction(unconfirmedTransaction);
+                    } catch (NxtException.ValidationException e) {
+                        rejectedTransactions.put(unconfirmedTransaction, e);
                     }
                 }
 
-                if (! transaction.applyUnconfirmed()) {
-                    throw new NxtException.NotCurrentlyValidException("Double spending or insufficient balance");
-                }
-
-                if (transaction.isUnconfirmedDuplicate(unconfirmedDuplicates)) {
-                    throw new NxtException.NotCurrentlyValidException("Duplicate unconfirmed transaction");
-                }
-
-                unconfirmedTransactionTable.insert(unconfirmedTransaction);
-
                 Db.db.commitTransaction();
             } catch (Exception e) {
                 Db.db.rollbackTransaction();
+                rebuildUnconfirmedDuplicates();
                 throw e;
             } finally {
                 Db.db.endTransaction();
             }
         } // synchronized
+        return rejectedTransactions;
+    }
+
+    /*
+     * The pool is restored by the rollback, the duplicates recorded for the transactions it no longer has are not.
+     */
+    private void rebuildUnconfirmedDuplicates() {
+        unconfirmedDuplicates.clear();
+        for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.getAll()) {
+            unconfirmedTransaction.getTransaction().isUnconfirmedDuplicate(unconfirmedDuplicates);
+        }
+    }
+
+    private static void checkTransaction(TransactionImpl transaction, int curTime) throws NxtException.ValidationException {
+        if (transaction.getTimestamp() > curTime + 15 || transaction.getDeadline() > 1440 || transaction.getExpiration() < curTime) {
+            throw new NxtException.NotCurrentlyValidException("Invalid transaction timestamp");
+        }
+        if (transaction.getVersion() < 1) {
+            throw new NxtException.NotValidException("Invalid transaction version");
+        }
+        if (transaction.getSize() > Constants.MAX_PAYLOAD_LENGTH) {
+            throw new NxtException.NotCurrentlyValidException("Transaction larger than the maximum block payload");
+        }
+    }
+
+    /*
+     * Leaves the unconfirmed state as it was if the transaction is rejected.
+     */
+    private void addUnconfirmedTransaction(UnconfirmedTransaction unconfirmedTransaction) throws NxtException.ValidationException {
+        TransactionImpl transaction = unconfirmedTransaction.getTransaction();
+
+        List<UnconfirmedTransaction> evictedTransactions = unconfirmedTransactionPool.getEvicted(unconfirmedTransaction);
+        if (evictedTransactions == null) {
+            throw new NxtException.NotCurrentlyValidException("Unconfirmed transaction pool is full");
+        }
+
+        if (! transaction.verifySignature()) {
+            if (Account.getAccount(transaction.getSenderId()) != null) {
+                throw new NxtException.NotValidException("Transaction signature verification failed");
+            } else {
+                throw new NxtException.NotCurrentlyValidException("Unknown transaction sender");
+            }
+        }
+
+        if (! transaction.applyUnconfirmed()) {
+            throw new NxtException.NotCurrentlyValidException("Double spending or insufficient balance");
+        }
+
+        if (transaction.isUnconfirmedDuplicate(unconfirmedDuplicates)) {
+            transaction.undoUnconfirmed();
+            throw new NxtException.NotCurrentlyValidException("Duplicate unconfirmed transaction");
+        }
+
+        for (UnconfirmedTransaction evictedTransaction : evictedTransactions) {
+            Logger.logDebugMessage("Evicting unconfirmed transaction " + evictedTransaction.getStringId()
+                    + " for transaction " + transaction.getStringId());
+            removeUnconfirmedTransaction(evictedTransaction.getTransaction());
+        }
+
+        unconfirmedTransactionTable.insert(unconfirmedTransaction);
+        unconfirmedTransactionPool.add(unconfirmedTransaction);
     }
 
     private static final Comparator<UnconfirmedTransaction> transactionArrivalComparator = new Comparator<UnconfirmedTransaction>() {
@@ -568,14 +828,8 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     public SortedSet<UnconfirmedTransaction> assembleBlockTransactions() {
 
         List<UnconfirmedTransaction> orderedUnconfirmedTransactions = new ArrayList<>();
-        try (FilteringIterator<UnconfirmedTransaction> unconfirmedTransactions = new FilteringIterator<>(getAllUnconfirmedTransactions(),
-                new Filter<UnconfirmedTransaction>() {
-                    @Override
-                    public boolean ok(UnconfirmedTransaction transaction) {
-                        return hasAllReferencedTransactions(transaction, transaction.getTimestamp(), 0);
-                    }
-                })) {
-            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
+        for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.getAll()) {
+            if (hasAllReferencedTransactions(unconfirmedTransaction, unconfirmedTransaction.getTimestamp(), 0)) {
                 orderedUnconfirmedTransactions.add(unconfirmedTransaction);
             }
         }
@@ -1,6 +1,7 @@
 package nxt;
 
 import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -12,10 +13,15 @@ class UnconfirmedTransaction implements Transaction {
 
     private final TransactionImpl transaction;
     private final long arrivalTimestamp;
+    // fixed while in the unconfirmed pool, which is ordered by them
+    private final int transactionHeight;
+    private final long feePerByte;
 
     UnconfirmedTransaction(TransactionImpl transaction, long arrivalTimestamp) {
         this.transaction = transaction;
         this.arrivalTimestamp = arrivalTimestamp;
+        this.transactionHeight = transaction.getHeight();
+        this.feePerByte = transaction.getFeeNQT() / transaction.getSize();
     }
 
     UnconfirmedTransaction(ResultSet rs) throws SQLException {
@@ -24,6 +30,8 @@ class UnconfirmedTransaction implements Transaction {
             this.transaction = TransactionImpl.parseTransaction(transactionBytes);
             this.transaction.setHeight(rs.getInt("transaction_height"));
             this.arrivalTimestamp = rs.getLong("arrival_timestamp");
+            this.transactionHeight = transaction.getHeight();
+            this.feePerByte = transaction.getFeeNQT() / transaction.getSize();
         } catch (NxtException.ValidationException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -35,8 +43,8 @@ class UnconfirmedTransaction implements Transaction {
                 + "VALUES (?, ?, ?, ?, ?, ?, ?)")) {
             int i = 0;
             pstmt.setLong(++i, transaction.getId());
-            pstmt.setInt(++i, transaction.getHeight());
-            pstmt.setLong(++i, transaction.getFeeNQT() / transaction.getSize());
+            pstmt.setInt(++i, transactionHeight);
+            pstmt.setLong(++i, feePerByte);
             pstmt.setInt(++i, transaction.getExpiration());
             pstmt.setBytes(++i, transaction.getBytes());
             pstmt.setLong(++i, arrivalTimestamp);
@@ -53,6 +61,14 @@ class UnconfirmedTransaction implements Transaction {
         return arrivalTimestamp;
     }
 
+    int getTransactionHeight() {
+        return transactionHeight;
+    }
+
+    long getFeePerByte() {
+        return feePerByte;
+    }
+
     @Override
     public boolean equals(Object o) {
         return o instanceof UnconfirmedTransaction && transaction.equals(((UnconfirmedTransaction)o).getTransaction());
@@ -178,6 +194,11 @@ class UnconfirmedTransaction implements Transaction {
         return transaction.getBytes();
     }
 
+    @Override
+    public byte[] getPreparedBytes() {
+        return transaction.getPreparedBytes();
+    }
+
     @Override
     public int getSize() {
         return transaction.getSize();
@@ -193,6 +214,11 @@ class UnconfirmedTransaction implements Transaction {
         return transaction.getJSONObject();
     }
 
+    @Override
+    public JSONStreamAware getPreparedJSON() {
+        return transaction.getPreparedJSON();
+    }
+
     @Override
     public byte getVersion() {
         return transaction.getVersion();
@@ -0,0 +1,249 @@
+package nxt;
+
+import nxt.db.TransactionalDb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+ * The unconfirmed transactions, held in memory: by id, in priority order, by expiration and by account.
+ * The unconfirmed_transaction table is only written, as a journal to reload the pool from after a restart.
+ * Changes made in a database transaction are undone if it rolls back, as the unconfirmed balances they went
+ * with are, so the pool always matches the committed journal.
+ */
+final class UnconfirmedTransactionPool implements TransactionalDb.TransactionCallback {
+
+    /*
+     * The order of the former unconfirmed_transaction listings: transactions of popped off blocks first, then highest
+     * fee per byte, then earliest arrival. Transactions are evicted from the end, and a new one must come before it.
+     */
+    static final Comparator<UnconfirmedTransaction> priorityComparator = new Comparator<UnconfirmedTransaction>() {
+        @Override
+        public int compare(UnconfirmedTransaction o1, UnconfirmedTransaction o2) {
+            int result = Integer.compare(o1.getTransactionHeight(), o2.getTransactionHeight());
+            if (result != 0) {
+                return result;
+            }
+            result = Long.compare(o2.getFeePerByte(), o1.getFeePerByte());
+            if (result != 0) {
+                return result;
+            }
+            result = Long.compare(o1.getArrivalTimestamp(), o2.getArrivalTimestamp());
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(o1.getId(), o2.getId());
+        }
+    };
+
+    // a transaction expires at most 1440 minutes and 15 seconds after it is accepted, so within the wheel
+    private static final int SLOT_SECONDS = 60;
+    private static final int SLOTS = 1442;
+
+    private final long maxSize;
+    private final Map<Long,UnconfirmedTransaction> transactions = new HashMap<>();
+    private final TreeSet<UnconfirmedTransaction> priority = new TreeSet<>(priorityComparator);
+    private final Map<Long,Set<UnconfirmedTransaction>> accountTransactions = new HashMap<>();
+    private final List<Set<UnconfirmedTransaction>> expirationWheel = new ArrayList<>(SLOTS);
+    private int sweptMinute = -1;
+    private long size;
+    private boolean undoing;
+
+    private final ThreadLocal<List<Change>> changes = new ThreadLocal<List<Change>>() {
+        @Override
+        protected List<Change> initialValue() {
+            return new ArrayList<>();
+        }
+    };
+
+    UnconfirmedTransactionPool(long maxSize) {
+        this.maxSize = maxSize;
+        for (int i = 0; i < SLOTS; i++) {
+            expirationWheel.add(new HashSet<UnconfirmedTransaction>());
+        }
+    }
+
+    synchronized UnconfirmedTransaction get(long transactionId) {
+        return transactions.get(transactionId);
+    }
+
+    synchronized List<UnconfirmedTransaction> getAll() {
+        return new ArrayList<>(priority);
+    }
+
+    /*
+     * The transactions sent or received by the account.
+     */
+    synchronized List<UnconfirmedTransaction> getAccountTransactions(long accountId) {
+        Set<UnconfirmedTransaction> set = accountTransactions.get(accountId);
+        return set == null ? Collections.<UnconfirmedTransaction>emptyList() : new ArrayList<>(set);
+    }
+
+    synchronized int getCount() {
+        return transactions.size();
+    }
+
+    /*
+     * Total size in bytes of the transactions.
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    /*
+     * The lowest priority transactions to remove before the given one can be added without exceeding the maximum
+     * size, or null if it is itself of lower priority than those.
+     */
+    synchronized List<UnconfirmedTransaction> getEvicted(UnconfirmedTransaction unconfirmedTransaction) {
+        long excess = size + unconfirmedTransaction.getSize() - maxSize;
+        if (excess <= 0) {
+            return Collections.emptyList();
+        }
+        List<UnconfirmedTransaction> evicted = new ArrayList<>();
+        Iterator<UnconfirmedTransaction> iterator = priority.descendingIterator();
+        while (excess > 0) {
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            UnconfirmedTransaction lowest = iterator.next();
+            if (priorityComparator.compare(lowest, unconfirmedTransaction) < 0) {
+                return null;
+            }
+            evicted.add(lowest);
+            excess -= lowest.getSize();
+        }
+        return evicted;
+    }
+
+    /*
+     * The transactions expired at that epoch time, from the wheel slots of the minutes since the previous call.
+     * They are not removed here, the caller removes them as any other transaction.
+     */
+    synchronized List<UnconfirmedTransaction> getExpired(int epochTime) {
+        int minute = epochTime / SLOT_SECONDS;
+        if (sweptMinute < 0 || minute - sweptMinute >= SLOTS) {
+            sweptMinute = Math.max(minute - SLOTS + 1, 0);
+        }
+        List<UnconfirmedTransaction> expired = new ArrayList<>();
+        int pendingMinute = minute;
+        for (int i = sweptMinute; i <= minute; i++) {
+            for (UnconfirmedTransaction unconfirmedTransaction : expirationWheel.get(i % SLOTS)) {
+                if (unconfirmedTransaction.getExpiration() < epochTime) {
+                    expired.add(unconfirmedTransaction);
+                    pendingMinute = Math.min(pendingMinute, i);
+                }
+            }
+        }
+        sweptMinute = pendingMinute; // slots are swept again until their expired transactions have been removed
+        return expired;
+    }
+
+    synchronized void add(UnconfirmedTransaction unconfirmedTransaction) {
+        if (transactions.put(unconfirmedTransaction.getId(), unconfirmedTransaction) != null) {
+            throw new IllegalStateException("Transaction " + unconfirmedTransaction.getStringId() + " already in unconfirmed pool");
+        }
+        priority.add(unconfirmedTransaction);
+        addAccountTransaction(unconfirmedTransaction.getSenderId(), unconfirmedTransaction);
+        addAccountTransaction(unconfirmedTransaction.getRecipientId(), unconfirmedTransaction);
+        expirationWheel.get(unconfirmedTransaction.getExpiration() / SLOT_SECONDS % SLOTS).add(unconfirmedTransaction);
+        size += unconfirmedTransaction.getSize();
+        recordChange(true, unconfirmedTransaction);
+    }
+
+    synchronized UnconfirmedTransaction remove(long transactionId) {
+        UnconfirmedTransaction unconfirmedTransaction = transactions.remove(transactionId);
+        if (unconfirmedTransaction == null) {
+            return null;
+        }
+        priority.remove(unconfirmedTransaction);
+        removeAccountTransaction(unconfirmedTransaction.getSenderId(), unconfirmedTransaction);
+        removeAccountTransaction(unconfirmedTransaction.getRecipientId(), unconfirmedTransaction);
+        expirationWheel.get(unconfirmedTransaction.getExpiration() / SLOT_SECONDS % SLOTS).remove(unconfirmedTransaction);
+        size -= unconfirmedTransaction.getSize();
+        recordChange(false, unconfirmedTransaction);
+        return unconfirmedTransaction;
+    }
+
+    /*
+     * Removes all the transactions and returns them in priority order.
+     */
+    synchronized List<UnconfirmedTransaction> clear() {
+        List<UnconfirmedTransaction> removed = getAll();
+        for (UnconfirmedTransaction unconfirmedTransaction : removed) {
+            remove(unconfirmedTransaction.getId());
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void commit() {
+        changes.get().clear();
+    }
+
+    @Override
+    public synchronized void rollback() {
+        List<Change> list = changes.get();
+        undoing = true;
+        try {
+            for (int i = list.size() - 1; i >= 0; i--) {
+                Change change = list.get(i);
+                if (change.added) {
+                    remove(change.unconfirmedTransaction.getId());
+                } else {
+                    add(change.unconfirmedTransaction);
+                }
+            }
+        } finally {
+            undoing = false;
+            list.clear();
+        }
+    }
+
+    private void recordChange(boolean added, UnconfirmedTransaction unconfirmedTransaction) {
+        if (undoing || !Db.db.isInTransaction()) {
+            return;
+        }
+        List<Change> list = changes.get();
+        if (list.isEmpty()) {
+            Db.db.registerCallback(this);
+        }
+        list.add(new Change(added, unconfirmedTransaction));
+    }
+
+    private void addAccountTransaction(long accountId, UnconfirmedTransaction unconfirmedTransaction) {
+        Set<UnconfirmedTransaction> set = accountTransactions.get(accountId);
+        if (set == null) {
+            set = new TreeSet<>(priorityComparator);
+            accountTransactions.put(accountId, set);
+        }
+        set.add(unconfirmedTransaction);
+    }
+
+    private void removeAccountTransaction(long accountId, UnconfirmedTransaction unconfirmedTransaction) {
+        Set<UnconfirmedTransaction> set = accountTransactions.get(accountId);
+        if (set != null && set.remove(unconfirmedTransaction) && set.isEmpty()) {
+            accountTransactions.remove(accountId);
+        }
+    }
+
+    private static final class Change {
+
+        private final boolean added;
+        private final UnconfirmedTransaction unconfirmedTransaction;
+
+        private Change(boolean added, UnconfirmedTransaction unconfirmedTransaction) {
+            this.added = added;
+            this.unconfirmedTransaction = unconfirmedTransaction;
+        }
+
+    }
+
+}
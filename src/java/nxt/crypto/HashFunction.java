@@ -1,7 +1,11 @@
 package nxt.crypto;
 
+import org.bouncycastle.crypto.digests.SHA3Digest;
 import org.bouncycastle.jcajce.provider.digest.SHA3;
 
+import java.security.DigestException;
+import java.security.MessageDigest;
+
 public enum HashFunction {
 
     /**
@@ -11,6 +15,15 @@ public enum HashFunction {
         public byte[] hash(byte[] input) {
             return Crypto.sha256().digest(input);
         }
+        public void hash(byte[] input, byte[] output) {
+            MessageDigest digest = threadLocalSha256.get();
+            digest.update(input);
+            try {
+                digest.digest(output, 0, 32);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     },
     /**
      * Use Bouncy Castle implementation of SHA3 (code 3)
@@ -19,6 +32,11 @@ public enum HashFunction {
         public byte[] hash(byte[] input) {
             return new SHA3.DigestSHA3(256).digest(input);
         }
+        public void hash(byte[] input, byte[] output) {
+            SHA3Digest digest = threadLocalSha3.get();
+            digest.update(input, 0, input.length);
+            digest.doFinal(output, 0);
+        }
     },
     /**
      * Use Java implementation of Scrypt
@@ -27,6 +45,9 @@ public enum HashFunction {
         public byte[] hash(byte[] input) {
             return threadLocalScrypt.get().hash(input);
         }
+        public void hash(byte[] input, byte[] output) {
+            System.arraycopy(threadLocalScrypt.get().hash(input), 0, output, 0, 32);
+        }
     },
     /**
      * Use proprietary NXT implementation of Keccak with 25 rounds (code 25)
@@ -35,6 +56,30 @@ public enum HashFunction {
         public byte[] hash(byte[] input) {
             return KNV25.hash(input);
         }
+        public void hash(byte[] input, byte[] output) {
+            KNV25.hash(input, threadLocalKNV25State.get(), output);
+        }
+    };
+
+    private static final ThreadLocal<MessageDigest> threadLocalSha256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return Crypto.sha256();
+        }
+    };
+
+    private static final ThreadLocal<SHA3Digest> threadLocalSha3 = new ThreadLocal<SHA3Digest>() {
+        @Override
+        protected SHA3Digest initialValue() {
+            return new SHA3Digest(256);
+        }
+    };
+
+    private static final ThreadLocal<long[]> threadLocalKNV25State = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[25];
+        }
     };
 
     private static final ThreadLocal<Scrypt> threadLocalScrypt = new ThreadLocal<Scrypt>() {
@@ -64,4 +109,10 @@ public enum HashFunction {
     }
 
     public abstract byte[] hash(byte[] input);
+
+    /**
+     * Hashes the input into the given 32 byte output, reusing hashing state owned by the calling thread,
+     * so that unlike {@link #hash(byte[])} it does not allocate per call.
+     */
+    public abstract void hash(byte[] input, byte[] output);
 }
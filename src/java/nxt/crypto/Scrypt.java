@@ -1,22 +1,17 @@
 package nxt.crypto;
 
-import javax.crypto.Mac;
-import javax.crypto.ShortBufferException;
-import javax.crypto.spec.SecretKeySpec;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.DigestException;
+import java.security.MessageDigest;
 
 @SuppressWarnings({"PointlessBitwiseExpression", "PointlessArithmeticExpression"})
 public class Scrypt {
 
-    private final Mac mac;
-    {
-        try {
-            mac = Mac.getInstance("HmacSHA256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException(e);
-        }
-    }
+    private static final int HMAC_BLOCK_LENGTH = 64;
+
+    // HMAC-SHA256 computed by hand on a reused digest, the JCE Mac would need a new key object for every input
+    private final MessageDigest digest = Crypto.sha256();
+    private final byte[] innerPad = new byte[HMAC_BLOCK_LENGTH];
+    private final byte[] outerPad = new byte[HMAC_BLOCK_LENGTH];
     private byte[] H = new byte[32];
     private byte[] B = new byte[128 + 4];
     private int[] X = new int[32];
@@ -25,22 +20,13 @@ public class Scrypt {
     public byte[] hash(final byte input[]) {
         int i, j, k;
         System.arraycopy(input, 0, B, 0, input.length);
-        try {
-            mac.init(new SecretKeySpec(B, 0, 40, "HmacSHA256"));
-        } catch (InvalidKeyException e) {
-            throw new IllegalStateException(e);
-        }
+        initHmac(B, 40);
         B[40] = 0;
         B[41] = 0;
         B[42] = 0;
         for (i = 0; i < 4; i++) {
             B[43] = (byte) (i + 1);
-            mac.update(B, 0, 44);
-            try {
-                mac.doFinal(H, 0);
-            } catch (ShortBufferException e) {
-                throw new IllegalStateException(e);
-            }
+            hmac(B, 44, H);
 
             for (j = 0; j < 8; j++) {
                 X[i * 8 + j] = (H[j * 4 + 0] & 0xff) << 0
@@ -71,14 +57,30 @@ public class Scrypt {
         }
 
         B[128 + 3] = 1;
-        mac.update(B, 0, 128 + 4);
+        hmac(B, 128 + 4, H);
+
+        return H;
+    }
+
+    private void initHmac(byte[] key, int keyLength) {
+        for (int i = 0; i < HMAC_BLOCK_LENGTH; i++) {
+            byte k = i < keyLength ? key[i] : 0;
+            innerPad[i] = (byte) (k ^ 0x36);
+            outerPad[i] = (byte) (k ^ 0x5c);
+        }
+    }
+
+    private void hmac(byte[] message, int length, byte[] output) {
         try {
-            mac.doFinal(H, 0);
-        } catch (ShortBufferException e) {
+            digest.update(innerPad);
+            digest.update(message, 0, length);
+            digest.digest(output, 0, 32);
+            digest.update(outerPad);
+            digest.update(output, 0, 32);
+            digest.digest(output, 0, 32);
+        } catch (DigestException e) {
             throw new IllegalStateException(e);
         }
-
-        return H;
     }
 
     private void xorSalsa8(int di, int xi) {
@@ -1,11 +1,13 @@
 package nxt.db;
 
 import nxt.util.Logger;
-import org.h2.jdbcx.JdbcConnectionPool;
+import nxt.util.ThreadPool;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
 
 public class BasicDb {
 
@@ -16,6 +18,11 @@ public class BasicDb {
         private int maxConnections;
         private int loginTimeout;
         private int defaultLockTimeout;
+        private int statementCacheSize;
+        private int maintenanceInterval;
+        private int analyzeMinRows;
+        private int analyzeRatio;
+        private int checkpointRows;
 
         public DbProperties maxCacheSize(int maxCacheSize) {
             this.maxCacheSize = maxCacheSize;
@@ -42,14 +49,44 @@ public class BasicDb {
             return this;
         }
 
+        public DbProperties statementCacheSize(int statementCacheSize) {
+            this.statementCacheSize = statementCacheSize;
+            return this;
+        }
+
+        public DbProperties maintenanceInterval(int maintenanceInterval) {
+            this.maintenanceInterval = maintenanceInterval;
+            return this;
+        }
+
+        public DbProperties analyzeMinRows(int analyzeMinRows) {
+            this.analyzeMinRows = analyzeMinRows;
+            return this;
+        }
+
+        public DbProperties analyzeRatio(int analyzeRatio) {
+            this.analyzeRatio = analyzeRatio;
+            return this;
+        }
+
+        public DbProperties checkpointRows(int checkpointRows) {
+            this.checkpointRows = checkpointRows;
+            return this;
+        }
+
     }
 
-    private JdbcConnectionPool cp;
-    private volatile int maxActiveConnections;
+    private ConnectionPool cp;
+    private DbMaintenance maintenance;
     private final String dbUrl;
     private final int maxConnections;
     private final int loginTimeout;
     private final int defaultLockTimeout;
+    private final int statementCacheSize;
+    private final int maintenanceInterval;
+    private final int analyzeMinRows;
+    private final int analyzeRatio;
+    private final int checkpointRows;
 
     public BasicDb(DbProperties dbProperties) {
         long maxCacheSize = dbProperties.maxCacheSize;
@@ -60,17 +97,23 @@ public class BasicDb {
         if (!dbUrl.contains("CACHE_SIZE=")) {
             dbUrl += ";CACHE_SIZE=" + maxCacheSize;
         }
+        if (dbProperties.maintenanceInterval > 0 && !dbUrl.contains("ANALYZE_AUTO=")) {
+            dbUrl += ";ANALYZE_AUTO=0"; // the maintenance thread analyzes the tables instead
+        }
         this.dbUrl = dbUrl;
         this.maxConnections = dbProperties.maxConnections;
         this.loginTimeout = dbProperties.loginTimeout;
         this.defaultLockTimeout = dbProperties.defaultLockTimeout;
+        this.statementCacheSize = dbProperties.statementCacheSize;
+        this.maintenanceInterval = dbProperties.maintenanceInterval;
+        this.analyzeMinRows = dbProperties.analyzeMinRows;
+        this.analyzeRatio = dbProperties.analyzeRatio;
+        this.checkpointRows = dbProperties.checkpointRows;
     }
 
     public void init(String username, String password, DbVersion dbVersion) {
         Logger.logDebugMessage("Database jdbc url set to: " + dbUrl);
-        cp = JdbcConnectionPool.create(dbUrl, username, password);
-        cp.setMaxConnections(maxConnections);
-        cp.setLoginTimeout(loginTimeout);
+        cp = new ConnectionPool(dbUrl, username, password, maxConnections, loginTimeout, statementCacheSize);
         try (Connection con = cp.getConnection();
              Statement stmt = con.createStatement()) {
             stmt.executeUpdate("SET DEFAULT_LOCK_TIMEOUT " + defaultLockTimeout);
@@ -78,11 +121,18 @@ public class BasicDb {
             throw new RuntimeException(e.toString(), e);
         }
         dbVersion.init(this);
+        if (maintenanceInterval > 0) {
+            maintenance = new DbMaintenance(this, maintenanceInterval, analyzeMinRows, analyzeRatio, checkpointRows);
+        }
     }
 
     public void shutdown() {
+        if (maintenance != null) {
+            maintenance.shutdown();
+        }
+        cp.shutdown();
         try {
-            Connection con = cp.getConnection();
+            Connection con = cp.getUnpooledConnection();
             Statement stmt = con.createStatement();
             stmt.execute("SHUTDOWN COMPACT");
             Logger.logShutdownMessage("Database shutdown completed");
@@ -91,8 +141,15 @@ public class BasicDb {
         }
     }
 
+    /*
+     * Without a maintenance thread the tables are analyzed right away, all of them, in the calling thread.
+     */
     public void analyzeTables() {
-        try (Connection con = cp.getConnection();
+        if (maintenance != null) {
+            maintenance.analyzeAll();
+            return;
+        }
+        try (Connection con = getPooledConnection();
              Statement stmt = con.createStatement()) {
             stmt.execute("ANALYZE SAMPLE_SIZE 0");
         } catch (SQLException e) {
@@ -100,20 +157,96 @@ public class BasicDb {
         }
     }
 
+    /*
+     * Rows inserted, updated or deleted in the table by the derived table write paths, which the maintenance thread
+     * adds to the change in its row count, see DbMaintenance.
+     */
+    void countChangedRows(String table, long rows) {
+        if (maintenance != null) {
+            maintenance.countChangedRows(table, rows);
+        }
+    }
+
+    /*
+     * Runs the task every delay seconds on the low priority maintenance thread, or schedules it with the other
+     * background jobs if there is no maintenance thread.
+     */
+    public void scheduleMaintenance(String name, Runnable task, int delay) {
+        if (maintenance != null) {
+            maintenance.schedule(name, task, delay);
+        } else {
+            ThreadPool.scheduleThread(name, task, delay);
+        }
+    }
+
+    /*
+     * Times of the maintenance tasks, see DbMaintenance.getTaskTimes, empty if there is no maintenance thread.
+     */
+    public Map<String,long[]> getMaintenanceTaskTimes() {
+        return maintenance != null ? maintenance.getTaskTimes() : Collections.<String,long[]>emptyMap();
+    }
+
+    public long getStatementCacheHits() {
+        return StatementCache.getHits();
+    }
+
+    public long getStatementCacheMisses() {
+        return StatementCache.getMisses();
+    }
+
+    public int getActiveConnections() {
+        return cp.getActiveConnections();
+    }
+
+    public int getIdleConnections() {
+        return cp.getIdleConnections();
+    }
+
+    public long getConnectionCheckouts() {
+        return cp.getCheckouts();
+    }
+
+    /*
+     * Checkouts that had to wait for a connection, and the milliseconds they waited in total and at most.
+     */
+    public long getConnectionWaits() {
+        return cp.getWaits();
+    }
+
+    public long getConnectionWaitTime() {
+        return cp.getWaitTime();
+    }
+
+    public long getMaxConnectionWaitTime() {
+        return cp.getMaxWaitTime();
+    }
+
+    /*
+     * Upper bounds in milliseconds of the checkout time histogram buckets, the last bucket having none.
+     */
+    public long[] getConnectionCheckoutTimeBuckets() {
+        return ConnectionPool.CHECKOUT_TIME_BUCKETS.clone();
+    }
+
+    public long[] getConnectionCheckoutTimes() {
+        return cp.getCheckoutTimes();
+    }
+
+    /*
+     * Connections that were garbage collected without having been closed.
+     */
+    public long getLeakedConnections() {
+        return cp.getLeaks();
+    }
+
     public Connection getConnection() throws SQLException {
         Connection con = getPooledConnection();
-        con.setAutoCommit(true);
+        con.setAutoCommit(true); // only toggled if the connection was left otherwise
         return con;
     }
 
     protected Connection getPooledConnection() throws SQLException {
-        Connection con = cp.getConnection();
-        int activeConnections = cp.getActiveConnections();
-        if (activeConnections > maxActiveConnections) {
-            maxActiveConnections = activeConnections;
-            Logger.logDebugMessage("Database connection pool current size: " + activeConnections);
-        }
-        return con;
+        return cp.getConnection();
     }
 
 }
@@ -0,0 +1,72 @@
+package nxt.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Lets unchanged save() methods write a batch of entities: statements with the same SQL are prepared once,
+ * and their executeUpdate() adds the current parameters to the batch, executed by executeBatches().
+ * Statements are closed by close() of this connection only, the underlying connection is left open.
+ */
+final class BatchingConnection extends FilteredConnection {
+
+    private final Map<String,BatchedStatement> statements = new LinkedHashMap<>();
+
+    BatchingConnection(Connection con) {
+        super(con);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        BatchedStatement pstmt = statements.get(sql);
+        if (pstmt == null) {
+            pstmt = new BatchedStatement(super.prepareStatement(sql));
+            statements.put(sql, pstmt);
+        }
+        return pstmt;
+    }
+
+    void executeBatches() throws SQLException {
+        for (BatchedStatement pstmt : statements.values()) {
+            pstmt.executeBatch();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        for (BatchedStatement pstmt : statements.values()) {
+            pstmt.closeStatement();
+        }
+        statements.clear();
+    }
+
+    private static final class BatchedStatement extends FilteredPreparedStatement {
+
+        private BatchedStatement(PreparedStatement stmt) {
+            super(stmt);
+        }
+
+        /*
+         * Nothing is written yet, so the update count is not known: save() methods must not depend on it.
+         */
+        @Override
+        public int executeUpdate() throws SQLException {
+            addBatch();
+            return Statement.SUCCESS_NO_INFO;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void closeStatement() throws SQLException {
+            super.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,273 @@
+package nxt.db;
+
+import nxt.util.Logger;
+import org.h2.jdbcx.JdbcDataSource;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Pool of H2 connections. A fair semaphore bounds the connections in use and queues the threads waiting for one
+ * in arrival order, idle connections are kept in a lock-free stack, most recently used first, together with their
+ * prepared statement cache and autocommit state, so that setting autocommit to what it already is costs nothing.
+ * A connection that is garbage collected without having been closed, typically by a DbIterator that was not
+ * iterated to the end nor closed, is counted as leaked and its physical connection is closed and replaced.
+ */
+final class ConnectionPool {
+
+    static final long[] CHECKOUT_TIME_BUCKETS = {1, 10, 100, 1000, 10000}; // milliseconds
+
+    private final JdbcDataSource dataSource;
+    private final int maxConnections;
+    private final int loginTimeout;
+    private final int statementCacheSize;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final ReferenceQueue<Handle> collectedHandles = new ReferenceQueue<>();
+    private final Set<HandleReference> checkedOut = Collections.newSetFromMap(new ConcurrentHashMap<HandleReference,Boolean>());
+    private volatile int maxActiveConnections;
+
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    private final AtomicLongArray checkoutTimes = new AtomicLongArray(CHECKOUT_TIME_BUCKETS.length + 1);
+    private final AtomicLong leaks = new AtomicLong();
+
+    ConnectionPool(String dbUrl, String username, String password, int maxConnections, int loginTimeout, int statementCacheSize) {
+        this.dataSource = new JdbcDataSource();
+        dataSource.setURL(dbUrl);
+        dataSource.setUser(username);
+        dataSource.setPassword(password);
+        this.maxConnections = maxConnections;
+        this.loginTimeout = loginTimeout;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    Connection getConnection() throws SQLException {
+        reclaimLeaked();
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                waits.incrementAndGet();
+                if (!permits.tryAcquire(loginTimeout, TimeUnit.SECONDS)) {
+                    throw new SQLException("Login timeout, all " + maxConnections + " database connections in use");
+                }
+                long waited = System.nanoTime() - start;
+                waitTime.addAndGet(waited);
+                long max;
+                while (waited > (max = maxWaitTime.get()) && !maxWaitTime.compareAndSet(max, waited));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection", e);
+        }
+        checkouts.incrementAndGet();
+        PooledConnection pooled = idleConnections.pollFirst();
+        if (pooled == null) {
+            try {
+                pooled = new PooledConnection(dataSource.getConnection());
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+        int activeConnections = maxConnections - permits.availablePermits();
+        if (activeConnections > maxActiveConnections) {
+            maxActiveConnections = activeConnections;
+            Logger.logDebugMessage("Database connection pool current size: " + activeConnections);
+        }
+        return pooled.checkOut();
+    }
+
+    /*
+     * A new connection outside of the pool, for the database shutdown.
+     */
+    Connection getUnpooledConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    void shutdown() {
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            pooled.close();
+        }
+    }
+
+    int getActiveConnections() {
+        return maxConnections - permits.availablePermits();
+    }
+
+    int getIdleConnections() {
+        return idleConnections.size();
+    }
+
+    long getCheckouts() {
+        return checkouts.get();
+    }
+
+    long getWaits() {
+        return waits.get();
+    }
+
+    long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+    }
+
+    /*
+     * Number of checkouts that lasted less than each of CHECKOUT_TIME_BUCKETS, the last element counts the longer ones.
+     */
+    long[] getCheckoutTimes() {
+        long[] counts = new long[checkoutTimes.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = checkoutTimes.get(i);
+        }
+        return counts;
+    }
+
+    long getLeaks() {
+        return leaks.get();
+    }
+
+    private void reclaimLeaked() {
+        HandleReference reference;
+        while ((reference = (HandleReference)collectedHandles.poll()) != null) {
+            if (checkedOut.remove(reference)) {
+                leaks.incrementAndGet();
+                Logger.logDebugMessage("Database connection checked out by thread " + reference.threadName + " "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - reference.checkoutTime)
+                        + " ms ago was never closed, an unclosed DbIterator?");
+                reference.pooled.close(); // its statements may still be marked in use
+                permits.release();
+            }
+        }
+    }
+
+    private void checkIn(HandleReference reference) {
+        checkedOut.remove(reference);
+        reference.clear();
+        long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - reference.checkoutTime);
+        int bucket = 0;
+        while (bucket < CHECKOUT_TIME_BUCKETS.length && time >= CHECKOUT_TIME_BUCKETS[bucket]) {
+            bucket += 1;
+        }
+        checkoutTimes.incrementAndGet(bucket);
+    }
+
+    private final class PooledConnection {
+
+        private final Connection con;
+        private final StatementCache statementCache;
+        private boolean autoCommit = true;
+
+        private PooledConnection(Connection con) {
+            this.con = con;
+            this.statementCache = statementCacheSize > 0 ? new StatementCache(con, statementCacheSize) : null;
+        }
+
+        private Connection checkOut() {
+            Handle handle = new Handle(this);
+            checkedOut.add(handle.reference);
+            return handle;
+        }
+
+        private void close() {
+            if (statementCache != null) {
+                statementCache.close();
+            }
+            DbUtils.close(con);
+        }
+
+    }
+
+    private static final class HandleReference extends WeakReference<Handle> {
+
+        private final PooledConnection pooled;
+        private final String threadName = Thread.currentThread().getName();
+        private final long checkoutTime = System.nanoTime();
+
+        private HandleReference(Handle handle, PooledConnection pooled, ReferenceQueue<Handle> queue) {
+            super(handle, queue);
+            this.pooled = pooled;
+        }
+
+    }
+
+    /*
+     * A checkout of a pooled connection, closing it more than once only returns the connection once.
+     */
+    private final class Handle extends FilteredConnection {
+
+        private final PooledConnection pooled;
+        private final HandleReference reference;
+        private boolean closed;
+
+        private Handle(PooledConnection pooled) {
+            super(pooled.con);
+            this.pooled = pooled;
+            this.reference = new HandleReference(this, pooled, collectedHandles);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            return pooled.statementCache != null ? pooled.statementCache.prepareStatement(sql) : super.prepareStatement(sql);
+        }
+
+        @Override
+        public void setAutoCommit(boolean autoCommit) throws SQLException {
+            if (autoCommit != pooled.autoCommit) {
+                super.setAutoCommit(autoCommit);
+                pooled.autoCommit = autoCommit;
+            }
+        }
+
+        @Override
+        public boolean getAutoCommit() throws SQLException {
+            return pooled.autoCommit;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            checkIn(reference);
+            try {
+                if (!pooled.autoCommit) {
+                    rollback();
+                    setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                pooled.close();
+                permits.release();
+                throw e;
+            }
+            idleConnections.offerFirst(pooled);
+            permits.release();
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return closed || super.isClosed();
+        }
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package nxt.db;
+
+import nxt.util.Convert;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/*
+ * Continuation point in a listing ordered by ORDER_BY, the height and db_id of the last row of the previous page.
+ * Seeking past it with getClause replaces LIMIT ... OFFSET paging, which reads and discards all the earlier rows,
+ * and unlike an offset it is not shifted by rows added at the top of the listing between two pages.
+ */
+public final class DbCursor {
+
+    public static final String ORDER_BY = " ORDER BY height DESC, db_id DESC ";
+
+    public static final DbCursor FIRST = new DbCursor(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private static final String CLAUSE = " height <= ? AND (height < ? OR db_id < ?) ";
+
+    /*
+     * H2 only reads the rows in index order up to the limit, rather than all the rows past the cursor to sort them,
+     * when the ORDER BY starts with the index columns the query sets equal, so a listing of the rows with a given
+     * column value orders by that column first, using an index on (column, height DESC, db_id DESC).
+     */
+    public static String orderBy(String column) {
+        return " ORDER BY " + column + ", height DESC, db_id DESC ";
+    }
+
+    /*
+     * The empty string is the start of the listing, otherwise the value returned by toString.
+     */
+    public static DbCursor parse(String cursor) {
+        if (cursor.isEmpty()) {
+            return FIRST;
+        }
+        if (cursor.length() != 24) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Convert.parseHexString(cursor));
+        return new DbCursor(buffer.getInt(), buffer.getLong());
+    }
+
+    private final int height;
+    private final long dbId;
+
+    DbCursor(int height, long dbId) {
+        this.height = height;
+        this.dbId = dbId;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getClause() {
+        return CLAUSE;
+    }
+
+    public int set(PreparedStatement pstmt, int index) throws SQLException {
+        pstmt.setInt(index++, height);
+        pstmt.setInt(index++, height);
+        pstmt.setLong(index++, dbId);
+        return index;
+    }
+
+    DbClause toDbClause() {
+        return new DbClause(CLAUSE) {
+            @Override
+            protected int set(PreparedStatement pstmt, int index) throws SQLException {
+                return DbCursor.this.set(pstmt, index);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return Convert.toHexString(ByteBuffer.allocate(12).putInt(height).putLong(dbId).array());
+    }
+
+}
@@ -3,6 +3,7 @@ package nxt.db;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -17,9 +18,13 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
     private final PreparedStatement pstmt;
     private final ResultSetReader<T> rsReader;
     private final ResultSet rs;
+    private final int heightColumn;
+    private final int dbIdColumn;
 
     private boolean hasNext;
     private boolean iterated;
+    private int lastHeight = -1;
+    private long lastDbId;
 
     public DbIterator(Connection con, PreparedStatement pstmt, ResultSetReader<T> rsReader) {
         this.con = con;
@@ -27,6 +32,19 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
         this.rsReader = rsReader;
         try {
             this.rs = pstmt.executeQuery();
+            int heightColumn = 0;
+            int dbIdColumn = 0;
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                String column = metaData.getColumnLabel(i);
+                if ("HEIGHT".equalsIgnoreCase(column)) {
+                    heightColumn = i;
+                } else if ("DB_ID".equalsIgnoreCase(column)) {
+                    dbIdColumn = i;
+                }
+            }
+            this.heightColumn = dbIdColumn > 0 ? heightColumn : 0;
+            this.dbIdColumn = heightColumn > 0 ? dbIdColumn : 0;
             this.hasNext = rs.next();
         } catch (SQLException e) {
             DbUtils.close(pstmt, con);
@@ -50,6 +68,10 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
         }
         try {
             T result = rsReader.get(con, rs);
+            if (heightColumn > 0) {
+                lastHeight = rs.getInt(heightColumn);
+                lastDbId = rs.getLong(dbIdColumn);
+            }
             hasNext = rs.next();
             return result;
         } catch (Exception e) {
@@ -58,6 +80,14 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
         }
     }
 
+    /*
+     * Position after the row last returned by next, for a query selecting the height and db_id columns
+     * and ordered by DbCursor.ORDER_BY, null if no row was returned yet.
+     */
+    public DbCursor getCursor() {
+        return lastHeight >= 0 ? new DbCursor(lastHeight, lastDbId) : null;
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException("Removal not supported");
@@ -0,0 +1,277 @@
+package nxt.db;
+
+import nxt.util.Logger;
+import nxt.util.ThreadPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Database upkeep on a single low priority thread, away from the threads processing blocks: the column statistics
+ * of a table are refreshed once analyzeRatio percent of its rows have changed since the last refresh, but no
+ * less than analyzeMinRows, a CHECKPOINT is made after every checkpointRows changed rows in all the tables, and other
+ * work such as trimming can be scheduled on the same thread. H2 would otherwise analyze a table, and checkpoint,
+ * in the middle of whichever statement crossed its own thresholds.
+ * The changed rows of a table in an interval are the rows the derived table write paths report inserting, updating
+ * and deleting, or the change in the row count H2 keeps for it if that is more, as for the tables that only grow.
+ */
+final class DbMaintenance {
+
+    private final BasicDb db;
+    private final int analyzeMinRows;
+    private final int analyzeRatio;
+    private final int checkpointRows;
+    private final ScheduledExecutorService executor;
+    private final Map<String,Task> tasks = Collections.synchronizedMap(new LinkedHashMap<String,Task>());
+    private final Task checkpoint = new Task("checkpoint", new Runnable() {
+        @Override
+        public void run() {
+            try (Connection con = db.getPooledConnection();
+                 Statement stmt = con.createStatement()) {
+                stmt.execute("CHECKPOINT");
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
+    });
+
+    // counted by the threads writing, taken by the maintenance thread every interval
+    private final ConcurrentMap<String,AtomicLong> writtenRows = new ConcurrentHashMap<>();
+
+    // accessed by the maintenance thread only
+    private final Map<String,TableRows> tableRows = new HashMap<>();
+    private long checkpointChangedRows;
+
+    private volatile boolean analyzeAll;
+
+    DbMaintenance(BasicDb db, int interval, int analyzeMinRows, int analyzeRatio, int checkpointRows) {
+        this.db = db;
+        this.analyzeMinRows = analyzeMinRows;
+        this.analyzeRatio = analyzeRatio;
+        this.checkpointRows = checkpointRows;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DbMaintenance");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        schedule("statistics", new Runnable() {
+            @Override
+            public void run() {
+                updateStatistics();
+            }
+        }, interval);
+        tasks.put(checkpoint.name, checkpoint); // run by the statistics task when due
+    }
+
+    void schedule(String name, Runnable runnable, int delay) {
+        Task task = new Task(name, runnable);
+        tasks.put(name, task);
+        executor.scheduleWithFixedDelay(task, delay, delay, TimeUnit.SECONDS);
+    }
+
+    /*
+     * Refreshes the statistics of all tables at the next interval, after most of their rows have been replaced
+     * without changing their counts much, as in a rescan.
+     */
+    void analyzeAll() {
+        analyzeAll = true;
+    }
+
+    void shutdown() {
+        ThreadPool.shutdownExecutor(executor);
+    }
+
+    void countChangedRows(String table, long rows) {
+        if (rows <= 0) {
+            return;
+        }
+        String key = table.toUpperCase();
+        AtomicLong count = writtenRows.get(key);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = writtenRows.putIfAbsent(key, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.addAndGet(rows);
+    }
+
+    /*
+     * For each task: the time it last ran, in milliseconds since the epoch, the milliseconds that took,
+     * the number of times it ran and the milliseconds it took in total.
+     */
+    Map<String,long[]> getTaskTimes() {
+        Map<String,long[]> taskTimes = new LinkedHashMap<>();
+        synchronized (tasks) {
+            for (Task task : tasks.values()) {
+                taskTimes.put(task.name, new long[] {task.lastRun, task.lastDuration, task.runs, task.totalDuration});
+            }
+        }
+        return taskTimes;
+    }
+
+    private void updateStatistics() {
+        long changedRows = 0;
+        try (Connection con = db.getPooledConnection()) {
+            List<String> analyze = new ArrayList<>();
+            boolean all = analyzeAll;
+            analyzeAll = false;
+            try (Statement stmt = con.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT table_name, row_count_estimate FROM information_schema.tables "
+                         + "WHERE table_schema = 'PUBLIC' AND table_type = 'TABLE'")) {
+                while (rs.next()) {
+                    String table = rs.getString("table_name");
+                    long rows = rs.getLong("row_count_estimate");
+                    AtomicLong written = writtenRows.get(table);
+                    long writtenCount = written == null ? 0 : written.getAndSet(0);
+                    TableRows counts = tableRows.get(table);
+                    if (counts == null) {
+                        tableRows.put(table, new TableRows(rows));
+                        continue;
+                    }
+                    long changed = Math.max(Math.abs(rows - counts.rows), writtenCount);
+                    counts.rows = rows;
+                    counts.changedRows += changed;
+                    changedRows += changed;
+                    if ((all && rows > 0) || counts.changedRows >= Math.max(analyzeMinRows, counts.analyzedRows * analyzeRatio / 100)) {
+                        analyze.add(table);
+                    }
+                }
+            }
+            for (String table : analyze) {
+                analyze(con, table);
+                TableRows counts = tableRows.get(table);
+                counts.analyzedRows = counts.rows;
+                counts.changedRows = 0;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        checkpointChangedRows += changedRows;
+        if (checkpointRows > 0 && checkpointChangedRows >= checkpointRows) {
+            checkpointChangedRows = 0;
+            checkpoint.run();
+        }
+    }
+
+    /*
+     * What ANALYZE does for every table: counts the distinct values of each column and stores them as the column
+     * selectivity, only the columns whose selectivity changed are altered though, each such change being a short
+     * exclusive lock on the table.
+     */
+    private void analyze(Connection con, String table) throws SQLException {
+        long start = System.currentTimeMillis();
+        List<String> columns = new ArrayList<>();
+        List<Integer> selectivities = new ArrayList<>();
+        try (PreparedStatement pstmt = con.prepareStatement("SELECT column_name, type_name, selectivity FROM information_schema.columns "
+                + "WHERE table_schema = 'PUBLIC' AND table_name = ? ORDER BY ordinal_position")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String type = rs.getString("type_name");
+                    if (!type.equals("ARRAY") && !type.equals("BLOB") && !type.equals("CLOB")) {
+                        columns.add(rs.getString("column_name"));
+                        selectivities.add(rs.getInt("selectivity"));
+                    }
+                }
+            }
+        }
+        if (columns.isEmpty()) {
+            return;
+        }
+        StringBuilder buf = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.size(); i++) {
+            buf.append(i > 0 ? ", " : "").append("SELECTIVITY(\"").append(columns.get(i)).append("\")");
+        }
+        buf.append(" FROM \"").append(table).append('"');
+        Map<String,Integer> changed = new LinkedHashMap<>();
+        try (Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery(buf.toString())) {
+            rs.next();
+            for (int i = 0; i < columns.size(); i++) {
+                int selectivity = rs.getInt(i + 1);
+                if (selectivity != 0 && selectivity != selectivities.get(i)) {
+                    changed.put(columns.get(i), selectivity);
+                }
+            }
+        }
+        for (Map.Entry<String,Integer> entry : changed.entrySet()) {
+            try (Statement stmt = con.createStatement()) {
+                stmt.executeUpdate("ALTER TABLE \"" + table + "\" ALTER COLUMN \"" + entry.getKey() + "\" SELECTIVITY " + entry.getValue());
+            }
+        }
+        Logger.logDebugMessage("Analyzed table " + table + " in " + (System.currentTimeMillis() - start) + " ms, "
+                + changed.size() + " column selectivities changed");
+    }
+
+    private static final class TableRows {
+
+        private long rows;
+        private long analyzedRows;
+        private long changedRows;
+
+        private TableRows(long rows) {
+            this.rows = rows;
+            this.analyzedRows = rows;
+        }
+
+    }
+
+    private static final class Task implements Runnable {
+
+        private final String name;
+        private final Runnable runnable;
+        private volatile long lastRun;
+        private volatile long lastDuration;
+        private volatile long runs;
+        private volatile long totalDuration;
+
+        private Task(String name, Runnable runnable) {
+            this.name = name;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long start = System.currentTimeMillis();
+                try {
+                    runnable.run();
+                } catch (Exception e) {
+                    Logger.logDebugMessage("Error in database maintenance task " + name, e);
+                }
+                lastRun = start;
+                lastDuration = System.currentTimeMillis() - start;
+                runs += 1;
+                totalDuration += lastDuration;
+            } catch (Throwable t) {
+                Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
+                t.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+    }
+
+}
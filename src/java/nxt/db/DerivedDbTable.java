@@ -13,9 +13,11 @@ public abstract class DerivedDbTable {
     protected static final TransactionalDb db = Db.db;
 
     protected final String table;
+    private final String rollbackSql;
 
     protected DerivedDbTable(String table) {
         this.table = table;
+        this.rollbackSql = "DELETE FROM " + table + " WHERE height > ?";
         Nxt.getBlockchainProcessor().registerDerivedTable(this);
     }
 
@@ -24,9 +26,9 @@ public abstract class DerivedDbTable {
             throw new IllegalStateException("Not in transaction");
         }
         try (Connection con = db.getConnection();
-             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + " WHERE height > ?")) {
+             PreparedStatement pstmtDelete = con.prepareStatement(rollbackSql)) {
             pstmtDelete.setInt(1, height);
-            pstmtDelete.executeUpdate();
+            db.countChangedRows(table, pstmtDelete.executeUpdate());
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -44,10 +46,35 @@ public abstract class DerivedDbTable {
         }
     }
 
-    public void trim(int height) {
+    /*
+     * Deletes what is no longer needed for rollbacks down to the height, called with increasing heights,
+     * what the blocks below fromHeight made obsolete having been deleted by the previous calls.
+     */
+    public void trim(int fromHeight, int height) {
         //nothing to trim
     }
 
+    /*
+     * Selects the columns of the rows the table had at the height, the ones a rollback to the height would leave,
+     * in insertion order, the table being aliased as a.
+     */
+    public PreparedStatement prepareSelectAtHeight(Connection con, String columns, int height) throws SQLException {
+        PreparedStatement pstmt = con.prepareStatement("SELECT " + columns + " FROM " + table + " AS a WHERE a.height <= ? ORDER BY a.db_id");
+        pstmt.setInt(1, height);
+        return pstmt;
+    }
+
+    /*
+     * Whether the rows only depend on the blockchain, and so are part of the snapshots of the derived tables.
+     */
+    public boolean isSnapshotted() {
+        return true;
+    }
+
+    public final String getTableName() {
+        return table;
+    }
+
     @Override
     public String toString() {
         return table;
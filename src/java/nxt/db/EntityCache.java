@@ -0,0 +1,98 @@
+package nxt.db;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Committed state of the most read entities of a table, shared by the readers outside of a transaction.
+ * Entities are mutable and the ones read in a transaction get modified before they are saved, so only entities
+ * loaded outside of a transaction are cached, and a write only invalidates its key, once more after the commit
+ * to drop entries a reader may have loaded in between. A load that raced with an invalidation is not cached.
+ */
+final class EntityCache<T> implements TransactionalDb.TransactionCallback {
+
+    private final TransactionalDb db;
+    private final int capacity;
+    private final ConcurrentHashMap<DbKey,T> entities = new ConcurrentHashMap<>();
+    private final ThreadLocal<Set<DbKey>> invalidatedKeys = new ThreadLocal<Set<DbKey>>() {
+        @Override
+        protected Set<DbKey> initialValue() {
+            return new HashSet<>();
+        }
+    };
+    private final ThreadLocal<Boolean> invalidatedAll = new ThreadLocal<>();
+    private volatile int version;
+
+    EntityCache(TransactionalDb db, int capacity) {
+        this.db = db;
+        this.capacity = capacity;
+    }
+
+    T get(DbKey dbKey) {
+        return entities.get(dbKey);
+    }
+
+    /*
+     * The version to pass to put() with an entity loaded after this call.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    synchronized void put(DbKey dbKey, T t, int loadVersion) {
+        if (loadVersion != version) {
+            return;
+        }
+        if (entities.size() >= capacity) {
+            Iterator<DbKey> iterator = entities.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        entities.putIfAbsent(dbKey, t);
+    }
+
+    void invalidate(DbKey dbKey) {
+        remove(dbKey);
+        invalidatedKeys.get().add(dbKey);
+        db.registerCallback(this);
+    }
+
+    void invalidateAll() {
+        clear();
+        invalidatedAll.set(Boolean.TRUE);
+        db.registerCallback(this);
+    }
+
+    @Override
+    public void commit() {
+        if (invalidatedAll.get() != null) {
+            clear();
+        } else {
+            for (DbKey dbKey : invalidatedKeys.get()) {
+                remove(dbKey);
+            }
+        }
+        invalidatedKeys.get().clear();
+        invalidatedAll.remove();
+    }
+
+    @Override
+    public void rollback() {
+        commit(); // entries loaded meanwhile are of the committed state too, dropping them is just simpler
+    }
+
+    private synchronized void remove(DbKey dbKey) {
+        version += 1;
+        entities.remove(dbKey);
+    }
+
+    private synchronized void clear() {
+        version += 1;
+        entities.clear();
+    }
+
+}
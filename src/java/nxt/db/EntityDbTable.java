@@ -6,22 +6,63 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     private final boolean multiversion;
+    private final boolean heightIntervals;
     protected final DbKey.Factory<T> dbKeyFactory;
     private final String defaultSort;
+    final EntityCache<T> entityCache;
+    private final String keySelectSql;
+    private final String keyHeightSelectSql;
+    private final String countSql;
+    private final String rowCountSql;
+    private final String unsetLatestSql;
+    private final String atHeightClause;
+    private final ThreadLocal<WriteBuffer> writeBuffers = new ThreadLocal<WriteBuffer>() {
+        @Override
+        protected WriteBuffer initialValue() {
+            return new WriteBuffer();
+        }
+    };
 
     protected EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
-        this(table, dbKeyFactory, false);
+        this(table, dbKeyFactory, false, false, 0);
+    }
+
+    /*
+     * With a cache of up to cacheSize committed entities for get(DbKey) calls outside of a transaction.
+     */
+    protected EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, int cacheSize) {
+        this(table, dbKeyFactory, false, false, cacheSize);
     }
 
-    EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean multiversion) {
+    EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean multiversion, boolean heightIntervals, int cacheSize) {
         super(table);
         this.dbKeyFactory = dbKeyFactory;
         this.multiversion = multiversion;
+        this.heightIntervals = heightIntervals;
         this.defaultSort = " ORDER BY " + (multiversion ? dbKeyFactory.getPKColumns() : " height DESC ");
+        this.entityCache = cacheSize > 0 ? new EntityCache<T>(db, cacheSize) : null;
+        this.keySelectSql = "SELECT * FROM " + table + dbKeyFactory.getPKClause() + (multiversion ? " AND latest = TRUE LIMIT 1" : "");
+        this.keyHeightSelectSql = "SELECT * FROM " + table + dbKeyFactory.getPKClause()
+                + " AND height <= ?" + (heightIntervals ? " AND valid_to > ? ORDER BY height DESC LIMIT 1" : multiversion ? " AND (latest = TRUE OR EXISTS ("
+                + "SELECT 1 FROM " + table + dbKeyFactory.getPKClause() + " AND height > ?)) ORDER BY height DESC LIMIT 1" : "");
+        this.countSql = "SELECT COUNT(*) FROM " + table + (multiversion ? " WHERE latest = TRUE" : "");
+        this.rowCountSql = "SELECT COUNT(*) FROM " + table;
+        // with intervals, a version saved again at the same height, possibly after a delete, is open again
+        this.unsetLatestSql = heightIntervals ? "UPDATE " + table + " SET latest = FALSE, valid_to = CASE WHEN height < ? THEN ? ELSE "
+                + Integer.MAX_VALUE + " END" + dbKeyFactory.getPKClause() + " AND (latest = TRUE OR height = ?)"
+                : "UPDATE " + table + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1";
+        this.atHeightClause = heightIntervals ? " AND a.valid_to > ? " : multiversion ? " AND (a.latest = TRUE OR (a.latest = FALSE "
+                + "AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause() + " AND b.height > ?) "
+                + "AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
+                + " AND b.height <= ? AND b.height > a.height))) " : " ";
     }
 
     protected abstract T load(Connection con, ResultSet rs) throws SQLException;
@@ -39,31 +80,42 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final T get(DbKey dbKey) {
-        if (db.isInTransaction()) {
+        boolean useEntityCache = entityCache != null && !db.isInTransaction();
+        if (useEntityCache) {
+            T t = entityCache.get(dbKey);
+            if (t != null) {
+                return t;
+            }
+        } else if (db.isInTransaction()) {
             T t = (T) db.getCache(table).get(dbKey);
             if (t != null) {
                 return t;
             }
         }
+        int cacheVersion = useEntityCache ? entityCache.getVersion() : 0;
+        T t;
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
-             + (multiversion ? " AND latest = TRUE LIMIT 1" : ""))) {
+             PreparedStatement pstmt = con.prepareStatement(keySelectSql)) {
             dbKey.setPK(pstmt);
-            return get(con, pstmt, true);
+            t = get(con, pstmt, true);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
+        if (useEntityCache && t != null) {
+            entityCache.put(dbKey, t, cacheVersion);
+        }
+        return t;
     }
 
     public final T get(DbKey dbKey, int height) {
         checkAvailable(height);
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
-                     + " AND height <= ?" + (multiversion ? " AND (latest = TRUE OR EXISTS ("
-                     + "SELECT 1 FROM " + table + dbKeyFactory.getPKClause() + " AND height > ?)) ORDER BY height DESC LIMIT 1" : ""))) {
+             PreparedStatement pstmt = con.prepareStatement(keyHeightSelectSql)) {
             int i = dbKey.setPK(pstmt);
             pstmt.setInt(i, height);
-            if (multiversion) {
+            if (heightIntervals) {
+                pstmt.setInt(++i, height);
+            } else if (multiversion) {
                 i = dbKey.setPK(pstmt, ++i);
                 pstmt.setInt(i, height);
             }
@@ -88,7 +140,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         checkAvailable(height);
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " AS a WHERE " + dbClause.getClause()
-                     + " AND height <= ?" + (multiversion ? " AND (latest = TRUE OR EXISTS ("
+                     + " AND height <= ?" + (heightIntervals ? " AND valid_to > ? ORDER BY height DESC LIMIT 1" : multiversion ? " AND (latest = TRUE OR EXISTS ("
                      + "SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
                      + " AND b.height > ?)) ORDER BY height DESC LIMIT 1" : ""))) {
             int i = 0;
@@ -159,19 +211,12 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         try {
             con = db.getConnection();
             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " AS a WHERE " + dbClause.getClause()
-                    + "AND a.height <= ?" + (multiversion ? " AND (a.latest = TRUE OR (a.latest = FALSE "
-                    + "AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause() + " AND b.height > ?) "
-                    + "AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
-                    + " AND b.height <= ? AND b.height > a.height))) "
-                    : " ") + sort
+                    + "AND a.height <= ?" + atHeightClause + sort
                     + DbUtils.limitsClause(from, to));
             int i = 0;
             i = dbClause.set(pstmt, ++i);
             pstmt.setInt(i, height);
-            if (multiversion) {
-                pstmt.setInt(++i, height);
-                pstmt.setInt(++i, height);
-            }
+            i = setAtHeight(pstmt, i, height);
             i = DbUtils.setLimits(++i, pstmt, from, to);
             return getManyBy(con, pstmt, false);
         } catch (SQLException e) {
@@ -180,6 +225,17 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         }
     }
 
+    /*
+     * Up to limit rows past the cursor, most recent first, see DbCursor.
+     */
+    public final DbIterator<T> getManyBy(DbClause dbClause, DbCursor cursor, int limit, String sort) {
+        return getManyBy(dbClause.and(cursor.toDbClause()), 0, limit - 1, sort);
+    }
+
+    public final DbIterator<T> getManyBy(DbClause dbClause, int height, DbCursor cursor, int limit, String sort) {
+        return getManyBy(dbClause.and(cursor.toDbClause()), height, 0, limit - 1, sort);
+    }
+
     public final DbIterator<T> getManyBy(Connection con, PreparedStatement pstmt, boolean cache) {
         final boolean doCache = cache && db.isInTransaction();
         return new DbIterator<>(con, pstmt, new DbIterator.ResultSetReader<T>() {
@@ -245,6 +301,10 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         }
     }
 
+    public final DbIterator<T> getAll(DbCursor cursor, int limit) {
+        return getManyBy(DbClause.EMPTY_CLAUSE, cursor, limit, DbCursor.ORDER_BY);
+    }
+
     public final DbIterator<T> getAll(int height, int from, int to) {
         return getAll(height, from, to, defaultSort());
     }
@@ -254,18 +314,12 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         Connection con = null;
         try {
             con = db.getConnection();
-            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " AS a WHERE height <= ?"
-                    + (multiversion ? " AND (latest = TRUE OR (latest = FALSE "
-                    + "AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE b.height > ? AND " + dbKeyFactory.getSelfJoinClause()
-                    + ") AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE b.height <= ? AND " + dbKeyFactory.getSelfJoinClause()
-                    + " AND b.height > a.height))) " : " ") + sort
+            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " AS a WHERE a.height <= ?"
+                    + atHeightClause + sort
                     + DbUtils.limitsClause(from, to));
             int i = 0;
             pstmt.setInt(++i, height);
-            if (multiversion) {
-                pstmt.setInt(++i, height);
-                pstmt.setInt(++i, height);
-            }
+            i = setAtHeight(pstmt, i, height);
             i = DbUtils.setLimits(++i, pstmt, from, to);
             return getManyBy(con, pstmt, false);
         } catch (SQLException e) {
@@ -276,8 +330,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     public final int getCount() {
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table
-                     + (multiversion ? " WHERE latest = TRUE" : ""))) {
+             PreparedStatement pstmt = con.prepareStatement(countSql)) {
             return getCount(pstmt);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -301,18 +354,11 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         try {
             con = db.getConnection();
             PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table + " AS a WHERE " + dbClause.getClause()
-                    + "AND a.height <= ?" + (multiversion ? " AND (a.latest = TRUE OR (a.latest = FALSE "
-                    + "AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause() + " AND b.height > ?) "
-                    + "AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
-                    + " AND b.height <= ? AND b.height > a.height))) "
-                    : " "));
+                    + "AND a.height <= ?" + atHeightClause);
             int i = 0;
             i = dbClause.set(pstmt, ++i);
             pstmt.setInt(i, height);
-            if (multiversion) {
-                pstmt.setInt(++i, height);
-                pstmt.setInt(++i, height);
-            }
+            setAtHeight(pstmt, i, height);
             return getCount(pstmt);
         } catch (SQLException e) {
             DbUtils.close(con);
@@ -322,13 +368,35 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     public final int getRowCount() {
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table)) {
+             PreparedStatement pstmt = con.prepareStatement(rowCountSql)) {
             return getCount(pstmt);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
     }
 
+    @Override
+    public final PreparedStatement prepareSelectAtHeight(Connection con, String columns, int height) throws SQLException {
+        PreparedStatement pstmt = con.prepareStatement("SELECT " + columns + " FROM " + table + " AS a WHERE a.height <= ?"
+                + atHeightClause + "ORDER BY a.db_id");
+        pstmt.setInt(1, height);
+        setAtHeight(pstmt, 1, height);
+        return pstmt;
+    }
+
+    /*
+     * Sets the height parameters of atHeightClause after index i, returns the index of the last one.
+     */
+    private int setAtHeight(PreparedStatement pstmt, int i, int height) throws SQLException {
+        if (heightIntervals) {
+            pstmt.setInt(++i, height);
+        } else if (multiversion) {
+            pstmt.setInt(++i, height);
+            pstmt.setInt(++i, height);
+        }
+        return i;
+    }
+
     private int getCount(PreparedStatement pstmt) throws SQLException {
         try (ResultSet rs = pstmt.executeQuery()) {
             rs.next();
@@ -348,30 +416,116 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
             throw new IllegalStateException("Different instance found in Db cache, perhaps trying to save an object "
                     + "that was read outside the current transaction");
         }
+        if (entityCache != null) {
+            entityCache.invalidate(dbKey);
+        }
+        if (multiversion) {
+            writeBuffers.get().add(dbKey, t);
+            return;
+        }
         try (Connection con = db.getConnection()) {
-            if (multiversion) {
-                try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                        + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
-                    dbKey.setPK(pstmt);
-                    pstmt.executeUpdate();
-                }
-            }
             save(con, t);
+            db.countChangedRows(table, 1);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
     }
 
+    /*
+     * New versions of the entities saved in the current transaction, one per key however many times it is saved.
+     * They are written in two JDBC batches at the commit, or before a statement of the transaction reads this table.
+     * A get(DbKey) that is not found in the transaction cache cannot be one of them and does not flush them.
+     * The blockchain flushes them before its height changes, so they are all saved at the height they were made at.
+     */
+    private final class WriteBuffer implements TransactionalDb.PendingWrites {
+
+        private final Map<DbKey,T> entities = new LinkedHashMap<>();
+        private int height;
+
+        private void add(DbKey dbKey, T t) {
+            if (entities.isEmpty()) {
+                height = Nxt.getBlockchain().getHeight();
+                db.registerPendingWrites(this);
+            }
+            entities.put(dbKey, t);
+        }
+
+        @Override
+        public boolean isReadBy(String sql) {
+            if (sql.equals(keySelectSql)) {
+                return false;
+            }
+            for (int i = sql.indexOf(table); i >= 0; i = sql.indexOf(table, i + 1)) {
+                int end = i + table.length();
+                if ((i == 0 || !isNameChar(sql.charAt(i - 1))) && (end == sql.length() || !isNameChar(sql.charAt(end)))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void flush(Connection con) throws SQLException {
+            List<Map.Entry<DbKey,T>> toSave = new ArrayList<>(entities.entrySet());
+            entities.clear();
+            if (heightIntervals && height != Nxt.getBlockchain().getHeight()) {
+                // valid_to of the closed versions must be the height save() records for the new ones
+                throw new IllegalStateException("Versions of " + table + " buffered at height " + height
+                        + " flushed at height " + Nxt.getBlockchain().getHeight());
+            }
+            try (PreparedStatement pstmt = con.prepareStatement(unsetLatestSql)) {
+                for (Map.Entry<DbKey,T> entry : toSave) {
+                    int i = 1;
+                    if (heightIntervals) {
+                        pstmt.setInt(i++, height);
+                        pstmt.setInt(i++, height);
+                    }
+                    i = entry.getKey().setPK(pstmt, i);
+                    if (heightIntervals) {
+                        pstmt.setInt(i, height);
+                    }
+                    pstmt.addBatch();
+                }
+                for (int count : pstmt.executeBatch()) {
+                    db.countChangedRows(table, count);
+                }
+            }
+            try (BatchingConnection batchingCon = new BatchingConnection(con)) {
+                for (Map.Entry<DbKey,T> entry : toSave) {
+                    save(batchingCon, entry.getValue());
+                }
+                batchingCon.executeBatches();
+            }
+            db.countChangedRows(table, toSave.size());
+        }
+
+        @Override
+        public void discard() {
+            entities.clear();
+        }
+
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
     @Override
     public void rollback(int height) {
         super.rollback(height);
         db.getCache(table).clear();
+        if (entityCache != null) {
+            entityCache.invalidateAll();
+        }
     }
 
     @Override
     public final void truncate() {
         super.truncate();
         db.getCache(table).clear();
+        if (entityCache != null) {
+            entityCache.invalidateAll();
+        }
     }
 
 }
@@ -0,0 +1,128 @@
+package nxt.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Prepared statements of a connection, reused by SQL string. A statement is handed out again once it is closed,
+ * if it is still in use, for example by an open iterator, the same SQL gets a new statement that is not cached.
+ * The least recently used statements are closed when there are more than the capacity.
+ * Used by the thread owning the connection only, except for the hit and miss counters shared by all connections.
+ */
+final class StatementCache {
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    static long getHits() {
+        return hits.get();
+    }
+
+    static long getMisses() {
+        return misses.get();
+    }
+
+    private final Connection con;
+    private final int capacity;
+    private final LinkedHashMap<String,CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(Connection con, int capacity) {
+        this.con = con;
+        this.capacity = capacity;
+    }
+
+    PreparedStatement prepareStatement(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && !cached.inUse) {
+            hits.incrementAndGet();
+            return cached.checkOut();
+        }
+        misses.incrementAndGet();
+        if (cached != null) {
+            return con.prepareStatement(sql);
+        }
+        cached = new CachedStatement(con.prepareStatement(sql));
+        statements.put(sql, cached);
+        if (statements.size() > capacity) {
+            Iterator<CachedStatement> iterator = statements.values().iterator();
+            iterator.next().evict();
+            iterator.remove();
+        }
+        return cached.checkOut();
+    }
+
+    void close() {
+        for (CachedStatement cached : statements.values()) {
+            cached.evict();
+        }
+        statements.clear();
+    }
+
+    private static final class CachedStatement {
+
+        private final PreparedStatement pstmt;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement pstmt) {
+            this.pstmt = pstmt;
+        }
+
+        private PreparedStatement checkOut() {
+            inUse = true;
+            return new Handle(this);
+        }
+
+        private void checkIn() throws SQLException {
+            inUse = false;
+            if (evicted) {
+                pstmt.close();
+            } else {
+                pstmt.clearParameters();
+                pstmt.clearBatch();
+            }
+        }
+
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                DbUtils.close(pstmt);
+            }
+        }
+
+    }
+
+    /*
+     * What a caller gets, closing it more than once only checks the statement in once.
+     */
+    private static final class Handle extends FilteredPreparedStatement {
+
+        private final CachedStatement cached;
+        private boolean closed;
+
+        private Handle(CachedStatement cached) {
+            super(cached.pstmt);
+            this.cached = cached;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (!closed) {
+                closed = true;
+                cached.checkIn();
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return closed || super.isClosed();
+        }
+
+    }
+
+}
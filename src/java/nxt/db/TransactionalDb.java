@@ -1,14 +1,47 @@
 package nxt.db;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class TransactionalDb extends BasicDb {
 
     private final ThreadLocal<DbConnection> localConnection = new ThreadLocal<>();
     private final ThreadLocal<Map<String,Map<DbKey,Object>>> transactionCaches = new ThreadLocal<>();
+    private final ThreadLocal<Set<TransactionCallback>> transactionCallbacks = new ThreadLocal<>();
+    private final ThreadLocal<Set<PendingWrites>> pendingWrites = new ThreadLocal<>();
+
+    /*
+     * Notified once, after the changes made since the callback was registered are committed or rolled back.
+     */
+    public interface TransactionCallback {
+
+        void commit();
+
+        void rollback();
+
+    }
+
+    /*
+     * Writes held back until the commit, or until a statement of the transaction may read them.
+     */
+    interface PendingWrites {
+
+        boolean isReadBy(String sql);
+
+        void flush(Connection con) throws SQLException;
+
+        void discard();
+
+    }
 
     public TransactionalDb(DbProperties dbProperties) {
         super(dbProperties);
@@ -37,6 +70,8 @@ public class TransactionalDb extends BasicDb {
             con = new DbConnection(con);
             localConnection.set((DbConnection)con);
             transactionCaches.set(new HashMap<String, Map<DbKey, Object>>());
+            transactionCallbacks.set(new LinkedHashSet<TransactionCallback>());
+            pendingWrites.set(new LinkedHashSet<PendingWrites>());
             return con;
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -49,10 +84,16 @@ public class TransactionalDb extends BasicDb {
             throw new IllegalStateException("Not in transaction");
         }
         try {
+            flushPendingWrites(null);
             con.doCommit();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
+        Set<TransactionCallback> callbacks = transactionCallbacks.get();
+        for (TransactionCallback callback : callbacks) {
+            callback.commit();
+        }
+        callbacks.clear();
     }
 
     public void rollbackTransaction() {
@@ -66,6 +107,8 @@ public class TransactionalDb extends BasicDb {
             throw new RuntimeException(e.toString(), e);
         }
         transactionCaches.get().clear();
+        discardPendingWrites();
+        rollbackCallbacks();
     }
 
     public void endTransaction() {
@@ -76,6 +119,10 @@ public class TransactionalDb extends BasicDb {
         localConnection.set(null);
         transactionCaches.get().clear();
         transactionCaches.set(null);
+        discardPendingWrites();
+        pendingWrites.set(null);
+        rollbackCallbacks();
+        transactionCallbacks.set(null);
         DbUtils.close(con);
     }
 
@@ -91,12 +138,88 @@ public class TransactionalDb extends BasicDb {
         return cacheMap;
     }
 
+    public void registerCallback(TransactionCallback callback) {
+        if (!isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        transactionCallbacks.get().add(callback);
+    }
+
+    void registerPendingWrites(PendingWrites writes) {
+        if (!isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        pendingWrites.get().add(writes);
+    }
+
+    public void flushPendingWrites() {
+        try {
+            flushPendingWrites(null);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /*
+     * Flushes the pending writes this statement may read, or all of them if the statement is not known.
+     */
+    private void flushPendingWrites(String sql) throws SQLException {
+        Set<PendingWrites> writesSet = pendingWrites.get();
+        if (writesSet == null || writesSet.isEmpty()) {
+            return;
+        }
+        List<PendingWrites> toFlush = new ArrayList<>();
+        Iterator<PendingWrites> iterator = writesSet.iterator();
+        while (iterator.hasNext()) {
+            PendingWrites writes = iterator.next();
+            if (sql == null || writes.isReadBy(sql)) {
+                iterator.remove();
+                toFlush.add(writes);
+            }
+        }
+        for (PendingWrites writes : toFlush) {
+            writes.flush(localConnection.get());
+        }
+    }
+
+    private void discardPendingWrites() {
+        Set<PendingWrites> writesSet = pendingWrites.get();
+        for (PendingWrites writes : writesSet) {
+            writes.discard();
+        }
+        writesSet.clear();
+    }
+
+    private void rollbackCallbacks() {
+        Set<TransactionCallback> callbacks = transactionCallbacks.get();
+        for (TransactionCallback callback : callbacks) {
+            callback.rollback();
+        }
+        callbacks.clear();
+    }
+
     private final class DbConnection extends FilteredConnection {
 
         private DbConnection(Connection con) {
             super(con);
         }
 
+        @Override
+        public Statement createStatement() throws SQLException {
+            if (this == localConnection.get()) {
+                flushPendingWrites(null);
+            }
+            return super.createStatement();
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            if (this == localConnection.get()) {
+                flushPendingWrites(sql);
+            }
+            return super.prepareStatement(sql);
+        }
+
         @Override
         public void setAutoCommit(boolean autoCommit) throws SQLException {
             throw new UnsupportedOperationException("Use Db.beginTransaction() to start a new transaction");
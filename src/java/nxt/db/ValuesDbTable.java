@@ -11,6 +11,8 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
 
     private final boolean multiversion;
     protected final DbKey.Factory<T> dbKeyFactory;
+    private final String keySelectSql;
+    private final String unsetLatestSql;
 
     protected ValuesDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
         this(table, dbKeyFactory, false);
@@ -20,6 +22,9 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
         super(table);
         this.dbKeyFactory = dbKeyFactory;
         this.multiversion = multiversion;
+        this.keySelectSql = "SELECT * FROM " + table + dbKeyFactory.getPKClause()
+                + (multiversion ? " AND latest = TRUE" : "") + " ORDER BY db_id DESC";
+        this.unsetLatestSql = "UPDATE " + table + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE";
     }
 
     protected abstract V load(Connection con, ResultSet rs) throws SQLException;
@@ -35,8 +40,7 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
             }
         }
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
-             + (multiversion ? " AND latest = TRUE" : "") + " ORDER BY db_id DESC")) {
+             PreparedStatement pstmt = con.prepareStatement(keySelectSql)) {
             dbKey.setPK(pstmt);
             values = get(con, pstmt);
             if (db.isInTransaction()) {
@@ -70,15 +74,15 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
         db.getCache(table).put(dbKey, values);
         try (Connection con = db.getConnection()) {
             if (multiversion) {
-                try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                        + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE")) {
+                try (PreparedStatement pstmt = con.prepareStatement(unsetLatestSql)) {
                     dbKey.setPK(pstmt);
-                    pstmt.executeUpdate();
+                    db.countChangedRows(table, pstmt.executeUpdate());
                 }
             }
             for (V v : values) {
                 save(con, t, v);
             }
+            db.countChangedRows(table, values.size());
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -7,18 +7,46 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 
 public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
 
+    private final boolean heightIntervals;
+    private final String countOlderSql;
+    private final String unsetLatestSql;
+    private final String deleteSql;
+
     protected VersionedEntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
-        super(table, dbKeyFactory, true);
+        this(table, dbKeyFactory, 0);
+    }
+
+    protected VersionedEntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, int cacheSize) {
+        this(table, dbKeyFactory, false, cacheSize);
+    }
+
+    /*
+     * With heightIntervals, the table also has a valid_to column, the height at which each version stopped being
+     * the latest one, or Integer.MAX_VALUE while it is, so that the version as of a height is found by a single
+     * range condition on height and valid_to, instead of subqueries on later versions.
+     */
+    protected VersionedEntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean heightIntervals, int cacheSize) {
+        super(table, dbKeyFactory, true, heightIntervals, cacheSize);
+        this.heightIntervals = heightIntervals;
+        this.countOlderSql = "SELECT COUNT(*) AS count FROM " + table + dbKeyFactory.getPKClause() + " AND height < ?";
+        this.unsetLatestSql = "UPDATE " + table + " SET latest = FALSE" + (heightIntervals ? ", valid_to = ?" : "")
+                + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1";
+        this.deleteSql = "DELETE FROM " + table + dbKeyFactory.getPKClause();
     }
 
     @Override
     public void rollback(int height) {
-        rollback(db, table, height, dbKeyFactory);
+        if (heightIntervals) {
+            rollbackIntervals(height);
+        } else {
+            rollback(db, table, height, dbKeyFactory);
+        }
+        if (entityCache != null) {
+            entityCache.invalidateAll();
+        }
     }
 
     public final boolean delete(T t) {
@@ -29,26 +57,35 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
             throw new IllegalStateException("Not in transaction");
         }
         DbKey dbKey = dbKeyFactory.newKey(t);
+        if (entityCache != null) {
+            entityCache.invalidate(dbKey);
+        }
         try (Connection con = db.getConnection();
-             PreparedStatement pstmtCount = con.prepareStatement("SELECT COUNT(*) AS count FROM " + table + dbKeyFactory.getPKClause()
-                + " AND height < ?")) {
+             PreparedStatement pstmtCount = con.prepareStatement(countOlderSql)) {
             int i = dbKey.setPK(pstmtCount);
             pstmtCount.setInt(i, Nxt.getBlockchain().getHeight());
             try (ResultSet rs = pstmtCount.executeQuery()) {
                 rs.next();
                 if (rs.getInt("count") > 0) {
-                    try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                            + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
-                        dbKey.setPK(pstmt);
-                        pstmt.executeUpdate();
+                    try (PreparedStatement pstmt = con.prepareStatement(unsetLatestSql)) {
+                        if (heightIntervals) {
+                            pstmt.setInt(1, Nxt.getBlockchain().getHeight());
+                            dbKey.setPK(pstmt, 2);
+                        } else {
+                            dbKey.setPK(pstmt);
+                        }
+                        int changedRows = pstmt.executeUpdate();
                         save(con, t);
-                        pstmt.executeUpdate(); // delete after the save
+                        changedRows += pstmt.executeUpdate() + 1; // delete after the save
+                        db.countChangedRows(table, changedRows);
                     }
                     return true;
                 } else {
-                    try (PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + dbKeyFactory.getPKClause())) {
+                    try (PreparedStatement pstmtDelete = con.prepareStatement(deleteSql)) {
                         dbKey.setPK(pstmtDelete);
-                        return pstmtDelete.executeUpdate() > 0;
+                        int deletedRows = pstmtDelete.executeUpdate();
+                        db.countChangedRows(table, deletedRows);
+                        return deletedRows > 0;
                     }
                 }
             }
@@ -60,79 +97,114 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
     }
 
     @Override
-    public final void trim(int height) {
-        trim(db, table, height, dbKeyFactory);
+    public final void trim(int fromHeight, int height) {
+        if (heightIntervals) {
+            trimIntervals(height);
+        } else {
+            trim(db, table, fromHeight, height, dbKeyFactory);
+        }
     }
 
-    static void rollback(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory) {
+    /*
+     * The versions valid at the height are the ones that stopped being the latest after it.
+     * A deleted entity keeps a last version valid from and to its deletion height, so it is not restored.
+     */
+    private void rollbackIntervals(int height) {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
         try (Connection con = db.getConnection();
-             PreparedStatement pstmtSelectToDelete = con.prepareStatement("SELECT DISTINCT " + dbKeyFactory.getPKColumns()
-                     + " FROM " + table + " WHERE height > ?");
-             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table
-                     + " WHERE height > ?");
+             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + " WHERE height > ?");
              PreparedStatement pstmtSetLatest = con.prepareStatement("UPDATE " + table
-                     + " SET latest = TRUE " + dbKeyFactory.getPKClause() + " AND height ="
-                     + " (SELECT MAX(height) FROM " + table + dbKeyFactory.getPKClause() + ")")) {
-            pstmtSelectToDelete.setInt(1, height);
-            List<DbKey> dbKeys = new ArrayList<>();
-            try (ResultSet rs = pstmtSelectToDelete.executeQuery()) {
-                while (rs.next()) {
-                    dbKeys.add(dbKeyFactory.newKey(rs));
-                }
-            }
-            /*
-            if (dbKeys.size() > 0 && Logger.isDebugEnabled()) {
-                Logger.logDebugMessage(String.format("rollback table %s found %d records to update to latest", table, dbKeys.size()));
-            }
-            */
+                     + " SET latest = TRUE, valid_to = " + Integer.MAX_VALUE
+                     + " WHERE valid_to > ? AND valid_to < " + Integer.MAX_VALUE)) {
             pstmtDelete.setInt(1, height);
-            int deletedRecordsCount = pstmtDelete.executeUpdate();
-            /*
-            if (deletedRecordsCount > 0 && Logger.isDebugEnabled()) {
-                Logger.logDebugMessage(String.format("rollback table %s deleting %d records", table, deletedRecordsCount));
-            }
-            */
-            for (DbKey dbKey : dbKeys) {
-                int i = 1;
-                i = dbKey.setPK(pstmtSetLatest, i);
-                i = dbKey.setPK(pstmtSetLatest, i);
-                pstmtSetLatest.executeUpdate();
-                //Db.getCache(table).remove(dbKey);
-            }
+            db.countChangedRows(table, pstmtDelete.executeUpdate());
+            pstmtSetLatest.setInt(1, height);
+            db.countChangedRows(table, pstmtSetLatest.executeUpdate());
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        db.getCache(table).clear();
+    }
+
+    /*
+     * Versions that stopped being the latest at or before the height are not needed for any later height.
+     */
+    private void trimIntervals(int height) {
+        if (!db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + " WHERE valid_to <= ?")) {
+            pstmtDelete.setInt(1, height);
+            db.countChangedRows(table, pstmtDelete.executeUpdate());
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /*
+     * Set-based: the versions that were the latest at the height, of the keys changed after it, become the latest again
+     * before the later versions are deleted. The IN condition on the first key column lets the key index drive the update.
+     */
+    static void rollback(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory) {
+        if (!db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        String firstPKColumn = dbKeyFactory.getPKColumns().split(",")[0].trim();
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtSetLatest = con.prepareStatement("UPDATE " + table + " AS a SET latest = TRUE "
+                     + "WHERE a.height <= ? AND a." + firstPKColumn + " IN (SELECT " + firstPKColumn + " FROM " + table
+                     + " WHERE height > ?) AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
+                     + " AND b.height > ?) AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
+                     + " AND b.height <= ? AND b.height > a.height)");
+             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + " WHERE height > ?")) {
+            pstmtSetLatest.setInt(1, height);
+            pstmtSetLatest.setInt(2, height);
+            pstmtSetLatest.setInt(3, height);
+            pstmtSetLatest.setInt(4, height);
+            db.countChangedRows(table, pstmtSetLatest.executeUpdate());
+            pstmtDelete.setInt(1, height);
+            db.countChangedRows(table, pstmtDelete.executeUpdate());
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
         db.getCache(table).clear();
     }
 
-    static void trim(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory) {
+    /*
+     * Only the keys changed by the blocks from fromHeight up to the height can have versions made obsolete since the
+     * previous trim, for each the versions older than its last one below the height are deleted, and all of them
+     * if that one is a deletion with nothing after it.
+     */
+    static void trim(final TransactionalDb db, final String table, final int fromHeight, final int height, final DbKey.Factory dbKeyFactory) {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
         try (Connection con = db.getConnection();
-             PreparedStatement pstmtSelect = con.prepareStatement("SELECT " + dbKeyFactory.getPKColumns() + ", MAX(height) AS max_height"
-                     + " FROM " + table + " WHERE height < ? GROUP BY " + dbKeyFactory.getPKColumns() + " HAVING COUNT(DISTINCT height) > 1");
+             PreparedStatement pstmtSelect = con.prepareStatement("SELECT DISTINCT " + dbKeyFactory.getPKColumns()
+                     + " FROM " + table + " WHERE height >= ? AND height < ?");
              PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + dbKeyFactory.getPKClause()
-                     + " AND height < ?");
-            PreparedStatement pstmtDeleteDeleted = con.prepareStatement("DELETE FROM " + table + " WHERE height < ? AND latest = FALSE "
-                    + " AND (" + dbKeyFactory.getPKColumns() + ") NOT IN (SELECT (" + dbKeyFactory.getPKColumns() + ") FROM "
-                    + table + " WHERE height >= ?)")) {
-            pstmtSelect.setInt(1, height);
+                     + " AND height < (SELECT MAX(height) FROM " + table + dbKeyFactory.getPKClause() + " AND height < ?)");
+             PreparedStatement pstmtDeleteDeleted = con.prepareStatement("DELETE FROM " + table + dbKeyFactory.getPKClause()
+                     + " AND height < ? AND NOT EXISTS (SELECT 1 FROM " + table + dbKeyFactory.getPKClause()
+                     + " AND (latest = TRUE OR height >= ?))")) {
+            pstmtSelect.setInt(1, fromHeight);
+            pstmtSelect.setInt(2, height);
             try (ResultSet rs = pstmtSelect.executeQuery()) {
                 while (rs.next()) {
                     DbKey dbKey = dbKeyFactory.newKey(rs);
-                    int maxHeight = rs.getInt("max_height");
-                    int i = 1;
+                    int i = dbKey.setPK(pstmtDelete);
                     i = dbKey.setPK(pstmtDelete, i);
-                    pstmtDelete.setInt(i, maxHeight);
-                    pstmtDelete.executeUpdate();
+                    pstmtDelete.setInt(i, height);
+                    db.countChangedRows(table, pstmtDelete.executeUpdate());
+                    i = dbKey.setPK(pstmtDeleteDeleted);
+                    pstmtDeleteDeleted.setInt(i, height);
+                    i = dbKey.setPK(pstmtDeleteDeleted, ++i);
+                    pstmtDeleteDeleted.setInt(i, height);
+                    db.countChangedRows(table, pstmtDeleteDeleted.executeUpdate());
                 }
-                pstmtDeleteDeleted.setInt(1, height);
-                pstmtDeleteDeleted.setInt(2, height);
-                pstmtDeleteDeleted.executeUpdate();
             }
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
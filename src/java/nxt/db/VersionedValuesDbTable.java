@@ -1,5 +1,9 @@
 package nxt.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
 public abstract class VersionedValuesDbTable<T, V> extends ValuesDbTable<T, V> {
 
     protected VersionedValuesDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
@@ -12,8 +16,20 @@ public abstract class VersionedValuesDbTable<T, V> extends ValuesDbTable<T, V> {
     }
 
     @Override
-    public final void trim(int height) {
-        VersionedEntityDbTable.trim(db, table, height, dbKeyFactory);
+    public final PreparedStatement prepareSelectAtHeight(Connection con, String columns, int height) throws SQLException {
+        PreparedStatement pstmt = con.prepareStatement("SELECT " + columns + " FROM " + table + " AS a WHERE a.height <= ? "
+                + "AND (a.latest = TRUE OR EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
+                + " AND b.height > ?)) AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
+                + " AND b.height <= ? AND b.height > a.height) ORDER BY a.db_id");
+        pstmt.setInt(1, height);
+        pstmt.setInt(2, height);
+        pstmt.setInt(3, height);
+        return pstmt;
+    }
+
+    @Override
+    public final void trim(int fromHeight, int height) {
+        VersionedEntityDbTable.trim(db, table, fromHeight, height, dbKeyFactory);
     }
 
 }
@@ -4,6 +4,7 @@ import nxt.Account;
 import nxt.Block;
 import nxt.Nxt;
 import nxt.NxtException;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -16,7 +17,7 @@ public final class GetAccountBlockIds extends APIServlet.APIRequestHandler {
     static final GetAccountBlockIds instance = new GetAccountBlockIds();
 
     private GetAccountBlockIds() {
-        super(new APITag[] {APITag.ACCOUNTS}, "account", "timestamp", "firstIndex", "lastIndex");
+        super(new APITag[] {APITag.ACCOUNTS}, "account", "timestamp", "firstIndex", "lastIndex", "cursor");
     }
 
     @Override
@@ -26,16 +27,22 @@ public final class GetAccountBlockIds extends APIServlet.APIRequestHandler {
         int timestamp = ParameterParser.getTimestamp(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
+        int limit = ParameterParser.getLimit(req);
 
+        JSONObject response = new JSONObject();
         JSONArray blockIds = new JSONArray();
-        try (DbIterator<? extends Block> iterator = Nxt.getBlockchain().getBlocks(account, timestamp, firstIndex, lastIndex)) {
+        try (DbIterator<? extends Block> iterator = cursor == null ? Nxt.getBlockchain().getBlocks(account, timestamp, firstIndex, lastIndex)
+                : Nxt.getBlockchain().getBlocks(account, timestamp, cursor, limit)) {
             while (iterator.hasNext()) {
                 Block block = iterator.next();
                 blockIds.add(block.getStringId());
             }
+            if (cursor != null && blockIds.size() == limit) {
+                response.put("nextCursor", iterator.getCursor().toString());
+            }
         }
 
-        JSONObject response = new JSONObject();
         response.put("blockIds", blockIds);
 
         return response;
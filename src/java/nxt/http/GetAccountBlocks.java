@@ -4,6 +4,7 @@ import nxt.Account;
 import nxt.Block;
 import nxt.Nxt;
 import nxt.NxtException;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -16,7 +17,7 @@ public final class GetAccountBlocks extends APIServlet.APIRequestHandler {
     static final GetAccountBlocks instance = new GetAccountBlocks();
 
     private GetAccountBlocks() {
-        super(new APITag[] {APITag.ACCOUNTS}, "account", "timestamp", "firstIndex", "lastIndex", "includeTransactions");
+        super(new APITag[] {APITag.ACCOUNTS}, "account", "timestamp", "firstIndex", "lastIndex", "cursor", "includeTransactions");
     }
 
     @Override
@@ -26,18 +27,24 @@ public final class GetAccountBlocks extends APIServlet.APIRequestHandler {
         int timestamp = ParameterParser.getTimestamp(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
+        int limit = ParameterParser.getLimit(req);
 
         boolean includeTransactions = "true".equalsIgnoreCase(req.getParameter("includeTransactions"));
 
+        JSONObject response = new JSONObject();
         JSONArray blocks = new JSONArray();
-        try (DbIterator<? extends Block> iterator = Nxt.getBlockchain().getBlocks(account, timestamp, firstIndex, lastIndex)) {
+        try (DbIterator<? extends Block> iterator = cursor == null ? Nxt.getBlockchain().getBlocks(account, timestamp, firstIndex, lastIndex)
+                : Nxt.getBlockchain().getBlocks(account, timestamp, cursor, limit)) {
             while (iterator.hasNext()) {
                 Block block = iterator.next();
                 blocks.add(JSONData.block(block, includeTransactions));
             }
+            if (cursor != null && blocks.size() == limit) {
+                response.put("nextCursor", iterator.getCursor().toString());
+            }
         }
 
-        JSONObject response = new JSONObject();
         response.put("blocks", blocks);
 
         return response;
@@ -4,6 +4,7 @@ import nxt.Account;
 import nxt.Nxt;
 import nxt.NxtException;
 import nxt.Transaction;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -16,7 +17,7 @@ public final class GetAccountTransactions extends APIServlet.APIRequestHandler {
     static final GetAccountTransactions instance = new GetAccountTransactions();
 
     private GetAccountTransactions() {
-        super(new APITag[] {APITag.ACCOUNTS, APITag.TRANSACTIONS}, "account", "timestamp", "type", "subtype", "firstIndex", "lastIndex", "numberOfConfirmations", "withMessage");
+        super(new APITag[] {APITag.ACCOUNTS, APITag.TRANSACTIONS}, "account", "timestamp", "type", "subtype", "firstIndex", "lastIndex", "cursor", "numberOfConfirmations", "withMessage");
     }
 
     @Override
@@ -42,17 +43,23 @@ public final class GetAccountTransactions extends APIServlet.APIRequestHandler {
 
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
+        int limit = ParameterParser.getLimit(req);
 
+        JSONObject response = new JSONObject();
         JSONArray transactions = new JSONArray();
-        try (DbIterator<? extends Transaction> iterator = Nxt.getBlockchain().getTransactions(account, numberOfConfirmations, type, subtype, timestamp,
-                withMessage, firstIndex, lastIndex)) {
+        try (DbIterator<? extends Transaction> iterator = cursor == null
+                ? Nxt.getBlockchain().getTransactions(account, numberOfConfirmations, type, subtype, timestamp, withMessage, firstIndex, lastIndex)
+                : Nxt.getBlockchain().getTransactions(account, numberOfConfirmations, type, subtype, timestamp, withMessage, cursor, limit)) {
             while (iterator.hasNext()) {
                 Transaction transaction = iterator.next();
                 transactions.add(JSONData.transaction(transaction));
             }
+            if (cursor != null && transactions.size() == limit) {
+                response.put("nextCursor", iterator.getCursor().toString());
+            }
         }
 
-        JSONObject response = new JSONObject();
         response.put("transactions", transactions);
         return response;
 
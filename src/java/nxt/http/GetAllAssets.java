@@ -1,6 +1,8 @@
 package nxt.http;
 
 import nxt.Asset;
+import nxt.NxtException;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -13,23 +15,28 @@ public final class GetAllAssets extends APIServlet.APIRequestHandler {
     static final GetAllAssets instance = new GetAllAssets();
 
     private GetAllAssets() {
-        super(new APITag[] {APITag.AE}, "firstIndex", "lastIndex", "includeCounts");
+        super(new APITag[] {APITag.AE}, "firstIndex", "lastIndex", "cursor", "includeCounts");
     }
 
     @Override
-    JSONStreamAware processRequest(HttpServletRequest req) {
+    JSONStreamAware processRequest(HttpServletRequest req) throws NxtException {
 
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
+        int limit = ParameterParser.getLimit(req);
         boolean includeCounts = !"false".equalsIgnoreCase(req.getParameter("includeCounts"));
 
         JSONObject response = new JSONObject();
         JSONArray assetsJSONArray = new JSONArray();
         response.put("assets", assetsJSONArray);
-        try (DbIterator<Asset> assets = Asset.getAllAssets(firstIndex, lastIndex)) {
+        try (DbIterator<Asset> assets = cursor == null ? Asset.getAllAssets(firstIndex, lastIndex) : Asset.getAllAssets(cursor, limit)) {
             while (assets.hasNext()) {
                 assetsJSONArray.add(JSONData.asset(assets.next(), includeCounts));
             }
+            if (cursor != null && assetsJSONArray.size() == limit) {
+                response.put("nextCursor", assets.getCursor().toString());
+            }
         }
         return response;
     }
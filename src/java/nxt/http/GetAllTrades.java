@@ -2,6 +2,8 @@ package nxt.http;
 
 import nxt.NxtException;
 import nxt.Trade;
+import nxt.db.DbCursor;
+import nxt.db.DbIterator;
 import nxt.db.FilteringIterator;
 import nxt.util.Filter;
 import org.json.simple.JSONArray;
@@ -15,7 +17,7 @@ public final class GetAllTrades extends APIServlet.APIRequestHandler {
     static final GetAllTrades instance = new GetAllTrades();
 
     private GetAllTrades() {
-        super(new APITag[] {APITag.AE}, "timestamp", "firstIndex", "lastIndex", "includeAssetInfo");
+        super(new APITag[] {APITag.AE}, "timestamp", "firstIndex", "lastIndex", "cursor", "includeAssetInfo");
     }
     
     @Override
@@ -23,10 +25,29 @@ public final class GetAllTrades extends APIServlet.APIRequestHandler {
         final int timestamp = ParameterParser.getTimestamp(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
         boolean includeAssetInfo = !"false".equalsIgnoreCase(req.getParameter("includeAssetInfo"));
 
         JSONObject response = new JSONObject();
         JSONArray trades = new JSONArray();
+        if (cursor != null) {
+            // trades come most recent first, so the first one older than timestamp ends the listing
+            int limit = ParameterParser.getLimit(req);
+            try (DbIterator<Trade> tradeIterator = Trade.getAllTrades(cursor, limit)) {
+                while (tradeIterator.hasNext()) {
+                    Trade trade = tradeIterator.next();
+                    if (trade.getTimestamp() < timestamp) {
+                        break;
+                    }
+                    trades.add(JSONData.trade(trade, includeAssetInfo));
+                }
+                if (trades.size() == limit) {
+                    response.put("nextCursor", tradeIterator.getCursor().toString());
+                }
+            }
+            response.put("trades", trades);
+            return response;
+        }
         try (FilteringIterator<Trade> tradeIterator = new FilteringIterator<>(Trade.getAllTrades(0, -1),
                 new Filter<Trade>() {
                     @Override
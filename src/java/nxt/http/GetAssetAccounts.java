@@ -3,6 +3,7 @@ package nxt.http;
 import nxt.Account;
 import nxt.Asset;
 import nxt.NxtException;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -15,7 +16,7 @@ public final class GetAssetAccounts extends APIServlet.APIRequestHandler {
     static final GetAssetAccounts instance = new GetAssetAccounts();
 
     private GetAssetAccounts() {
-        super(new APITag[] {APITag.AE}, "asset", "height", "firstIndex", "lastIndex");
+        super(new APITag[] {APITag.AE}, "asset", "height", "firstIndex", "lastIndex", "cursor");
     }
 
     @Override
@@ -25,16 +26,22 @@ public final class GetAssetAccounts extends APIServlet.APIRequestHandler {
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
         int height = ParameterParser.getHeight(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
+        int limit = ParameterParser.getLimit(req);
 
+        JSONObject response = new JSONObject();
         JSONArray accountAssets = new JSONArray();
-        try (DbIterator<Account.AccountAsset> iterator = asset.getAccounts(height, firstIndex, lastIndex)) {
+        try (DbIterator<Account.AccountAsset> iterator = cursor == null ? asset.getAccounts(height, firstIndex, lastIndex)
+                : asset.getAccounts(height, cursor, limit)) {
             while (iterator.hasNext()) {
                 Account.AccountAsset accountAsset = iterator.next();
                 accountAssets.add(JSONData.accountAsset(accountAsset, true, false));
             }
+            if (cursor != null && accountAssets.size() == limit) {
+                response.put("nextCursor", iterator.getCursor().toString());
+            }
         }
 
-        JSONObject response = new JSONObject();
         response.put("accountAssets", accountAssets);
         return response;
 
@@ -3,6 +3,7 @@ package nxt.http;
 import nxt.Block;
 import nxt.Nxt;
 import nxt.NxtException;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -15,7 +16,7 @@ public final class GetBlocks extends APIServlet.APIRequestHandler {
     static final GetBlocks instance = new GetBlocks();
 
     private GetBlocks() {
-        super(new APITag[] {APITag.BLOCKS}, "firstIndex", "lastIndex", "includeTransactions");
+        super(new APITag[] {APITag.BLOCKS}, "firstIndex", "lastIndex", "cursor", "includeTransactions");
     }
 
     @Override
@@ -26,19 +27,25 @@ public final class GetBlocks extends APIServlet.APIRequestHandler {
         if (lastIndex < 0 || lastIndex - firstIndex > 99) {
             lastIndex = firstIndex + 99;
         }
+        DbCursor cursor = ParameterParser.getCursor(req);
+        int limit = Math.max(lastIndex - firstIndex + 1, 1);
 
         boolean includeTransactions = "true".equalsIgnoreCase(req.getParameter("includeTransactions"));
 
+        JSONObject response = new JSONObject();
         JSONArray blocks = new JSONArray();
-        try (DbIterator<? extends Block> iterator = Nxt.getBlockchain().getBlocks(firstIndex, lastIndex)) {
+        try (DbIterator<? extends Block> iterator = cursor == null ? Nxt.getBlockchain().getBlocks(firstIndex, lastIndex)
+                : Nxt.getBlockchain().getBlocks(cursor, limit)) {
             while (iterator.hasNext()) {
                 Block block = iterator.next();
                 blocks.add(JSONData.block(block, includeTransactions));
             }
+            if (cursor != null && blocks.size() == limit) {
+                response.put("nextCursor", iterator.getCursor().toString());
+            }
         }
         catch(Throwable e){e.printStackTrace(); throw e;} //TODO
 
-        JSONObject response = new JSONObject();
         response.put("blocks", blocks);
 
         return response;
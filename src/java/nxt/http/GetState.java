@@ -8,6 +8,7 @@ import nxt.Constants;
 import nxt.Currency;
 import nxt.CurrencyBuyOffer;
 import nxt.CurrencyTransfer;
+import nxt.Db;
 import nxt.DigitalGoodsStore;
 import nxt.Exchange;
 import nxt.Generator;
@@ -19,6 +20,7 @@ import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
 
 public final class GetState extends APIServlet.APIRequestHandler {
 
@@ -78,6 +80,36 @@ public final class GetState extends APIServlet.APIRequestHandler {
         response.put("peerPort", Peers.getDefaultPeerPort());
         response.put("isTestnet", Constants.isTestnet);
         response.put("isOffline", Constants.isOffline);
+        response.put("minRollbackHeight", Nxt.getBlockchainProcessor().getMinRollbackHeight());
+        response.put("trimmedHeight", Nxt.getBlockchainProcessor().getTrimmedHeight());
+        response.put("statementCacheHits", Db.db.getStatementCacheHits());
+        response.put("statementCacheMisses", Db.db.getStatementCacheMisses());
+        JSONObject connectionPool = new JSONObject();
+        connectionPool.put("activeConnections", Db.db.getActiveConnections());
+        connectionPool.put("idleConnections", Db.db.getIdleConnections());
+        connectionPool.put("checkouts", Db.db.getConnectionCheckouts());
+        connectionPool.put("waits", Db.db.getConnectionWaits());
+        connectionPool.put("waitTime", Db.db.getConnectionWaitTime());
+        connectionPool.put("maxWaitTime", Db.db.getMaxConnectionWaitTime());
+        connectionPool.put("leakedConnections", Db.db.getLeakedConnections());
+        JSONObject checkoutTimes = new JSONObject();
+        long[] buckets = Db.db.getConnectionCheckoutTimeBuckets();
+        long[] counts = Db.db.getConnectionCheckoutTimes();
+        for (int i = 0; i < counts.length; i++) {
+            checkoutTimes.put(i < buckets.length ? "<" + buckets[i] + "ms" : ">=" + buckets[buckets.length - 1] + "ms", counts[i]);
+        }
+        connectionPool.put("checkoutTimes", checkoutTimes);
+        response.put("databaseConnectionPool", connectionPool);
+        JSONObject maintenance = new JSONObject();
+        for (Map.Entry<String,long[]> entry : Db.db.getMaintenanceTaskTimes().entrySet()) {
+            JSONObject task = new JSONObject();
+            task.put("lastRun", entry.getValue()[0]);
+            task.put("lastDuration", entry.getValue()[1]);
+            task.put("runs", entry.getValue()[2]);
+            task.put("totalDuration", entry.getValue()[3]);
+            maintenance.put(entry.getKey(), task);
+        }
+        response.put("databaseMaintenance", maintenance);
         return response;
     }
 
@@ -4,6 +4,7 @@ import nxt.Account;
 import nxt.Asset;
 import nxt.NxtException;
 import nxt.Trade;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbUtils;
 import nxt.util.Convert;
@@ -18,7 +19,7 @@ public final class GetTrades extends APIServlet.APIRequestHandler {
     static final GetTrades instance = new GetTrades();
 
     private GetTrades() {
-        super(new APITag[] {APITag.AE}, "asset", "account", "firstIndex", "lastIndex", "includeAssetInfo");
+        super(new APITag[] {APITag.AE}, "asset", "account", "firstIndex", "lastIndex", "cursor", "includeAssetInfo");
     }
 
     @Override
@@ -29,6 +30,8 @@ public final class GetTrades extends APIServlet.APIRequestHandler {
 
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
+        int limit = ParameterParser.getLimit(req);
         boolean includeAssetInfo = !"false".equalsIgnoreCase(req.getParameter("includeAssetInfo"));
 
         JSONObject response = new JSONObject();
@@ -37,18 +40,22 @@ public final class GetTrades extends APIServlet.APIRequestHandler {
         try {
             if (accountId == null) {
                 Asset asset = ParameterParser.getAsset(req);
-                trades = asset.getTrades(firstIndex, lastIndex);
+                trades = cursor == null ? asset.getTrades(firstIndex, lastIndex) : asset.getTrades(cursor, limit);
             } else if (assetId == null) {
                 Account account = ParameterParser.getAccount(req);
-                trades = account.getTrades(firstIndex, lastIndex);
+                trades = cursor == null ? account.getTrades(firstIndex, lastIndex) : account.getTrades(cursor, limit);
             } else {
                 Asset asset = ParameterParser.getAsset(req);
                 Account account = ParameterParser.getAccount(req);
-                trades = Trade.getAccountAssetTrades(account.getId(), asset.getId(), firstIndex, lastIndex);
+                trades = cursor == null ? Trade.getAccountAssetTrades(account.getId(), asset.getId(), firstIndex, lastIndex)
+                        : Trade.getAccountAssetTrades(account.getId(), asset.getId(), cursor, limit);
             }
             while (trades.hasNext()) {
                 tradesData.add(JSONData.trade(trades.next(), includeAssetInfo));
             }
+            if (cursor != null && tradesData.size() == limit) {
+                response.put("nextCursor", trades.getCursor().toString());
+            }
         } finally {
             DbUtils.close(trades);
         }
@@ -2,13 +2,13 @@ package nxt.http;
 
 import nxt.Nxt;
 import nxt.Transaction;
-import nxt.db.DbIterator;
 import nxt.util.Convert;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.List;
 
 import static nxt.http.JSONResponses.INCORRECT_ACCOUNT;
 
@@ -35,14 +35,11 @@ public final class GetUnconfirmedTransactions extends APIServlet.APIRequestHandl
         }
 
         JSONArray transactions = new JSONArray();
-        try (DbIterator<? extends Transaction> transactionsIterator = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()) {
-            while (transactionsIterator.hasNext()) {
-                Transaction transaction = transactionsIterator.next();
-                if (accountId != 0 && !(accountId == transaction.getSenderId() || accountId == transaction.getRecipientId())) {
-                    continue;
-                }
-                transactions.add(JSONData.unconfirmedTransaction(transaction));
-            }
+        List<? extends Transaction> unconfirmedTransactions = accountId != 0
+                ? Nxt.getTransactionProcessor().getUnconfirmedTransactions(accountId)
+                : Nxt.getTransactionProcessor().getAllUnconfirmedTransactions();
+        for (Transaction transaction : unconfirmedTransactions) {
+            transactions.add(JSONData.unconfirmedTransaction(transaction));
         }
 
         JSONObject response = new JSONObject();
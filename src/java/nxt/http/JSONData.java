@@ -339,6 +339,8 @@ final class JSONData {
         json.put("weight", peer.getWeight());
         json.put("downloadedVolume", peer.getDownloadedVolume());
         json.put("uploadedVolume", peer.getUploadedVolume());
+        json.put("receivedTransactions", peer.getReceivedTransactions());
+        json.put("duplicateTransactions", peer.getDuplicateTransactions());
         json.put("application", peer.getApplication());
         json.put("version", peer.getVersion());
         json.put("platform", peer.getPlatform());
@@ -13,6 +13,7 @@ import nxt.NxtException;
 import nxt.Transaction;
 import nxt.crypto.Crypto;
 import nxt.crypto.EncryptedData;
+import nxt.db.DbCursor;
 import nxt.util.Convert;
 import nxt.util.Logger;
 import org.json.simple.JSONObject;
@@ -446,6 +447,28 @@ final class ParameterParser {
         return lastIndex;
     }
 
+    /*
+     * A cursor parameter, empty for the first page, switches a listing from firstIndex offsets to seeking past the
+     * nextCursor of the previous page, with pages of lastIndex - firstIndex + 1 rows, most recent first.
+     */
+    static DbCursor getCursor(HttpServletRequest req) throws ParameterException {
+        String cursor = req.getParameter("cursor");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return DbCursor.parse(cursor.trim());
+        } catch (RuntimeException e) {
+            throw new ParameterException(INCORRECT_CURSOR);
+        }
+    }
+
+    static int getLimit(HttpServletRequest req) {
+        int firstIndex = getFirstIndex(req);
+        int lastIndex = getLastIndex(req);
+        return lastIndex >= firstIndex && lastIndex < Integer.MAX_VALUE ? lastIndex - firstIndex + 1 : Integer.MAX_VALUE;
+    }
+
     static int getNumberOfConfirmations(HttpServletRequest req) throws ParameterException {
         return getInt(req, "numberOfConfirmations", 0, Nxt.getBlockchain().getHeight(), false);
     }
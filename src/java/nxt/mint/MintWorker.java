@@ -51,6 +51,7 @@ import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MintWorker {
 
@@ -161,9 +162,11 @@ public class MintWorker {
     private JSONObject mintImpl(String secretPhrase, long accountId, long units, long currencyId, byte algorithm,
                                 long counter, byte[] target, long initialNonce, int threadPoolSize, ExecutorService executorService, BigInteger difficulty, boolean isSubmitted) {
         long startTime = System.currentTimeMillis();
+        AtomicLong hashCount = new AtomicLong();
+        long rangeSize = Long.MAX_VALUE / threadPoolSize * 2;
         List<Callable<Long>> workersList = new ArrayList<>();
         for (int i=0; i < threadPoolSize; i++) {
-            HashSolver hashSolver = new HashSolver(algorithm, currencyId, accountId, counter, units, initialNonce + i, target, threadPoolSize);
+            HashSolver hashSolver = new HashSolver(algorithm, currencyId, accountId, counter, units, initialNonce + i * rangeSize, target, hashCount);
             workersList.add(hashSolver);
         }
         long solution = solve(executorService, workersList);
@@ -171,7 +174,7 @@ public class MintWorker {
         if (computationTime == 0) {
             computationTime = 1;
         }
-        long hashes = solution - initialNonce;
+        long hashes = hashCount.get();
         float hashesPerDifficulty = BigInteger.valueOf(-1).equals(difficulty) ? 0 : (float) hashes / difficulty.floatValue();
         Logger.logInfoMessage("solution nonce %d unitsNQT %d counter %d computed hashes %d time [sec] %.2f hash rate [KH/Sec] %d actual time vs. expected %.2f is submitted %b",
                 solution, units, counter, hashes, (float) computationTime / 1000, hashes / computationTime, hashesPerDifficulty, isSubmitted);
@@ -327,6 +330,8 @@ public class MintWorker {
 
     private static class HashSolver implements Callable<Long> {
 
+        private static final int REPORT_INTERVAL = 1000000;
+
         private final HashFunction hashFunction;
         private final long currencyId;
         private final long accountId;
@@ -334,10 +339,10 @@ public class MintWorker {
         private final long units;
         private final long nonce;
         private final byte[] target;
-        private final int poolSize;
+        private final AtomicLong hashCount;
 
         private HashSolver(byte algorithm, long currencyId, long accountId, long counter, long units, long nonce,
-                           byte[] target, int poolSize) {
+                           byte[] target, AtomicLong hashCount) {
             this.hashFunction = HashFunction.getHashFunction(algorithm);
             this.currencyId = currencyId;
             this.accountId = accountId;
@@ -345,26 +350,38 @@ public class MintWorker {
             this.units = units;
             this.nonce = nonce;
             this.target = target;
-            this.poolSize = poolSize;
+            this.hashCount = hashCount;
         }
 
         @Override
         public Long call() {
+            byte[] input = CurrencyMinting.getHashInput(nonce, currencyId, units, counter, accountId);
+            byte[] hash = new byte[32];
+            long startTime = System.currentTimeMillis();
             long n = nonce;
+            int attempts = 0;
             while (!Thread.currentThread().isInterrupted()) {
-                byte[] hash = CurrencyMinting.getHash(hashFunction, n, currencyId, units, counter, accountId);
+                CurrencyMinting.setNonce(input, n);
+                hashFunction.hash(input, hash);
                 if (CurrencyMinting.meetsTarget(hash, target)) {
+                    hashCount.addAndGet(attempts + 1);
                     Logger.logDebugMessage("%s found solution hash %s nonce %d currencyId %d units %d counter %d accountId %d" +
                             " hash %s meets target %s",
                             Thread.currentThread().getName(), hashFunction, n, currencyId, units, counter, accountId,
                             Arrays.toString(hash), Arrays.toString(target));
                     return n;
                 }
-                n+=poolSize;
-                if (((n - nonce) % (poolSize * 1000000)) == 0) {
-                    Logger.logInfoMessage("%s computed %d [MH]", Thread.currentThread().getName(), (n - nonce) / poolSize / 1000000);
+                n++;
+                if (++attempts == REPORT_INTERVAL) {
+                    hashCount.addAndGet(attempts);
+                    attempts = 0;
+                    long hashes = n - nonce;
+                    long time = Math.max(System.currentTimeMillis() - startTime, 1);
+                    Logger.logInfoMessage("%s computed %d [MH] hash rate [KH/Sec] %d", Thread.currentThread().getName(),
+                            hashes / 1000000, hashes / time);
                 }
             }
+            hashCount.addAndGet(attempts);
             return null;
         }
     }
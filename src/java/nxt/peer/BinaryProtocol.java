@@ -0,0 +1,123 @@
+package nxt.peer;
+
+import nxt.NxtException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Binary encoding of the bulk peer requests, negotiated through the binaryProtocol field of getInfo.
+ * A request is the protocol version, the length prefixed request type and the request payload.
+ * A response is a status byte followed either by the payload or, on error, by the error message.
+ * Lists of blocks and transactions are sent as a count followed by length prefixed byte arrays,
+ * all numbers are little-endian like in the block and transaction bytes.
+ */
+public final class BinaryProtocol {
+
+    public static final int VERSION = 1;
+
+    static final String CONTENT_TYPE = "application/octet-stream";
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    private BinaryProtocol() {} //never
+
+    public static ByteBuffer allocate(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static ByteBuffer wrap(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static byte[] toBytes(Collection<byte[]> byteArrays) {
+        int length = 4;
+        for (byte[] bytes : byteArrays) {
+            length += 4 + bytes.length;
+        }
+        ByteBuffer buffer = allocate(length);
+        buffer.putInt(byteArrays.size());
+        for (byte[] bytes : byteArrays) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        return buffer.array();
+    }
+
+    public static List<byte[]> parseByteArrays(ByteBuffer buffer) throws NxtException.NotValidException {
+        int count = getLength(buffer, buffer.remaining() / 4);
+        List<byte[]> byteArrays = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[getLength(buffer, buffer.remaining())];
+            buffer.get(bytes);
+            byteArrays.add(bytes);
+        }
+        return byteArrays;
+    }
+
+    /*
+     * Transaction and block ids, as a count followed by the ids.
+     */
+    public static byte[] toIdBytes(Collection<Long> ids) {
+        ByteBuffer buffer = allocate(4 + 8 * ids.size());
+        buffer.putInt(ids.size());
+        for (Long id : ids) {
+            buffer.putLong(id);
+        }
+        return buffer.array();
+    }
+
+    public static List<Long> parseIds(ByteBuffer buffer) throws NxtException.NotValidException {
+        int count = getLength(buffer, buffer.remaining() / 8);
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(buffer.getLong());
+        }
+        return ids;
+    }
+
+    static byte[] toRequestBytes(String requestType, byte[] payload) {
+        byte[] requestTypeBytes = requestType.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = allocate(1 + 1 + requestTypeBytes.length + payload.length);
+        buffer.put((byte)VERSION);
+        buffer.put((byte)requestTypeBytes.length);
+        buffer.put(requestTypeBytes);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    static byte[] toErrorBytes(String message) {
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = allocate(1 + messageBytes.length);
+        buffer.put(STATUS_ERROR);
+        buffer.put(messageBytes);
+        return buffer.array();
+    }
+
+    static byte[] toResponseBytes(byte[] payload) {
+        ByteBuffer buffer = allocate(1 + payload.length);
+        buffer.put(STATUS_OK);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int getLength(ByteBuffer buffer, int maxLength) throws NxtException.NotValidException {
+        int length = buffer.getInt();
+        if (length < 0 || length > maxLength) {
+            throw new NxtException.NotValidException("Invalid length " + length);
+        }
+        return length;
+    }
+
+}
@@ -40,6 +40,8 @@ final class GetInfo extends PeerServlet.PeerRequestHandler {
         }
         peerImpl.setPlatform(platform.trim());
 
+        peerImpl.setBinaryProtocol(request.get("binaryProtocol"));
+        peerImpl.setTransactionInventory(request.get("transactionInventory"));
         peerImpl.setShareAddress(Boolean.TRUE.equals(request.get("shareAddress")));
         peerImpl.analyzeHallmark(peer.getPeerAddress(), (String)request.get("hallmark"));
         peerImpl.setLastUpdated(Nxt.getEpochTime());
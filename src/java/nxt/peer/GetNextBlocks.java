@@ -8,6 +8,7 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,14 +26,42 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
         JSONArray nextBlocksArray = new JSONArray();
 
         long blockId = Convert.parseUnsignedLong((String) request.get("blockId"));
-        List<? extends Block> blocks = Nxt.getBlockchain().getBlocksAfter(blockId, 720);
+        int limit = 720;
+        Object limitValue = request.get("limit");
+        if (limitValue != null) {
+            if (!(limitValue instanceof Long)) {
+                JSONObject error = new JSONObject();
+                error.put("error", "Invalid limit");
+                return error;
+            }
+            limit = (int) Math.max(1, Math.min(limit, (Long) limitValue));
+        }
+        List<? extends Block> blocks = Nxt.getBlockchain().getBlocksAfter(blockId, limit);
 
         for (Block block : blocks) {
-            nextBlocksArray.add(block.getJSONObject());
+            nextBlocksArray.add(block.getPreparedJSON());
         }
         response.put("nextBlocks", nextBlocksArray);
 
         return response;
     }
 
+    @Override
+    byte[] processBinaryRequest(ByteBuffer request, Peer peer) {
+
+        long blockId = request.getLong();
+        int limit = Math.max(1, Math.min(720, request.getInt()));
+        List<? extends Block> blocks = Nxt.getBlockchain().getBlocksAfter(blockId, limit);
+
+        List<byte[]> nextBlocksBytes = new ArrayList<>(blocks.size());
+        for (Block block : blocks) {
+            byte[] blockBytes = block.getCompactBytes();
+            if (blockBytes == null) {
+                break; // the following blocks can only be sent as JSON
+            }
+            nextBlocksBytes.add(blockBytes);
+        }
+        return BinaryProtocol.toBytes(nextBlocksBytes);
+    }
+
 }
@@ -0,0 +1,42 @@
+package nxt.peer;
+
+import nxt.Nxt;
+import nxt.Transaction;
+import nxt.util.JSON;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+final class GetUnconfirmedTransactionIds extends PeerServlet.PeerRequestHandler {
+
+    static final GetUnconfirmedTransactionIds instance = new GetUnconfirmedTransactionIds();
+
+    private GetUnconfirmedTransactionIds() {}
+
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+
+        JSONObject response = new JSONObject();
+        response.put("unconfirmedTransactionIds", JSON.toIdArray(getUnconfirmedTransactionIds()));
+        return response;
+    }
+
+    @Override
+    byte[] processBinaryRequest(ByteBuffer request, Peer peer) {
+        return BinaryProtocol.toIdBytes(getUnconfirmedTransactionIds());
+    }
+
+    private static List<Long> getUnconfirmedTransactionIds() {
+        List<? extends Transaction> transactions = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions();
+        List<Long> transactionIds = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions.subList(0, Math.min(transactions.size(), Peers.MAX_TRANSACTION_INVENTORY))) {
+            transactionIds.add(transaction.getId());
+        }
+        return transactionIds;
+    }
+
+}
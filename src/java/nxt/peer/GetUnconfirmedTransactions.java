@@ -1,12 +1,21 @@
 package nxt.peer;
 
 import nxt.Nxt;
+import nxt.NxtException;
 import nxt.Transaction;
-import nxt.db.DbIterator;
+import nxt.util.JSON;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * All the unconfirmed transactions, or only those of the requested ids, at most Peers.MAX_REQUESTED_TRANSACTIONS of them.
+ */
 final class GetUnconfirmedTransactions extends PeerServlet.PeerRequestHandler {
 
     static final GetUnconfirmedTransactions instance = new GetUnconfirmedTransactions();
@@ -19,12 +28,10 @@ final class GetUnconfirmedTransactions extends PeerServlet.PeerRequestHandler {
 
         JSONObject response = new JSONObject();
 
+        JSONArray transactionIds = (JSONArray) request.get("transactionIds");
         JSONArray transactionsData = new JSONArray();
-        try (DbIterator<? extends Transaction> transactions = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()) {
-            while (transactions.hasNext()) {
-                Transaction transaction = transactions.next();
-                transactionsData.add(transaction.getJSONObject());
-            }
+        for (Transaction transaction : getUnconfirmedTransactions(transactionIds == null ? null : JSON.parseIdArray(transactionIds))) {
+            transactionsData.add(transaction.getPreparedJSON());
         }
         response.put("unconfirmedTransactions", transactionsData);
 
@@ -32,4 +39,31 @@ final class GetUnconfirmedTransactions extends PeerServlet.PeerRequestHandler {
         return response;
     }
 
+    @Override
+    byte[] processBinaryRequest(ByteBuffer request, Peer peer) throws NxtException.ValidationException {
+
+        List<byte[]> transactionsBytes = new ArrayList<>();
+        for (Transaction transaction : getUnconfirmedTransactions(request.hasRemaining() ? BinaryProtocol.parseIds(request) : null)) {
+            transactionsBytes.add(transaction.getPreparedBytes());
+        }
+        return BinaryProtocol.toBytes(transactionsBytes);
+    }
+
+    private static List<? extends Transaction> getUnconfirmedTransactions(List<Long> transactionIds) {
+        if (transactionIds == null) {
+            return Nxt.getTransactionProcessor().getAllUnconfirmedTransactions();
+        }
+        if (transactionIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Transaction> transactions = new ArrayList<>();
+        for (Long transactionId : transactionIds.subList(0, Math.min(transactionIds.size(), Peers.MAX_REQUESTED_TRANSACTIONS))) {
+            Transaction transaction = Nxt.getTransactionProcessor().getUnconfirmedTransaction(transactionId);
+            if (transaction != null) {
+                transactions.add(transaction);
+            }
+        }
+        return transactions;
+    }
+
 }
@@ -3,6 +3,11 @@ package nxt.peer;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
 public interface Peer extends Comparable<Peer> {
 
     public static enum State {
@@ -47,8 +52,34 @@ public interface Peer extends Comparable<Peer> {
 
     long getUploadedVolume();
 
+    long getReceivedTransactions();
+
+    long getDuplicateTransactions();
+
+    void updateTransactionCounts(int received, int duplicates);
+
     int getLastUpdated();
 
     JSONObject send(JSONStreamAware request);
 
+    Future<JSONObject> sendAsync(JSONStreamAware request);
+
+    boolean isBinaryProtocolSupported();
+
+    ByteBuffer sendBinary(String requestType, byte[] request);
+
+    Future<ByteBuffer> sendBinaryAsync(String requestType, byte[] request);
+
+    boolean isTransactionInventorySupported();
+
+    /*
+     * Records that the peer has these transactions, as announced or reported by the peer itself.
+     */
+    void addKnownTransactions(Collection<Long> transactionIds);
+
+    /*
+     * The transactions not known to be had by the peer.
+     */
+    List<Long> getUnknownTransactions(Collection<Long> transactionIds);
+
 }
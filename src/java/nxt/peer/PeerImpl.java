@@ -13,12 +13,14 @@ import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringWriter;
@@ -32,9 +34,17 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
 final class PeerImpl implements Peer {
@@ -53,9 +63,20 @@ final class PeerImpl implements Peer {
     private volatile State state;
     private volatile long downloadedVolume;
     private volatile long uploadedVolume;
+    private volatile long receivedTransactions;
+    private volatile long duplicateTransactions;
     private volatile int lastUpdated;
     private volatile long hallmarkBalance = -1;
     private volatile int hallmarkBalanceHeight;
+    private volatile int binaryProtocol;
+    private volatile boolean transactionInventory;
+    private final Map<Long,Boolean> knownTransactions = new LinkedHashMap<Long,Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long,Boolean> eldest) {
+            return size() > Peers.maxKnownTransactions;
+        }
+    };
+    private final Semaphore requestPermits = new Semaphore(Peers.maxRequestsInFlight);
 
     PeerImpl(String peerAddress, String announcedAddress) {
         this.peerAddress = peerAddress;
@@ -116,6 +137,65 @@ final class PeerImpl implements Peer {
         Peers.notifyListeners(this, Peers.Event.UPLOADED_VOLUME);
     }
 
+    @Override
+    public long getReceivedTransactions() {
+        return receivedTransactions;
+    }
+
+    /*
+     * Relayed transactions dropped as already seen, out of those received.
+     */
+    @Override
+    public long getDuplicateTransactions() {
+        return duplicateTransactions;
+    }
+
+    @Override
+    public synchronized void updateTransactionCounts(int received, int duplicates) {
+        receivedTransactions += received;
+        duplicateTransactions += duplicates;
+    }
+
+    @Override
+    public boolean isBinaryProtocolSupported() {
+        return Peers.enableBinaryProtocol && binaryProtocol == BinaryProtocol.VERSION;
+    }
+
+    void setBinaryProtocol(Object binaryProtocol) {
+        this.binaryProtocol = binaryProtocol instanceof Number ? ((Number)binaryProtocol).intValue() : 0;
+    }
+
+    @Override
+    public boolean isTransactionInventorySupported() {
+        return Peers.enableTransactionInventory && transactionInventory;
+    }
+
+    void setTransactionInventory(Object transactionInventory) {
+        this.transactionInventory = Boolean.TRUE.equals(transactionInventory);
+    }
+
+    @Override
+    public void addKnownTransactions(Collection<Long> transactionIds) {
+        synchronized (knownTransactions) {
+            for (Long transactionId : transactionIds) {
+                knownTransactions.put(transactionId, Boolean.TRUE);
+            }
+        }
+    }
+
+    @Override
+    public List<Long> getUnknownTransactions(Collection<Long> transactionIds) {
+        List<Long> unknownTransactionIds = new ArrayList<>();
+        synchronized (knownTransactions) {
+            for (Long transactionId : transactionIds) {
+                if (!knownTransactions.containsKey(transactionId)) {
+                    unknownTransactionIds.add(transactionId);
+                }
+            }
+        }
+        return unknownTransactionIds;
+    }
+
     @Override
     public String getVersion() {
         return version;
@@ -299,6 +379,42 @@ final class PeerImpl implements Peer {
 
     @Override
     public JSONObject send(final JSONStreamAware request) {
+        if (!acquireRequestPermit()) {
+            return null;
+        }
+        try {
+            return doSend(request);
+        } finally {
+            requestPermits.release();
+        }
+    }
+
+    /*
+     * Does not wait for a request permit, returns null if all of them are in use.
+     */
+    @Override
+    public Future<JSONObject> sendAsync(final JSONStreamAware request) {
+        if (!requestPermits.tryAcquire()) {
+            return null;
+        }
+        try {
+            return Peers.peersService.submit(new Callable<JSONObject>() {
+                @Override
+                public JSONObject call() {
+                    try {
+                        return doSend(request);
+                    } finally {
+                        requestPermits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            requestPermits.release();
+            throw e;
+        }
+    }
+
+    private JSONObject doSend(final JSONStreamAware request) {
 
         JSONObject response;
 
@@ -308,15 +424,7 @@ final class PeerImpl implements Peer {
 
         try {
 
-            String address = announcedAddress != null ? announcedAddress : peerAddress;
-            StringBuilder buf = new StringBuilder("http://");
-            buf.append(address);
-            if (port <= 0) {
-                buf.append(':');
-                buf.append(Peers.getDefaultPeerPort());
-            }
-            buf.append("/nxt");
-            URL url = new URL(buf.toString());
+            URL url = getUrl();
 
             if (Peers.communicationLoggingMask != 0) {
                 StringWriter stringWriter = new StringWriter();
@@ -324,12 +432,7 @@ final class PeerImpl implements Peer {
                 log = "\"" + url.toString() + "\": " + stringWriter.toString();
             }
 
-            connection = (HttpURLConnection)url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(Peers.connectTimeout);
-            connection.setReadTimeout(Peers.readTimeout);
-            connection.setRequestProperty("Accept-Encoding", "gzip");
+            connection = openConnection(url);
 
             CountingOutputStream cos = new CountingOutputStream(connection.getOutputStream());
             try (Writer writer = new BufferedWriter(new OutputStreamWriter(cos, "UTF-8"))) {
@@ -371,6 +474,7 @@ final class PeerImpl implements Peer {
                     log += " >>> Peer responded with HTTP " + connection.getResponseCode() + " code!";
                     showLog = true;
                 }
+                closeErrorStream(connection);
                 if (state == State.CONNECTED) {
                     setState(State.DISCONNECTED);
                 } else {
@@ -391,6 +495,9 @@ final class PeerImpl implements Peer {
             if (state == State.CONNECTED) {
                 setState(State.DISCONNECTED);
             }
+            if (connection != null) {
+                connection.disconnect();
+            }
             response = null;
         }
 
@@ -398,14 +505,189 @@ final class PeerImpl implements Peer {
             Logger.logMessage(log + "\n");
         }
 
-        if (connection != null) {
-            connection.disconnect();
+        return response;
+
+    }
+
+    @Override
+    public ByteBuffer sendBinary(String requestType, byte[] request) {
+        if (!acquireRequestPermit()) {
+            return null;
+        }
+        try {
+            return doSendBinary(requestType, request);
+        } finally {
+            requestPermits.release();
+        }
+    }
+
+    /*
+     * Does not wait for a request permit, returns null if all of them are in use.
+     */
+    @Override
+    public Future<ByteBuffer> sendBinaryAsync(final String requestType, final byte[] request) {
+        if (!requestPermits.tryAcquire()) {
+            return null;
+        }
+        try {
+            return Peers.peersService.submit(new Callable<ByteBuffer>() {
+                @Override
+                public ByteBuffer call() {
+                    try {
+                        return doSendBinary(requestType, request);
+                    } finally {
+                        requestPermits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            requestPermits.release();
+            throw e;
+        }
+    }
+
+    private ByteBuffer doSendBinary(String requestType, byte[] request) {
+
+        ByteBuffer response;
+
+        String log = null;
+        boolean showLog = false;
+        HttpURLConnection connection = null;
+
+        try {
+
+            URL url = getUrl();
+
+            if (Peers.communicationLoggingMask != 0) {
+                log = "\"" + url.toString() + "\": binary " + requestType + " [" + request.length + " bytes]";
+            }
+
+            connection = openConnection(url);
+            connection.setRequestProperty("Content-Type", BinaryProtocol.CONTENT_TYPE);
+
+            CountingOutputStream cos = new CountingOutputStream(connection.getOutputStream());
+            try (OutputStream outputStream = new BufferedOutputStream(cos)) {
+                outputStream.write(BinaryProtocol.toRequestBytes(requestType, request));
+            }
+            updateUploadedVolume(cos.getCount());
+
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                CountingInputStream cis = new CountingInputStream(connection.getInputStream());
+                InputStream responseStream = cis;
+                if ("gzip".equals(connection.getHeaderField("Content-Encoding"))) {
+                    responseStream = new GZIPInputStream(cis);
+                }
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int numberOfBytes;
+                try (InputStream inputStream = responseStream) {
+                    while ((numberOfBytes = inputStream.read(buffer, 0, buffer.length)) > 0) {
+                        byteArrayOutputStream.write(buffer, 0, numberOfBytes);
+                    }
+                }
+                updateDownloadedVolume(cis.getCount());
+                response = BinaryProtocol.wrap(byteArrayOutputStream.toByteArray());
+                if (response.get() != BinaryProtocol.STATUS_OK) {
+                    String error = BinaryProtocol.getString(response);
+                    Logger.logDebugMessage("Peer " + peerAddress + " returned error for binary " + requestType + ": " + error);
+                    if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
+                        log += " >>> " + error;
+                        showLog = true;
+                    }
+                    response = null;
+                } else if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
+                    log += " >>> [" + response.remaining() + " bytes]";
+                    showLog = true;
+                }
+            } else {
+
+                if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_NON200_RESPONSES) != 0) {
+                    log += " >>> Peer responded with HTTP " + connection.getResponseCode() + " code!";
+                    showLog = true;
+                }
+                closeErrorStream(connection);
+                if (state == State.CONNECTED) {
+                    setState(State.DISCONNECTED);
+                } else {
+                    setState(State.NON_CONNECTED);
+                }
+                response = null;
+
+            }
+
+        } catch (RuntimeException|IOException e) {
+            if (! (e instanceof UnknownHostException || e instanceof SocketTimeoutException || e instanceof SocketException)) {
+                Logger.logDebugMessage("Error sending binary request", e);
+            }
+            if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_EXCEPTIONS) != 0) {
+                log += " >>> " + e.toString();
+                showLog = true;
+            }
+            if (state == State.CONNECTED) {
+                setState(State.DISCONNECTED);
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+            response = null;
+        }
+
+        if (showLog) {
+            Logger.logMessage(log + "\n");
         }
 
         return response;
 
     }
 
+    private URL getUrl() throws MalformedURLException {
+        String address = announcedAddress != null ? announcedAddress : peerAddress;
+        StringBuilder buf = new StringBuilder("http://");
+        buf.append(address);
+        if (port <= 0) {
+            buf.append(':');
+            buf.append(Peers.getDefaultPeerPort());
+        }
+        buf.append("/nxt");
+        return new URL(buf.toString());
+    }
+
+    /*
+     * Connections are not disconnected after a completed request, as long as the response has been read
+     * to the end and closed the JDK keeps the socket alive and reuses it for the next request to this peer.
+     */
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(Peers.connectTimeout);
+        connection.setReadTimeout(Peers.readTimeout);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        return connection;
+    }
+
+    private static void closeErrorStream(HttpURLConnection connection) throws IOException {
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+            try (InputStream inputStream = errorStream) {
+                byte[] buffer = new byte[1024];
+                while (inputStream.read(buffer, 0, buffer.length) > 0) {}
+            }
+        }
+    }
+
+    private boolean acquireRequestPermit() {
+        try {
+            if (requestPermits.tryAcquire(Peers.connectTimeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            Logger.logDebugMessage("Too many requests in flight to peer " + peerAddress);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
     @Override
     public int compareTo(Peer o) {
         if (getWeight() > o.getWeight()) {
@@ -423,6 +705,8 @@ final class PeerImpl implements Peer {
             setVersion((String) response.get("version"));
             platform = (String)response.get("platform");
             shareAddress = Boolean.TRUE.equals(response.get("shareAddress"));
+            setBinaryProtocol(response.get("binaryProtocol"));
+            setTransactionInventory(response.get("transactionInventory"));
             String newAnnouncedAddress = Convert.emptyToNull((String)response.get("announcedAddress"));
             if (newAnnouncedAddress != null && ! newAnnouncedAddress.equals(announcedAddress)) {
                 // force verification of changed announced address
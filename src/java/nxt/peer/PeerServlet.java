@@ -1,5 +1,6 @@
 package nxt.peer;
 
+import nxt.NxtException;
 import nxt.util.CountingInputStream;
 import nxt.util.CountingOutputStream;
 import nxt.util.JSON;
@@ -15,11 +16,16 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -28,6 +34,9 @@ public final class PeerServlet extends HttpServlet {
 
     abstract static class PeerRequestHandler {
         abstract JSONStreamAware processRequest(JSONObject request, Peer peer);
+        byte[] processBinaryRequest(ByteBuffer request, Peer peer) throws NxtException.ValidationException {
+            return null; // binary protocol not supported for this request type
+        }
     }
 
     private static final Map<String,PeerRequestHandler> peerRequestHandlers;
@@ -41,8 +50,10 @@ public final class PeerServlet extends HttpServlet {
         map.put("getNextBlockIds", GetNextBlockIds.instance);
         map.put("getNextBlocks", GetNextBlocks.instance);
         map.put("getPeers", GetPeers.instance);
+        map.put("getUnconfirmedTransactionIds", GetUnconfirmedTransactionIds.instance);
         map.put("getUnconfirmedTransactions", GetUnconfirmedTransactions.instance);
         map.put("processBlock", ProcessBlock.instance);
+        map.put("processTransactionInventory", ProcessTransactionInventory.instance);
         map.put("processTransactions", ProcessTransactions.instance);
         peerRequestHandlers = Collections.unmodifiableMap(map);
     }
@@ -54,6 +65,9 @@ public final class PeerServlet extends HttpServlet {
         UNSUPPORTED_REQUEST_TYPE = JSON.prepare(response);
     }
 
+    private static final byte[] UNSUPPORTED_BINARY_REQUEST_TYPE = BinaryProtocol.toErrorBytes("Unsupported request type!");
+    private static final byte[] UNSUPPORTED_BINARY_PROTOCOL = BinaryProtocol.toErrorBytes("Unsupported protocol!");
+
     private static final JSONStreamAware UNSUPPORTED_PROTOCOL;
     static {
         JSONObject response = new JSONObject();
@@ -72,6 +86,11 @@ public final class PeerServlet extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 
+        if (BinaryProtocol.CONTENT_TYPE.equals(req.getContentType())) {
+            doBinaryPost(req, resp);
+            return;
+        }
+
         PeerImpl peer = null;
         JSONStreamAware response;
 
@@ -146,4 +165,89 @@ public final class PeerServlet extends HttpServlet {
         }
     }
 
+    private void doBinaryPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        PeerImpl peer = null;
+        byte[] response;
+
+        try {
+            peer = Peers.addPeer(req.getRemoteAddr(), -1, null);
+            if (peer == null) {
+                return;
+            }
+            if (peer.isBlacklisted()) {
+                return;
+            }
+
+            ByteBuffer request;
+            CountingInputStream cis = new CountingInputStream(req.getInputStream());
+            try (InputStream inputStream = cis) {
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int numberOfBytes;
+                while ((numberOfBytes = inputStream.read(buffer, 0, buffer.length)) > 0) {
+                    byteArrayOutputStream.write(buffer, 0, numberOfBytes);
+                }
+                request = BinaryProtocol.wrap(byteArrayOutputStream.toByteArray());
+            }
+
+            if (peer.getState() == Peer.State.DISCONNECTED) {
+                peer.setState(Peer.State.CONNECTED);
+                if (peer.getAnnouncedAddress() != null) {
+                    Peers.updateAddress(peer);
+                }
+            }
+            peer.updateDownloadedVolume(cis.getCount());
+
+            int protocol = request.get();
+            if (!Peers.enableBinaryProtocol) {
+                Logger.logDebugMessage("Binary peer protocol disabled, rejecting binary request");
+                response = UNSUPPORTED_BINARY_PROTOCOL;
+            } else if (protocol == BinaryProtocol.VERSION) {
+                byte[] requestTypeBytes = new byte[request.get()];
+                request.get(requestTypeBytes);
+                PeerRequestHandler peerRequestHandler = peerRequestHandlers.get(new String(requestTypeBytes, StandardCharsets.US_ASCII));
+                byte[] payload = peerRequestHandler != null ? peerRequestHandler.processBinaryRequest(request, peer) : null;
+                response = payload != null ? BinaryProtocol.toResponseBytes(payload) : UNSUPPORTED_BINARY_REQUEST_TYPE;
+            } else {
+                Logger.logDebugMessage("Unsupported binary protocol " + protocol);
+                response = UNSUPPORTED_BINARY_PROTOCOL;
+            }
+
+        } catch (NxtException.ValidationException e) {
+            Logger.logDebugMessage("Invalid binary POST request", e);
+            if (peer != null) {
+                peer.blacklist(e);
+            }
+            response = BinaryProtocol.toErrorBytes(e.toString());
+        } catch (RuntimeException e) {
+            Logger.logDebugMessage("Error processing binary POST request", e);
+            response = BinaryProtocol.toErrorBytes(e.toString());
+        }
+
+        resp.setContentType(BinaryProtocol.CONTENT_TYPE);
+        try {
+            long byteCount;
+            if (isGzipEnabled) {
+                try (OutputStream outputStream = resp.getOutputStream()) {
+                    outputStream.write(response);
+                }
+                byteCount = ((Response) ((CompressedResponseWrapper) resp).getResponse()).getContentCount();
+            } else {
+                try (CountingOutputStream cos = new CountingOutputStream(resp.getOutputStream())) {
+                    cos.write(response);
+                    byteCount = cos.getCount();
+                }
+            }
+            if (peer != null) {
+                peer.updateUploadedVolume(byteCount);
+            }
+        } catch (Exception e) {
+            if (peer != null) {
+                peer.blacklist(e);
+            }
+            throw e;
+        }
+    }
+
 }
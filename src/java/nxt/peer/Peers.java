@@ -28,6 +28,7 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -70,6 +71,11 @@ public final class Peers {
 
     private static final int DEFAULT_PEER_PORT = 7874;
     private static final int TESTNET_PEER_PORT = 6874;
+
+    // the most transactions returned for a getUnconfirmedTransactions request listing their ids
+    public static final int MAX_REQUESTED_TRANSACTIONS = 100;
+    public static final int MAX_TRANSACTION_INVENTORY = 10000;
+
     private static final String myPlatform;
     private static final String myAddress;
     private static final int myPeerServerPort;
@@ -85,6 +91,10 @@ public final class Peers {
     private static final boolean usePeersDb;
     private static final boolean savePeers;
     private static final String dumpPeersVersion;
+    static final boolean enableBinaryProtocol;
+    static final boolean enableTransactionInventory;
+    static final int maxKnownTransactions;
+    static final int maxRequestsInFlight;
 
 
     static final JSONStreamAware myPeerInfoRequest;
@@ -98,7 +108,7 @@ public final class Peers {
     static final Collection<PeerImpl> allPeers = Collections.unmodifiableCollection(peers.values());
 
     static final ExecutorService peersService = Executors.newCachedThreadPool();
-    private static final ExecutorService sendingService = Executors.newFixedThreadPool(10);
+    private static final ExecutorService sendingService = Executors.newFixedThreadPool(Math.max(Nxt.getIntProperty("nxt.sendToPeersThreads"), 1));
 
     static {
 
@@ -130,6 +140,10 @@ public final class Peers {
             }
         }
 
+        enableBinaryProtocol = Nxt.getBooleanProperty("nxt.enableBinaryPeerProtocol");
+        enableTransactionInventory = Nxt.getBooleanProperty("nxt.enableTransactionInventory");
+        maxKnownTransactions = Nxt.getIntProperty("nxt.maxKnownTransactionsPerPeer");
+
         JSONObject json = new JSONObject();
         if (myAddress != null && myAddress.length() > 0) {
             try {
@@ -156,6 +170,12 @@ public final class Peers {
         json.put("version", Nxt.VERSION);
         json.put("platform", Peers.myPlatform);
         json.put("shareAddress", Peers.shareMyAddress);
+        if (enableBinaryProtocol) {
+            json.put("binaryProtocol", BinaryProtocol.VERSION);
+        }
+        if (enableTransactionInventory) {
+            json.put("transactionInventory", true);
+        }
         Logger.logDebugMessage("My peer info:\n" + json.toJSONString());
         myPeerInfoResponse = JSON.prepare(json);
         json.put("requestType", "getInfo");
@@ -181,6 +201,7 @@ public final class Peers {
         minNumberOfKnownPeers = Nxt.getIntProperty("nxt.minNumberOfKnownPeers");
         connectTimeout = Nxt.getIntProperty("nxt.connectTimeout");
         readTimeout = Nxt.getIntProperty("nxt.readTimeout");
+        maxRequestsInFlight = Math.max(1, Nxt.getIntProperty("nxt.maxPeerRequestsInFlight"));
         enableHallmarkProtection = Nxt.getBooleanProperty("nxt.enableHallmarkProtection");
         pushThreshold = Nxt.getIntProperty("nxt.pushThreshold");
         pullThreshold = Nxt.getIntProperty("nxt.pullThreshold");
@@ -548,6 +569,10 @@ public final class Peers {
         Peers.listeners.notify(peer, eventType);
     }
 
+    public static int getMaxRequestsInFlight() {
+        return maxRequestsInFlight;
+    }
+
     public static int getDefaultPeerPort() {
         return Constants.isTestnet ? TESTNET_PEER_PORT : DEFAULT_PEER_PORT;
     }
@@ -708,50 +733,89 @@ public final class Peers {
     }
     
     public static void sendToSomePeers(Block block) {
-        JSONObject request = block.getJSONObject();
-        request.put("requestType", "processBlock");
-        sendToSomePeers(request);
+        final JSONStreamAware jsonRequest = JSON.prepareRequest("processBlock", block.getPreparedJSON());
+        final byte[] binaryRequest = block.getCompactBytes();
+        sendToSomePeers(new PeerRequest() {
+            @Override
+            Future<?> send(PeerImpl peer) {
+                return peer.isBinaryProtocolSupported() && binaryRequest != null ? peer.sendBinaryAsync("processBlock", binaryRequest)
+                        : peer.sendAsync(jsonRequest);
+            }
+        });
     }
 
     public static void sendToSomePeers(List<? extends Transaction> transactions) {
+        sendToSomePeers(transactions, false);
+    }
+
+    /*
+     * Peers supporting transaction inventories are only sent the ids of the transactions, and request those they
+     * are missing, the others are sent all the transactions. Unless rebroadcasting, the ids the peer has already
+     * announced or reported to us are left out.
+     */
+    public static void sendToSomePeers(List<? extends Transaction> transactions, final boolean rebroadcast) {
         JSONObject request = new JSONObject();
         JSONArray transactionsData = new JSONArray();
+        List<byte[]> transactionsBytes = new ArrayList<>(transactions.size());
+        final List<Long> transactionIds = new ArrayList<>(transactions.size());
         for (Transaction transaction : transactions) {
-            transactionsData.add(transaction.getJSONObject());
+            transactionsData.add(transaction.getPreparedJSON());
+            transactionsBytes.add(transaction.getPreparedBytes());
+            transactionIds.add(transaction.getId());
         }
         request.put("requestType", "processTransactions");
         request.put("transactions", transactionsData);
-        sendToSomePeers(request);
+        final JSONStreamAware jsonRequest = JSON.prepareRequest(request);
+        final byte[] binaryRequest = BinaryProtocol.toBytes(transactionsBytes);
+        sendToSomePeers(new PeerRequest() {
+            @Override
+            Future<?> send(PeerImpl peer) {
+                if (peer.isTransactionInventorySupported()) {
+                    List<Long> unknownTransactionIds = rebroadcast ? transactionIds : peer.getUnknownTransactions(transactionIds);
+                    if (unknownTransactionIds.isEmpty()) {
+                        return null;
+                    }
+                    if (peer.isBinaryProtocolSupported()) {
+                        return peer.sendBinaryAsync("processTransactionInventory", BinaryProtocol.toIdBytes(unknownTransactionIds));
+                    }
+                    JSONObject inventoryRequest = new JSONObject();
+                    inventoryRequest.put("requestType", "processTransactionInventory");
+                    inventoryRequest.put("transactionIds", JSON.toIdArray(unknownTransactionIds));
+                    return peer.sendAsync(JSON.prepareRequest(inventoryRequest));
+                }
+                return peer.isBinaryProtocolSupported() ? peer.sendBinaryAsync("processTransactions", binaryRequest) : peer.sendAsync(jsonRequest);
+            }
+        });
     }
 
-    private static void sendToSomePeers(final JSONObject request) {
+    private abstract static class PeerRequest {
+        abstract Future<?> send(PeerImpl peer); // null if there is nothing to send to that peer, or it is busy
+    }
+
+    private static void sendToSomePeers(final PeerRequest peerRequest) {
         sendingService.submit(new Runnable() {
             @Override
             public void run() {
-                final JSONStreamAware jsonRequest = JSON.prepareRequest(request);
-
                 int successful = 0;
-                List<Future<JSONObject>> expectedResponses = new ArrayList<>();
-                for (final Peer peer : peers.values()) {
+                List<Future<?>> expectedResponses = new ArrayList<>();
+                for (final PeerImpl peer : peers.values()) {
 
                     if (Peers.enableHallmarkProtection && peer.getWeight() < Peers.pushThreshold) {
                         continue;
                     }
 
                     if (!peer.isBlacklisted() && peer.getState() == Peer.State.CONNECTED && peer.getAnnouncedAddress() != null) {
-                        Future<JSONObject> futureResponse = peersService.submit(new Callable<JSONObject>() {
-                            @Override
-                            public JSONObject call() {
-                                return peer.send(jsonRequest);
-                            }
-                        });
-                        expectedResponses.add(futureResponse);
+                        Future<?> response = peerRequest.send(peer);
+                        if (response != null) {
+                            expectedResponses.add(response);
+                        }
                     }
                     if (expectedResponses.size() >= Peers.sendToPeersLimit - successful) {
-                        for (Future<JSONObject> future : expectedResponses) {
+                        for (Future<?> future : expectedResponses) {
                             try {
-                                JSONObject response = future.get();
-                                if (response != null && response.get("error") == null) {
+                                Object response = future.get();
+                                if (response instanceof ByteBuffer
+                                        || (response instanceof JSONObject && ((JSONObject) response).get("error") == null)) {
                                     successful += 1;
                                 }
                             } catch (InterruptedException e) {
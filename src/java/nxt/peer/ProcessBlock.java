@@ -6,10 +6,14 @@ import nxt.util.JSON;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.nio.ByteBuffer;
+
 final class ProcessBlock extends PeerServlet.PeerRequestHandler {
 
     static final ProcessBlock instance = new ProcessBlock();
 
+    private static final byte[] EMPTY_RESPONSE = new byte[0];
+
     private ProcessBlock() {}
 
     @Override
@@ -31,4 +35,24 @@ final class ProcessBlock extends PeerServlet.PeerRequestHandler {
         return JSON.emptyJSON;
     }
 
+    @Override
+    byte[] processBinaryRequest(ByteBuffer request, final Peer peer) {
+        final byte[] blockBytes = new byte[request.remaining()];
+        request.get(blockBytes);
+        // the compact block bytes start with the timestamp, followed by the previous block id
+        if (Nxt.getBlockchain().getLastBlock().getId() == BinaryProtocol.wrap(blockBytes).getLong(4)) {
+            Peers.peersService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Nxt.getBlockchainProcessor().processPeerBlock(blockBytes);
+                    } catch (NxtException | RuntimeException e) {
+                        peer.blacklist(e);
+                    }
+                }
+            });
+        }
+        return EMPTY_RESPONSE;
+    }
+
 }
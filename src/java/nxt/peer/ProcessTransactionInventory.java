@@ -0,0 +1,65 @@
+package nxt.peer;
+
+import nxt.Nxt;
+import nxt.NxtException;
+import nxt.util.JSON;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/*
+ * The ids of new transactions announced by a peer, at most Peers.MAX_TRANSACTION_INVENTORY of them, the missing ones
+ * are then requested from it.
+ */
+final class ProcessTransactionInventory extends PeerServlet.PeerRequestHandler {
+
+    static final ProcessTransactionInventory instance = new ProcessTransactionInventory();
+
+    private static final byte[] EMPTY_RESPONSE = new byte[0];
+
+    private ProcessTransactionInventory() {}
+
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+
+        try {
+            processInventory(JSON.parseIdArray((JSONArray) request.get("transactionIds")), peer);
+            return JSON.emptyJSON;
+        } catch (NxtException.ValidationException | RuntimeException e) {
+            peer.blacklist(e);
+            JSONObject response = new JSONObject();
+            response.put("error", e.toString());
+            return response;
+        }
+
+    }
+
+    @Override
+    byte[] processBinaryRequest(ByteBuffer request, Peer peer) throws NxtException.ValidationException {
+        processInventory(BinaryProtocol.parseIds(request), peer);
+        return EMPTY_RESPONSE;
+    }
+
+    private static void processInventory(final List<Long> transactionIds, final Peer peer) throws NxtException.ValidationException {
+        if (transactionIds.size() > Peers.MAX_TRANSACTION_INVENTORY) {
+            throw new NxtException.NotValidException("Transaction inventory of " + transactionIds.size() + " ids exceeds "
+                    + Peers.MAX_TRANSACTION_INVENTORY);
+        }
+        peer.addKnownTransactions(transactionIds);
+        Peers.peersService.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Nxt.getTransactionProcessor().processPeerTransactionInventory(transactionIds, peer);
+                } catch (NxtException.ValidationException | RuntimeException e) {
+                    peer.blacklist(e);
+                }
+            }
+        });
+    }
+
+}
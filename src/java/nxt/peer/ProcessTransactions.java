@@ -6,10 +6,14 @@ import nxt.util.JSON;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.nio.ByteBuffer;
+
 final class ProcessTransactions extends PeerServlet.PeerRequestHandler {
 
     static final ProcessTransactions instance = new ProcessTransactions();
 
+    private static final byte[] EMPTY_RESPONSE = new byte[0];
+
     private ProcessTransactions() {}
 
 
@@ -17,7 +21,7 @@ final class ProcessTransactions extends PeerServlet.PeerRequestHandler {
     JSONStreamAware processRequest(JSONObject request, Peer peer) {
 
         try {
-            Nxt.getTransactionProcessor().processPeerTransactions(request);
+            Nxt.getTransactionProcessor().processPeerTransactions(request, peer);
             return JSON.emptyJSON;
         } catch (RuntimeException | NxtException.ValidationException e) {
             //Logger.logDebugMessage("Failed to parse peer transactions: " + request.toJSONString());
@@ -29,4 +33,10 @@ final class ProcessTransactions extends PeerServlet.PeerRequestHandler {
 
     }
 
+    @Override
+    byte[] processBinaryRequest(ByteBuffer request, Peer peer) throws NxtException.ValidationException {
+        Nxt.getTransactionProcessor().processPeerTransactions(BinaryProtocol.parseByteArrays(request), peer);
+        return EMPTY_RESPONSE;
+    }
+
 }
@@ -1,10 +1,15 @@
 package nxt.util;
 
+import org.json.simple.JSONArray;
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 public final class JSON {
 
@@ -13,13 +18,7 @@ public final class JSON {
     public final static JSONStreamAware emptyJSON = prepare(new JSONObject());
 
     public static JSONStreamAware prepare(final JSONObject json) {
-        return new JSONStreamAware() {
-            private final char[] jsonChars = json.toJSONString().toCharArray();
-            @Override
-            public void writeJSONString(Writer out) throws IOException {
-                out.write(jsonChars);
-            }
-        };
+        return new Prepared(json.toJSONString());
     }
 
     public static JSONStreamAware prepareRequest(final JSONObject json) {
@@ -27,4 +26,60 @@ public final class JSON {
         return prepare(json);
     }
 
+    /*
+     * Adds the request type and protocol to an already prepared object, without serializing it again.
+     */
+    public static JSONStreamAware prepareRequest(String requestType, JSONStreamAware json) {
+        String jsonString = ((JSONAware) json).toJSONString();
+        StringBuilder buf = new StringBuilder(jsonString.length() + 48);
+        buf.append("{\"protocol\":1,\"requestType\":\"").append(JSONObject.escape(requestType)).append('"');
+        if (jsonString.length() > 2) {
+            buf.append(',');
+        }
+        buf.append(jsonString, 1, jsonString.length());
+        return new Prepared(buf.toString());
+    }
+
+    /*
+     * Ids as an array of unsigned numbers in strings, as ids are sent everywhere else.
+     */
+    public static JSONArray toIdArray(Collection<Long> ids) {
+        JSONArray idArray = new JSONArray();
+        for (Long id : ids) {
+            idArray.add(Convert.toUnsignedLong(id));
+        }
+        return idArray;
+    }
+
+    public static List<Long> parseIdArray(JSONArray idArray) {
+        List<Long> ids = new ArrayList<>(idArray.size());
+        for (Object id : idArray) {
+            ids.add(Convert.parseUnsignedLong((String) id));
+        }
+        return ids;
+    }
+
+    /*
+     * Also JSONAware, so that prepared objects can be nested in other JSON objects and arrays.
+     */
+    private static final class Prepared implements JSONStreamAware, JSONAware {
+
+        private final char[] jsonChars;
+
+        private Prepared(String jsonString) {
+            this.jsonChars = jsonString.toCharArray();
+        }
+
+        @Override
+        public void writeJSONString(Writer out) throws IOException {
+            out.write(jsonChars);
+        }
+
+        @Override
+        public String toJSONString() {
+            return new String(jsonChars);
+        }
+
+    }
+
 }